@@ -0,0 +1,18 @@
+package com.mokhir.dev.BookShop.aggregation.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+@Setter
+@Getter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class CursorPage<T> {
+    private List<T> content;
+    private Integer size;
+    private Boolean hasNext;
+    private String nextCursor;
+}
@@ -0,0 +1,18 @@
+package com.mokhir.dev.BookShop.aggregation.dto.books;
+
+import lombok.*;
+
+import java.util.List;
+
+@Setter
+@Getter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookImportResponse {
+    private Long imported;
+    private Long failed;
+    private List<BookImportError> errors;
+    private Boolean errorsTruncated;
+}
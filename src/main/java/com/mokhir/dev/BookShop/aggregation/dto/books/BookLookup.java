@@ -0,0 +1,15 @@
+package com.mokhir.dev.BookShop.aggregation.dto.books;
+
+import lombok.*;
+
+@Setter
+@Getter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookLookup {
+    private Long id;
+    private Boolean found;
+    private BookResponse book;
+}
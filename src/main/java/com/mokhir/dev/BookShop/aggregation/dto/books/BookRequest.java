@@ -30,4 +30,7 @@ public class BookRequest extends DateAudit implements Serializable {
     @NotNull
     @JsonProperty("quantity")
     private Integer quantity;
+
+    @JsonProperty("version")
+    private Long version;
 }
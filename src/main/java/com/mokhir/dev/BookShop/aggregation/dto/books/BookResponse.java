@@ -20,4 +20,5 @@ public class BookResponse implements Serializable {
     private String name;
     private Integer price;
     private Integer quantity;
+    private Long version;
 }
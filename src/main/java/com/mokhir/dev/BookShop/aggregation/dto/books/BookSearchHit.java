@@ -0,0 +1,14 @@
+package com.mokhir.dev.BookShop.aggregation.dto.books;
+
+import lombok.*;
+
+@Setter
+@Getter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookSearchHit {
+    private BookResponse book;
+    private Float rank;
+}
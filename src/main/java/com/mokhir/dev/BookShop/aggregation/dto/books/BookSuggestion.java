@@ -0,0 +1,19 @@
+package com.mokhir.dev.BookShop.aggregation.dto.books;
+
+import lombok.*;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@Setter
+@Getter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookSuggestion implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 4032176251349874120L;
+    private Long id;
+    private String name;
+}
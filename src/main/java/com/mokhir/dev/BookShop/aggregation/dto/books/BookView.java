@@ -0,0 +1,8 @@
+package com.mokhir.dev.BookShop.aggregation.dto.books;
+
+/**
+ * Read-only projection of the book columns that responses are built from. Queries returning it
+ * select only these columns and create no managed entity, so nothing is snapshotted for dirty checking.
+ */
+public record BookView(Long id, String name, Integer price, Integer quantity, Long version) {
+}
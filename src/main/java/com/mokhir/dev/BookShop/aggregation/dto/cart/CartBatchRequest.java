@@ -0,0 +1,25 @@
+package com.mokhir.dev.BookShop.aggregation.dto.cart;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Many changes to the current user's cart, applied together in request order: either all of them or none.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@Builder
+public class CartBatchRequest implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 5160384729016538271L;
+
+    @JsonProperty("operations")
+    private List<CartOperation> operations;
+}
@@ -0,0 +1,8 @@
+package com.mokhir.dev.BookShop.aggregation.dto.cart;
+
+/**
+ * One line of a cart as it is kept in the Redis cart store, a value of the hash of its owner
+ * under the ID of the book. The ID is the one the line gets in the cart table once persisted.
+ */
+public record CartLine(Long id, Long bookId, Integer quantity) {
+}
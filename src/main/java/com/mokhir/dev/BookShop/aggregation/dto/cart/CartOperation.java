@@ -0,0 +1,33 @@
+package com.mokhir.dev.BookShop.aggregation.dto.cart;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * One change of a cart batch: ADD and REMOVE change the user's line of the book by the quantity,
+ * SET makes the line hold exactly the quantity, and a line left with no copies is deleted.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@Builder
+public class CartOperation implements Serializable {
+    @Serial
+    private static final long serialVersionUID = -2735410985627304718L;
+
+    public enum Type {
+        ADD, REMOVE, SET
+    }
+
+    @JsonProperty("type")
+    private Type type;
+    @JsonProperty("bookId")
+    private Long bookId;
+    @JsonProperty("quantity")
+    private Integer quantity;
+}
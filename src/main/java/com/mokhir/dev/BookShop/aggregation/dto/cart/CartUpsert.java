@@ -0,0 +1,12 @@
+package com.mokhir.dev.BookShop.aggregation.dto.cart;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+
+/**
+ * Outcome of adding copies of a book to a cart in one statement: the book as it was read by the statement
+ * and, if the copies were added, the cart line after the change. The line fields are null when the book is
+ * inactive or has too few copies left for what the cart already holds plus the new copies.
+ */
+public record CartUpsert(BookView book, Boolean active, Integer alreadyInCart,
+                         Long cartId, Integer quantity, Integer totalPrice) {
+}
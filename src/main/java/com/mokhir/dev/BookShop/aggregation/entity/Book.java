@@ -6,6 +6,7 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.Locale;
 
 @Getter
 @Setter
@@ -20,7 +21,8 @@ public class Book extends DateAudit implements Serializable {
     @Serial
     private static final long serialVersionUID = -367197629124228271L;
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "books_seq")
+    @SequenceGenerator(name = "books_seq", sequenceName = "books_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "name")
@@ -34,4 +36,34 @@ public class Book extends DateAudit implements Serializable {
 
     @Column(name = "active", columnDefinition = "boolean default true")
     private Boolean active;
+
+    // Copies held by cart lines; only quantity - reserved can be put into another cart.
+    // Written by StockHoldRepository alone, so saving a book never overwrites a newer count.
+    @Column(name = "reserved", columnDefinition = "integer default 0 not null", insertable = false, updatable = false)
+    private Integer reserved;
+
+    // Unique per author through uk_books_created_by_normalized_name, which BookNameBackfillJob creates once
+    // the names of legacy rows are filled in
+    @Column(name = "normalized_name")
+    private String normalizedName;
+
+    @Version
+    @Column(name = "version", columnDefinition = "bigint default 0 not null")
+    private Long version;
+
+    @PrePersist
+    @PreUpdate
+    private void updateNormalizedName() {
+        normalizedName = normalizeName(name);
+    }
+
+    /**
+     * Normalizes a book name for duplicate detection: spaces removed, lower case.
+     *
+     * @param name The book name
+     * @return The normalized name, or null if the name is null
+     */
+    public static String normalizeName(String name) {
+        return name == null ? null : name.replace(" ", "").toLowerCase(Locale.ROOT);
+    }
 }
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.time.LocalDateTime;
 
 @Getter
 @Setter
@@ -16,15 +17,31 @@ import java.io.Serializable;
 @Builder
 @Entity
 @EntityListeners(AuditingEntityListener.class)
+// uk_cart_created_by_book_id is created by schema.sql, once the lines stored before it existed are folded together
+@Table(name = "cart", indexes = @Index(name = "idx_cart_last_activity_at", columnList = "last_activity_at"))
 public class Cart extends DateAudit implements Serializable {
     @Serial
     private static final long serialVersionUID = 739974703453790820L;
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cart_seq")
+    @SequenceGenerator(name = "cart_seq", sequenceName = "cart_seq", allocationSize = 50)
     private Long id;
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "book_id", referencedColumnName = "id")
     private Book book;
     private Integer quantity;
     private Integer totalPrice;
+    // Concurrent changes of the same line are detected instead of one silently overwriting the other
+    @Version
+    @Column(name = "version", columnDefinition = "bigint default 0 not null")
+    private Long version;
+    // When the line was last written; lines left alone for cart.purge.after are purged
+    @Column(name = "last_activity_at")
+    private LocalDateTime lastActivityAt;
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        lastActivityAt = LocalDateTime.now();
+    }
 }
@@ -0,0 +1,54 @@
+package com.mokhir.dev.BookShop.aggregation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * The outcome of a request sent with an Idempotency-Key header. Keys are scoped to the user who sent them, so
+ * users cannot collide with or probe each other's keys. The row is written before the request is executed and
+ * locked while it runs; the response is stored with it once the request succeeded.
+ */
+@Getter
+@Setter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "idempotency_keys", indexes = @Index(
+        name = "idx_idempotency_keys_expires_at", columnList = "expires_at"))
+@IdClass(IdempotencyKey.UserKey.class)
+public class IdempotencyKey implements Serializable {
+    @Serial
+    private static final long serialVersionUID = -5820164739528104376L;
+    @Id
+    @Column(name = "created_by")
+    private String createdBy;
+    @Id
+    @Column(name = "idempotency_key")
+    private String key;
+    // SHA-256 of the request body, so the user cannot reuse a key for another request
+    @Column(name = "request_hash", nullable = false, length = 64)
+    private String requestHash;
+    // The JSON of the response; empty while the request runs or after it failed
+    @Column(name = "response", columnDefinition = "text")
+    private String response;
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Getter
+    @Setter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class UserKey implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 4392617780215538106L;
+        private String createdBy;
+        private String key;
+    }
+}
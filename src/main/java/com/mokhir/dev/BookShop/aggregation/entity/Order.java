@@ -24,7 +24,8 @@ public class Order extends DateAudit implements Serializable, Comparable<Order>
     @Serial
     private static final long serialVersionUID = -1281151854203875660L;
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
     private Long id;
     private Long totalAmount;
     private Long totalPrice;
@@ -22,7 +22,8 @@ public class Role extends DateAudit implements Serializable{
     @Serial
     private static final long serialVersionUID = 5214659867290735515L;
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "roles_seq")
+    @SequenceGenerator(name = "roles_seq", sequenceName = "roles_seq", allocationSize = 50)
     private Long id;
     private String name;
     @ManyToMany(fetch = FetchType.EAGER)
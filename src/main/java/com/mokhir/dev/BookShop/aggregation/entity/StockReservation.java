@@ -0,0 +1,35 @@
+package com.mokhir.dev.BookShop.aggregation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Copies of a book held for a cart line until they are checked out, taken out of the cart or the hold expires.
+ * A cart line has at most one hold, so the hold is keyed by the ID of the line.
+ */
+@Getter
+@Setter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "stock_reservations", indexes = @Index(
+        name = "idx_stock_reservations_expires_at", columnList = "expires_at"))
+public class StockReservation implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 4127390586201946735L;
+    @Id
+    @Column(name = "cart_id")
+    private Long cartId;
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+    @Column(name = "quantity", nullable = false)
+    private Integer quantity;
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
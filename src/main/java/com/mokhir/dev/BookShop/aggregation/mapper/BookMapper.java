@@ -2,6 +2,7 @@ package com.mokhir.dev.BookShop.aggregation.mapper;
 
 import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
 import com.mokhir.dev.BookShop.aggregation.entity.Book;
 import com.mokhir.dev.BookShop.aggregation.mapper.interfaces.EntityMapper;
 import com.mokhir.dev.BookShop.exceptions.DatabaseException;
@@ -25,6 +26,20 @@ public class BookMapper implements EntityMapper<Book, BookRequest, BookResponse>
                 .quantity(entity.getQuantity())
                 .price(entity.getPrice())
                 .name(entity.getName())
+                .version(entity.getVersion())
+                .build();
+    }
+
+    public BookResponse toDto(BookView view) {
+        if (view == null) {
+            return null;
+        }
+        return BookResponse.builder()
+                .id(view.id())
+                .quantity(view.quantity())
+                .price(view.price())
+                .name(view.name())
+                .version(view.version())
                 .build();
     }
 
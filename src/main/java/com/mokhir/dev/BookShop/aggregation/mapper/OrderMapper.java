@@ -3,39 +3,53 @@ package com.mokhir.dev.BookShop.aggregation.mapper;
 import com.mokhir.dev.BookShop.aggregation.dto.order.OrderResponse;
 import com.mokhir.dev.BookShop.aggregation.dto.order.details.OrderDetailsResponse;
 import com.mokhir.dev.BookShop.aggregation.entity.Order;
-import com.mokhir.dev.BookShop.aggregation.entity.OrderDetails;
 import com.mokhir.dev.BookShop.aggregation.mapper.interfaces.BaseMapper;
-import com.mokhir.dev.BookShop.jwt.JwtProvider;
 import com.mokhir.dev.BookShop.repository.interfaces.OrderDetailsRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+
 @Component
 @RequiredArgsConstructor
 public class OrderMapper implements BaseMapper<Order, OrderResponse> {
     private final OrderDetailsRepository orderDetailsRepository;
     private final OrderDetailsMapper orderDMapper;
-    private final JwtProvider jwtProvider;
 
     @Override
     public OrderResponse toDto(Order save) {
-        List<OrderDetails> saveAll = orderDetailsRepository.findAllByCreatedBy(jwtProvider.getCurrentUser());
-        List<OrderDetails> detailsList = saveAll
-                .stream()
-                .filter(orderDetails ->
-                        orderDetails.getOrder().getId().equals(save.getId()))
-                .toList();
-        List<OrderDetailsResponse> orderDetailsResponseList = detailsList
+        return toDtos(List.of(save)).get(0);
+    }
+
+    /**
+     * Maps orders with the details of all of them read in a single query, books included.
+     *
+     * @param orders The orders to map
+     * @return The order responses, in the order of the given orders
+     */
+    public List<OrderResponse> toDtos(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, List<OrderDetailsResponse>> detailsByOrder = orderDetailsRepository
+                .findAllByOrderIdInOrderByIdAsc(orders.stream().map(Order::getId).toList())
                 .stream()
-                .map(orderDMapper::toDto)
+                .collect(groupingBy(details -> details.getOrder().getId(), LinkedHashMap::new,
+                        mapping(orderDMapper::toDto, toList())));
+        return orders.stream()
+                .map(order -> OrderResponse.builder()
+                        .id(order.getId())
+                        .status(true)
+                        .totalAmount(order.getTotalAmount())
+                        .totalPrice(order.getTotalPrice())
+                        .orderDetails(detailsByOrder.getOrDefault(order.getId(), List.of()))
+                        .build())
                 .toList();
-        return OrderResponse.builder()
-                .id(save.getId())
-                .status(true)
-                .totalAmount(save.getTotalAmount())
-                .totalPrice(save.getTotalPrice())
-                .orderDetails(orderDetailsResponseList)
-                .build();
     }
 }
@@ -0,0 +1,117 @@
+package com.mokhir.dev.BookShop.config;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.Cache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.data.redis.cache.CacheStatisticsCollector;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads many entries of one cache at once. Spring's Cache has no multi-get, so for Redis caches
+ * the keys are built the way RedisCache builds them and fetched with a single MGET; other caches
+ * are read key by key. Every key counts as a get, and a hit or a miss, in the cache statistics,
+ * as it would if it were read on its own.
+ */
+@Component
+@RequiredArgsConstructor
+public class CacheBatchReader {
+    private final ObjectProvider<RedisConnectionFactory> connectionFactory;
+    private static final Logger logger = LoggerFactory.getLogger(CacheBatchReader.class);
+
+    /**
+     * Looks up the given keys in a cache.
+     *
+     * @param cache The cache to read, possibly wrapped in a TransactionAwareCacheDecorator
+     * @param keys  The cache keys, converted to strings the way Spring converts simple keys
+     * @param type  The type of the cached values; entries of another type count as misses
+     * @return The cached values by key; missing keys are absent from the map
+     */
+    public <K, V> Map<K, V> getAll(Cache cache, List<K> keys, Class<V> type) {
+        Map<K, V> found = new HashMap<>();
+        if (cache == null || keys.isEmpty()) {
+            return found;
+        }
+        Cache target = cache instanceof TransactionAwareCacheDecorator decorator ? decorator.getTargetCache() : cache;
+        RedisConnectionFactory factory = connectionFactory.getIfAvailable();
+        if (target instanceof RedisCache redisCache && factory != null) {
+            try {
+                readFromRedis(redisCache, factory, keys, type, found);
+                return found;
+            } catch (RuntimeException ex) {
+                // A cache outage must not fail the read, the caller falls back to the database
+                logger.warn("Error reading {} entries from cache {}: {}", keys.size(), cache.getName(), ex.getMessage());
+                return new HashMap<>();
+            }
+        }
+        for (K key : keys) {
+            V value = cache.get(key, type);
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+        return found;
+    }
+
+    private static <K, V> void readFromRedis(RedisCache cache, RedisConnectionFactory factory,
+                                             List<K> keys, Class<V> type, Map<K, V> found) {
+        RedisCacheConfiguration configuration = cache.getCacheConfiguration();
+        byte[][] redisKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            redisKeys[i] = ByteUtils.getBytes(
+                    configuration.getKeySerializationPair().write(cacheKey(cache, keys.get(i))));
+        }
+        List<byte[]> values;
+        try (RedisConnection connection = factory.getConnection()) {
+            values = connection.stringCommands().mGet(redisKeys);
+        }
+        if (values != null) {
+            for (int i = 0; i < values.size(); i++) {
+                byte[] bytes = values.get(i);
+                if (bytes == null) {
+                    continue;
+                }
+                Object value = configuration.getValueSerializationPair().read(ByteBuffer.wrap(bytes));
+                if (type.isInstance(value)) {
+                    found.put(keys.get(i), type.cast(value));
+                }
+            }
+        }
+        recordStatistics(cache, keys.size(), found.size());
+    }
+
+    // The key RedisCache.createCacheKey builds: converted to a string, then prefixed for the cache
+    private static String cacheKey(RedisCache cache, Object key) {
+        RedisCacheConfiguration configuration = cache.getCacheConfiguration();
+        String converted = key instanceof String string ? string
+                : configuration.getConversionService().convert(key, String.class);
+        return configuration.usePrefix() ? configuration.getKeyPrefixFor(cache.getName()) + converted : converted;
+    }
+
+    private static void recordStatistics(RedisCache cache, int gets, int hits) {
+        if (!(cache.getNativeCache() instanceof StatisticsExposingCacheWriter writer)) {
+            return;
+        }
+        CacheStatisticsCollector statistics = writer.statistics();
+        for (int i = 0; i < gets; i++) {
+            statistics.incGets(cache.getName());
+            if (i < hits) {
+                statistics.incHits(cache.getName());
+            } else {
+                statistics.incMisses(cache.getName());
+            }
+        }
+    }
+}
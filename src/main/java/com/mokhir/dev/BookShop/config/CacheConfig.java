@@ -0,0 +1,42 @@
+package com.mokhir.dev.BookShop.config;
+
+import org.springframework.boot.autoconfigure.cache.RedisCacheManagerBuilderCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.cache.BatchStrategies;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    /**
+     * Single books keyed by their ID.
+     */
+    public static final String BOOKS = "books";
+    /**
+     * Pages of active books keyed by page number and size.
+     */
+    public static final String BOOK_PAGES = "bookPages";
+
+    private static final int EVICTION_SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * Uses SCAN instead of KEYS when a whole cache is cleared, so evicting every book page
+     * never blocks Redis on a large keyspace. Puts and evictions issued inside a transaction
+     * are applied after it commits. The writer exposes its statistics collector, so batch reads
+     * count in the cache statistics too.
+     *
+     * @param connectionFactory The Redis connection factory
+     * @return A customizer applied to the auto-configured RedisCacheManager
+     */
+    @Bean
+    public RedisCacheManagerBuilderCustomizer redisCacheManagerBuilderCustomizer(
+            RedisConnectionFactory connectionFactory) {
+        return builder -> builder
+                .cacheWriter(new StatisticsExposingCacheWriter(RedisCacheWriter.nonLockingRedisCacheWriter(
+                        connectionFactory, BatchStrategies.scan(EVICTION_SCAN_BATCH_SIZE))))
+                .transactionAware();
+    }
+}
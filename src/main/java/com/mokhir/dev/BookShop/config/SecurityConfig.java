@@ -63,7 +63,8 @@ public class SecurityConfig {
                                         "/v3/api-docs/**",
                                         "/docs/**",
                                         "/api/v1/user/signIn",
-                                        "/api/v1/user/signUp"
+                                        "/api/v1/user/signUp",
+                                        "/actuator/health/**"
                                 ).permitAll()
                                 .anyRequest()
                                 .authenticated()
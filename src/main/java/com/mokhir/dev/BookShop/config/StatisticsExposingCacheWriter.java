@@ -0,0 +1,100 @@
+package com.mokhir.dev.BookShop.config;
+
+import org.springframework.data.redis.cache.CacheStatistics;
+import org.springframework.data.redis.cache.CacheStatisticsCollector;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Passes every call on to a RedisCacheWriter and keeps hold of the statistics collector the cache manager
+ * gives it. The collector is otherwise private to the writer, so reads that bypass the writer, like the
+ * multi-get of CacheBatchReader, could not be counted in the cache statistics.
+ */
+class StatisticsExposingCacheWriter implements RedisCacheWriter {
+    private final RedisCacheWriter delegate;
+    private final CacheStatisticsCollector statistics;
+
+    StatisticsExposingCacheWriter(RedisCacheWriter delegate) {
+        this(delegate, CacheStatisticsCollector.none());
+    }
+
+    private StatisticsExposingCacheWriter(RedisCacheWriter delegate, CacheStatisticsCollector statistics) {
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return The collector the statistics of the caches written through this writer are counted in
+     */
+    CacheStatisticsCollector statistics() {
+        return statistics;
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key) {
+        return delegate.get(name, key);
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key, Duration ttl) {
+        return delegate.get(name, key, ttl);
+    }
+
+    @Override
+    public boolean supportsAsyncRetrieve() {
+        return delegate.supportsAsyncRetrieve();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> retrieve(String name, byte[] key) {
+        return delegate.retrieve(name, key);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> retrieve(String name, byte[] key, Duration ttl) {
+        return delegate.retrieve(name, key, ttl);
+    }
+
+    @Override
+    public void put(String name, byte[] key, byte[] value, Duration ttl) {
+        delegate.put(name, key, value, ttl);
+    }
+
+    @Override
+    public CompletableFuture<Void> store(String name, byte[] key, byte[] value, Duration ttl) {
+        return delegate.store(name, key, value, ttl);
+    }
+
+    @Override
+    public byte[] putIfAbsent(String name, byte[] key, byte[] value, Duration ttl) {
+        return delegate.putIfAbsent(name, key, value, ttl);
+    }
+
+    @Override
+    public void remove(String name, byte[] key) {
+        delegate.remove(name, key);
+    }
+
+    @Override
+    public void clean(String name, byte[] pattern) {
+        delegate.clean(name, pattern);
+    }
+
+    @Override
+    public void clearStatistics(String name) {
+        delegate.clearStatistics(name);
+    }
+
+    @Override
+    public RedisCacheWriter withStatisticsCollector(CacheStatisticsCollector cacheStatisticsCollector) {
+        return new StatisticsExposingCacheWriter(delegate.withStatisticsCollector(cacheStatisticsCollector),
+                cacheStatisticsCollector);
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics(String cacheName) {
+        return delegate.getCacheStatistics(cacheName);
+    }
+}
@@ -1,20 +1,44 @@
 package com.mokhir.dev.BookShop.controller;
 
+import com.mokhir.dev.BookShop.aggregation.dto.CursorPage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookImportResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookLookup;
 import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSuggestion;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.service.BookExportService;
+import com.mokhir.dev.BookShop.service.BookImportService;
+import com.mokhir.dev.BookShop.service.BookSearchService;
 import com.mokhir.dev.BookShop.service.BookService;
+import com.mokhir.dev.BookShop.utils.BookFileFormat;
+import com.mokhir.dev.BookShop.utils.CursorCodec;
+import com.mokhir.dev.BookShop.utils.ETags;
 import io.github.jhipster.web.util.PaginationUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
 import static com.mokhir.dev.BookShop.utils.ApiUrls.*;
 
 @RestController
@@ -22,14 +46,24 @@ import static com.mokhir.dev.BookShop.utils.ApiUrls.*;
 @RequestMapping(BOOK)
 public class BookController {
     private final BookService service;
+    private final BookImportService importService;
+    private final BookExportService exportService;
+    private final BookSearchService searchService;
+
+    @Value("${book.export.timeout:30m}")
+    private Duration exportTimeout;
 
     @GetMapping(ALL)
     @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
-    public ResponseEntity<Page<BookResponse>> findAll(@RequestParam("page") int pageIndex,
+    public ResponseEntity<Slice<BookResponse>> findAll(@RequestParam("page") int pageIndex,
                                                @RequestParam("size") int pageSize,
+                                               @RequestParam(value = "count", defaultValue = "true") boolean count,
                                                @RequestParam MultiValueMap<String, String> queryParams,
                                                UriComponentsBuilder uriBuilder) {
         Pageable pageable = PageRequest.of(pageIndex, pageSize);
+        if (!count) {
+            return ResponseEntity.ok().body(service.findAllSlice(pageable));
+        }
         Page<BookResponse> page = service.findAll(pageable);
         HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(uriBuilder.queryParams(queryParams), page);
         return ResponseEntity.ok().headers(headers).body(page);
@@ -60,6 +94,54 @@ public class BookController {
     }
 
 
+    @GetMapping(ALL_CURSOR)
+    @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
+    public ResponseEntity<CursorPage<BookResponse>> findAllByCursor(@RequestParam("size") int pageSize,
+                                                                    @RequestParam(value = "cursor", required = false)
+                                                                    String cursor) {
+        return ResponseEntity.ok().body(service.findAllAfter(CursorCodec.decodeId(cursor), pageSize));
+    }
+
+    @GetMapping(ALL_BOOKS_CURSOR)
+    @PreAuthorize("hasAuthority('ADMIN_ACCESS')")
+    public ResponseEntity<CursorPage<BookResponse>> findAllBooksByCursor(@RequestParam("size") int pageSize,
+                                                                         @RequestParam(value = "cursor", required = false)
+                                                                         String cursor) {
+        return ResponseEntity.ok().body(service.findAllAfter(CursorCodec.decodeId(cursor), pageSize));
+    }
+
+    @GetMapping(ALL_BOOKS_BY_AUTHOR_CURSOR)
+    @PreAuthorize("hasAuthority('ADMIN_ACCESS')")
+    public ResponseEntity<CursorPage<BookResponse>> findAllBooksByAuthorByCursor(@RequestParam("size") int pageSize,
+                                                                                 @RequestParam(value = "cursor", required = false)
+                                                                                 String cursor,
+                                                                                 @RequestBody BookRequest request) {
+        return ResponseEntity.ok().body(service.findAllBooksByCreatedByAfter(
+                request.getCreatedBy(), CursorCodec.decodeId(cursor), pageSize));
+    }
+
+    @GetMapping(SEARCH)
+    @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
+    public ResponseEntity<CursorPage<BookResponse>> search(@RequestParam("q") String query,
+                                                           @RequestParam(value = "size", defaultValue = "20") int pageSize,
+                                                           @RequestParam(value = "cursor", required = false)
+                                                           String cursor) throws ApiControllerException {
+        return ResponseEntity.ok().body(searchService.search(query, cursor, pageSize));
+    }
+
+    @GetMapping(BATCH)
+    @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
+    public ResponseEntity<List<BookLookup>> getByIds(@RequestParam("ids") List<Long> ids) throws ApiControllerException {
+        return ResponseEntity.ok().body(service.getByIds(ids));
+    }
+
+    @GetMapping(SUGGEST)
+    @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
+    public ResponseEntity<List<BookSuggestion>> suggest(@RequestParam("q") String prefix,
+                                                        @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return ResponseEntity.ok().body(service.suggest(prefix, limit));
+    }
+
     @DeleteMapping
     @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
     public ResponseEntity<BookResponse> remove(@RequestBody BookRequest request) {
@@ -69,14 +151,26 @@ public class BookController {
 
     @PutMapping(UPDATE)
     @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
-    public ResponseEntity<BookResponse> update(@RequestBody BookRequest request) {
-        return ResponseEntity.ok().body(service.update(request));
+    public ResponseEntity<BookResponse> update(@RequestBody BookRequest request,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                               String ifMatch) {
+        if (ifMatch != null) {
+            request.setVersion(ETags.expectedVersion(ifMatch, request.getId()));
+        }
+        BookResponse book = service.update(request);
+        return ResponseEntity.ok().eTag(ETags.of(book.getId(), book.getVersion())).body(book);
     }
 
     @GetMapping
     @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
-    public ResponseEntity<BookResponse> getBookById(@RequestBody BookRequest request) {
-        return ResponseEntity.ok().body(service.getBookById(request));
+    public ResponseEntity<BookResponse> getBookById(@RequestBody BookRequest request, WebRequest webRequest) {
+        return conditional(service.getBookById(request), webRequest);
+    }
+
+    @GetMapping(GET_BY_ID)
+    @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
+    public ResponseEntity<BookResponse> getById(@PathVariable String entityId, WebRequest webRequest) {
+        return conditional(service.getById(entityId), webRequest);
     }
 
     @PostMapping(ADD_BOOK)
@@ -84,4 +178,36 @@ public class BookController {
     public ResponseEntity<BookResponse> addBook(@RequestBody BookRequest request) {
         return ResponseEntity.ok().body(service.addBook(request));
     }
+
+    @PostMapping(value = IMPORT, consumes = {BookFileFormat.TEXT_CSV_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @PreAuthorize("hasAuthority('AUTHOR_ACCESS')")
+    public ResponseEntity<BookImportResponse> importBooks(HttpServletRequest request) throws IOException {
+        BookFileFormat format = BookFileFormat.fromContentType(request.getContentType());
+        return ResponseEntity.ok().body(importService.importBooks(request.getInputStream(), format));
+    }
+
+    @GetMapping(EXPORT)
+    @PreAuthorize("hasAuthority('ADMIN_ACCESS')")
+    public WebAsyncTask<Void> exportBooks(@RequestParam(value = "format", defaultValue = "CSV") BookFileFormat format,
+                                          HttpServletResponse response) {
+        ContentDisposition disposition = ContentDisposition.attachment()
+                .filename(format.fileName("books"))
+                .build();
+        response.setContentType(format.getMediaType().toString());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.toString());
+        // The catalog streams for as long as it takes to write, so this request alone gets a longer timeout
+        return new WebAsyncTask<>(exportTimeout.toMillis(), () -> {
+            exportService.exportBooks(response.getOutputStream(), format);
+            return null;
+        });
+    }
+
+    private static ResponseEntity<BookResponse> conditional(BookResponse book, WebRequest webRequest) {
+        String eTag = ETags.of(book.getId(), book.getVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            // The client already has this version, skip the body
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return ResponseEntity.ok().eTag(eTag).body(book);
+    }
 }
@@ -1,9 +1,11 @@
 package com.mokhir.dev.BookShop.controller;
 
 import com.mokhir.dev.BookShop.aggregation.dto.ResponseMessage;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.cart.CartRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
-import com.mokhir.dev.BookShop.service.CartService;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.service.interfaces.CartServiceInterface;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -17,7 +19,7 @@ import java.util.List;
 @RequiredArgsConstructor
 @RequestMapping("/api/v1/cart")
 public class CartController {
-    private final CartService cartService;
+    private final CartServiceInterface cartService;
 
     @PostMapping("/add")
     @PreAuthorize("hasAuthority('USER_ACCESS')")
@@ -26,6 +28,13 @@ public class CartController {
         return ResponseEntity.ok().body(cartResponse);
     }
 
+    @PostMapping("/batch")
+    @PreAuthorize("hasAuthority('USER_ACCESS')")
+    public ResponseEntity<ResponseMessage<List<CartResponse>>> applyBatch(@RequestBody CartBatchRequest batchRequest)
+            throws ApiControllerException {
+        return ResponseEntity.ok().body(cartService.applyBatch(batchRequest));
+    }
+
     @GetMapping("/all")
     @PreAuthorize("hasAuthority('USER_ACCESS')")
     public ResponseEntity<ResponseMessage<Page<CartResponse>>> getAllCarts(@RequestParam("page") int pageIndex,
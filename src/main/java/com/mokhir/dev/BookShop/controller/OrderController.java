@@ -3,6 +3,8 @@ package com.mokhir.dev.BookShop.controller;
 import com.mokhir.dev.BookShop.aggregation.dto.order.OrderRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.order.OrderResponse;
 import com.mokhir.dev.BookShop.aggregation.dto.order.details.OrderDetailsResponse;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.service.IdempotencyService;
 import com.mokhir.dev.BookShop.service.OrderDetailsService;
 import com.mokhir.dev.BookShop.service.OrderService;
 import lombok.RequiredArgsConstructor;
@@ -17,6 +19,7 @@ import org.springframework.web.bind.annotation.*;
 public class OrderController {
     private final OrderService orderService;
     private final OrderDetailsService orderDetailsService;
+    private final IdempotencyService idempotencyService;
 
     @GetMapping("/all")
     @PreAuthorize("hasAuthority('USER_ACCESS')")
@@ -39,8 +42,15 @@ public class OrderController {
 
     @PostMapping("/create")
     @PreAuthorize("hasAuthority('USER_ACCESS')")
-    public ResponseEntity<OrderResponse> create(@RequestBody OrderRequest request) {
-        return ResponseEntity.ok().body(orderService.createOrder(request));
+    public ResponseEntity<OrderResponse> create(@RequestHeader(value = "Idempotency-Key", required = false)
+                                                String idempotencyKey,
+                                                @RequestBody OrderRequest request) throws ApiControllerException {
+        if (idempotencyKey == null) {
+            return ResponseEntity.ok().body(orderService.createOrder(request));
+        }
+        // A retried request gets the order created by the first one
+        return ResponseEntity.ok().body(idempotencyService.execute(idempotencyKey, request, OrderResponse.class,
+                () -> orderService.createOrder(request)));
     }
 
 
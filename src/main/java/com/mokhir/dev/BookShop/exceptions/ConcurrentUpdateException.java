@@ -0,0 +1,11 @@
+package com.mokhir.dev.BookShop.exceptions;
+
+public class ConcurrentUpdateException extends RuntimeException {
+    public ConcurrentUpdateException(String message) {
+        super(message);
+    }
+
+    public ConcurrentUpdateException(Throwable cause) {
+        super(cause);
+    }
+}
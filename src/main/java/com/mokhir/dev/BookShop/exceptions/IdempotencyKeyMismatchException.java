@@ -0,0 +1,11 @@
+package com.mokhir.dev.BookShop.exceptions;
+
+public class IdempotencyKeyMismatchException extends RuntimeException {
+    public IdempotencyKeyMismatchException(String message) {
+        super(message);
+    }
+
+    public IdempotencyKeyMismatchException(Throwable cause) {
+        super(cause);
+    }
+}
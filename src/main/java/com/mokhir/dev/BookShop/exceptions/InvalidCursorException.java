@@ -0,0 +1,11 @@
+package com.mokhir.dev.BookShop.exceptions;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+
+    public InvalidCursorException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,11 @@
+package com.mokhir.dev.BookShop.exceptions;
+
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+
+    public PreconditionFailedException(Throwable cause) {
+        super(cause);
+    }
+}
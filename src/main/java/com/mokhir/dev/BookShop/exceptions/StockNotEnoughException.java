@@ -0,0 +1,15 @@
+package com.mokhir.dev.BookShop.exceptions;
+
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+public class StockNotEnoughException extends RuntimeException {
+    private final List<Long> bookIds;
+
+    public StockNotEnoughException(List<Long> bookIds) {
+        super("Not enough copies in stock for books: " + bookIds);
+        this.bookIds = bookIds;
+    }
+}
@@ -0,0 +1,92 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.service.interfaces.CartPurgeInterface;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Removes cart lines nobody wrote to for cart.purge.after, with the copies held for them. Lines are removed
+ * in chunks, each chunk committed on its own and followed by a pause, so no run holds many row locks or
+ * writes a burst of WAL; the run itself is scheduled off-peak. Publishes the number of lines removed
+ * ({@code cart.purge.rows}) and the time each run took ({@code cart.purge.duration}). Runs for either cart
+ * store; with cart.store=redis the carts removed from the table are dropped from Redis as well.
+ */
+@Component
+public class AbandonedCartPurgeJob {
+    private static final Logger logger = LoggerFactory.getLogger(AbandonedCartPurgeJob.class);
+
+    private final CartPurgeInterface cartService;
+    private final Counter purged;
+    private final Timer duration;
+    private final Duration after;
+    private final int chunkSize;
+    private final Duration pause;
+
+    public AbandonedCartPurgeJob(CartPurgeInterface cartService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${cart.purge.after:30d}") Duration after,
+                                 @Value("${cart.purge.chunk-size:500}") int chunkSize,
+                                 @Value("${cart.purge.pause:200ms}") Duration pause) {
+        this.cartService = cartService;
+        this.after = after;
+        this.chunkSize = chunkSize;
+        this.pause = pause;
+        this.purged = Counter.builder("cart.purge.rows")
+                .description("Abandoned cart lines removed")
+                .register(meterRegistry);
+        this.duration = Timer.builder("cart.purge.duration")
+                .description("Time taken by a run of the abandoned-cart purge")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Removes abandoned lines chunk by chunk until none is left.
+     *
+     * @return The number of lines removed
+     */
+    @Scheduled(cron = "${cart.purge.cron:0 30 3 * * *}")
+    public long purge() {
+        // Lines that become abandoned while the run goes on are left for the next one
+        LocalDateTime before = LocalDateTime.now().minus(after);
+        long started = System.nanoTime();
+        long total = 0;
+        try {
+            int removed;
+            do {
+                removed = cartService.purgeAbandoned(before, chunkSize);
+                total += removed;
+                purged.increment(removed);
+            } while (removed == chunkSize && pause());
+        } catch (Exception ex) {
+            // Lines left behind are picked up by the next run
+            logger.error("Error purging abandoned carts: {}", ex.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            duration.record(Duration.ofNanos(elapsed));
+            if (total > 0) {
+                logger.info("Purged {} abandoned cart lines in {} ms", total, Duration.ofNanos(elapsed).toMillis());
+            }
+        }
+        return total;
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(pause.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            // Stop at a chunk boundary when the application shuts down
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Fills books.normalized_name for rows written before the column existed, then enforces
+ * uk_books_created_by_normalized_name. Runs once at startup, after the schema is updated and before the
+ * application serves requests, in chunks, each chunk committed on its own.
+ */
+@Component
+@RequiredArgsConstructor
+public class BookNameBackfillJob implements SmartInitializingSingleton {
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private static final Logger logger = LoggerFactory.getLogger(BookNameBackfillJob.class);
+
+    private static final String SELECT_CHUNK = """
+            SELECT id, created_by, name
+            FROM books
+            WHERE normalized_name IS NULL AND name IS NOT NULL AND id > ?
+            ORDER BY id
+            LIMIT ?
+            """;
+
+    /*
+     * Skips names the author already owns, so the backfill never trips the unique index. Rows of a chunk are
+     * updated in id order within one transaction, so the oldest of several legacy duplicates keeps the name.
+     */
+    private static final String UPDATE_ROW = """
+            UPDATE books
+            SET normalized_name = ?
+            WHERE id = ?
+              AND NOT EXISTS (SELECT 1 FROM books o WHERE o.created_by = ? AND o.normalized_name = ?)
+            """;
+
+    // Books another instance wrote while the index was missing: all but the oldest give up the name
+    private static final String DEMOTE_DUPLICATES = """
+            UPDATE books
+            SET normalized_name = NULL
+            WHERE id IN (SELECT b.id FROM books b
+                         JOIN books o ON o.created_by = b.created_by
+                                     AND o.normalized_name = b.normalized_name
+                                     AND o.id < b.id)
+            """;
+
+    private static final String CREATE_INDEX =
+            "CREATE UNIQUE INDEX IF NOT EXISTS uk_books_created_by_normalized_name ON books (created_by, normalized_name)";
+
+    private static final int INDEX_ATTEMPTS = 3;
+
+    private record LegacyBook(long id, String createdBy, String name) {
+    }
+
+    @Value("${book.normalized-name.backfill.enabled:true}")
+    private boolean enabled;
+    @Value("${book.normalized-name.backfill.chunk-size:1000}")
+    private int chunkSize;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) {
+            backfill();
+        }
+    }
+
+    /**
+     * Backfills normalized names chunk by chunk, then creates the unique index over them.
+     * Names are normalized by Book.normalizeName, the same as every book written since, because the
+     * database's lower() does not case-fold like Java does. Rows left without a normalized name are
+     * legacy duplicates of a book the same author already has.
+     */
+    public void backfill() {
+        try {
+            long started = System.currentTimeMillis();
+            long total = 0;
+            long lastId = 0;
+            List<LegacyBook> chunk;
+            do {
+                chunk = jdbcTemplate.query(SELECT_CHUNK, (rs, rowNum) -> new LegacyBook(
+                        rs.getLong("id"), rs.getString("created_by"), rs.getString("name")), lastId, chunkSize);
+                if (!chunk.isEmpty()) {
+                    total += backfillChunk(chunk);
+                    lastId = chunk.get(chunk.size() - 1).id();
+                }
+            } while (chunk.size() == chunkSize);
+
+            Long duplicates = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM books WHERE normalized_name IS NULL AND name IS NOT NULL", Long.class);
+            logger.info("Backfilled normalized names of {} books in {} ms", total, System.currentTimeMillis() - started);
+            if (duplicates != null && duplicates > 0) {
+                logger.warn("{} books duplicate the name of another book by the same author and were left without "
+                        + "a normalized name", duplicates);
+            }
+            enforceUniqueNames();
+        } catch (Exception ex) {
+            logger.error("Error backfilling normalized book names: {}", ex.getMessage());
+        }
+    }
+
+    private int backfillChunk(List<LegacyBook> chunk) {
+        Integer updated = transactionTemplate.execute(status -> {
+            int[][] counts = jdbcTemplate.batchUpdate(UPDATE_ROW, chunk, chunk.size(), (ps, book) -> {
+                String normalizedName = Book.normalizeName(book.name());
+                ps.setString(1, normalizedName);
+                ps.setLong(2, book.id());
+                ps.setString(3, book.createdBy());
+                ps.setString(4, normalizedName);
+            });
+            int sum = 0;
+            for (int[] batch : counts) {
+                for (int count : batch) {
+                    // Drivers that batch without row counts report SUCCESS_NO_INFO (-2)
+                    sum += Math.max(count, 0);
+                }
+            }
+            return sum;
+        });
+        return updated == null ? 0 : updated;
+    }
+
+    /**
+     * Creates the unique index once every name is backfilled. Another instance may still insert a duplicate
+     * before the index exists, so duplicates are demoted first and the creation is retried if one slips in.
+     */
+    private void enforceUniqueNames() {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int demoted = jdbcTemplate.update(DEMOTE_DUPLICATES);
+                if (demoted > 0) {
+                    logger.warn("{} books written while the unique name index was missing duplicate another "
+                            + "book by the same author and were left without a normalized name", demoted);
+                }
+                jdbcTemplate.execute(CREATE_INDEX);
+                return;
+            } catch (DataAccessException ex) {
+                if (attempt >= INDEX_ATTEMPTS) {
+                    throw ex;
+                }
+                logger.warn("Retrying the unique name index: {}", ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartLine;
+import com.mokhir.dev.BookShop.service.RedisCartService;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies the carts kept in Redis by {@link RedisCartService} to the cart table. Every run pops the users
+ * whose carts changed and writes their carts in batches, one transaction per batch, making the rows of
+ * each user match the lines in Redis. A batch that fails is marked again and retried on the next run.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "cart.store", havingValue = "redis")
+public class CartWriteBehindJob {
+    private final RedisCartService cartStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private static final Logger logger = LoggerFactory.getLogger(CartWriteBehindJob.class);
+
+    private static final String SELECT_ROWS = "SELECT id, created_by FROM cart WHERE created_by IN (%s)";
+    private static final String UPDATE_ROW = """
+            UPDATE cart
+            SET quantity = ?,
+                total_price = ? * (SELECT b.price FROM books b WHERE b.id = cart.book_id),
+                updated_at = ?,
+                last_activity_at = ?,
+                version = version + 1
+            WHERE id = ?
+            """;
+    private static final String INSERT_ROW = """
+            INSERT INTO cart (id, book_id, quantity, total_price, created_by, created_at, updated_at, last_activity_at)
+            SELECT ?, b.id, ?, ? * b.price, ?, ?, ?, ?
+            FROM books b
+            WHERE b.id = ?
+            """;
+    private static final String DELETE_ROW = "DELETE FROM cart WHERE id = ?";
+
+    @Value("${cart.write-behind.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * Writes the changed carts until no user is left marked.
+     */
+    @Scheduled(fixedDelayString = "${cart.write-behind.interval:1000}")
+    public void flush() {
+        int written;
+        do {
+            written = flushBatch();
+        } while (written == batchSize);
+    }
+
+    /**
+     * Writes what is still pending before the application stops.
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private int flushBatch() {
+        List<String> users = cartStore.pollDirtyUsers(batchSize);
+        if (users.isEmpty()) {
+            return 0;
+        }
+        try {
+            long started = System.currentTimeMillis();
+            // A user whose hash is gone keeps the rows; they are loaded back into Redis on next access
+            Map<String, Map<Long, CartLine>> carts = new HashMap<>();
+            users.forEach(user -> cartStore.storedLines(user).ifPresent(lines -> carts.put(user, lines)));
+            transactionTemplate.executeWithoutResult(status -> write(carts));
+            logger.debug("Wrote the carts of {} users in {} ms", carts.size(), System.currentTimeMillis() - started);
+            return users.size();
+        } catch (Exception ex) {
+            // Keep the users marked, so the next run writes their carts again
+            cartStore.markDirty(users);
+            logger.error("Error writing the carts of {} users: {}", users.size(), ex.getMessage());
+            return 0;
+        }
+    }
+
+    private void write(Map<String, Map<Long, CartLine>> carts) {
+        if (carts.isEmpty()) {
+            return;
+        }
+        // One query finds the rows every user of the batch already has
+        List<String> users = new ArrayList<>(carts.keySet());
+        Map<String, Set<Long>> rows = new HashMap<>();
+        jdbcTemplate.query(SELECT_ROWS.formatted(String.join(", ", Collections.nCopies(users.size(), "?"))),
+                resultSet -> {
+                    rows.computeIfAbsent(resultSet.getString(2), user -> new HashSet<>()).add(resultSet.getLong(1));
+                }, users.toArray());
+
+        LocalDateTime activity = LocalDateTime.now();
+        String now = String.valueOf(activity);
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        carts.forEach((user, lines) -> {
+            Set<Long> stored = rows.getOrDefault(user, Set.of());
+            Set<Long> kept = new HashSet<>();
+            for (CartLine line : lines.values()) {
+                kept.add(line.id());
+                if (stored.contains(line.id())) {
+                    updates.add(new Object[]{line.quantity(), line.quantity(), now, activity, line.id()});
+                } else {
+                    inserts.add(new Object[]{line.id(), line.quantity(), line.quantity(), user, now, now, activity,
+                            line.bookId()});
+                }
+            }
+            stored.stream().filter(id -> !kept.contains(id)).forEach(id -> deletes.add(new Object[]{id}));
+        });
+        jdbcTemplate.batchUpdate(UPDATE_ROW, updates);
+        jdbcTemplate.batchUpdate(INSERT_ROW, inserts);
+        jdbcTemplate.batchUpdate(DELETE_ROW, deletes);
+    }
+}
@@ -0,0 +1,125 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.aggregation.dto.statistics.PopularBookStatistic;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.service.BookService;
+import com.mokhir.dev.BookShop.service.PermissionService;
+import com.mokhir.dev.BookShop.service.RoleService;
+import com.mokhir.dev.BookShop.service.StatisticService;
+import com.mokhir.dev.BookShop.service.interfaces.CartServiceInterface;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Warms a freshly started instance before it takes traffic: opens pooled connections, lets Hibernate
+ * prepare the statements of the main read paths, gives the JIT something to compile and fills the
+ * book caches with the first catalog pages and the best-selling books.
+ * <p>
+ * Runs as an application runner, and Spring Boot only reports the readiness state
+ * {@code ACCEPTING_TRAFFIC} after every runner has returned, so {@code /actuator/health/readiness}
+ * stays down until the warm-up is over. A failing step is logged and skipped; it never keeps the
+ * instance from starting.
+ */
+@Component
+@RequiredArgsConstructor
+public class CatalogWarmUp implements ApplicationRunner {
+    private final BookService bookService;
+    private final CartServiceInterface cartService;
+    private final RoleService roleService;
+    private final PermissionService permissionService;
+    private final StatisticService statisticService;
+    private static final Logger logger = LoggerFactory.getLogger(CatalogWarmUp.class);
+
+    // Carts are read on behalf of the current user; the warm-up reads those of a user that owns none
+    static final String WARM_UP_USER = "catalog-warm-up";
+
+    @Value("${book.warm-up.enabled:true}")
+    private boolean enabled;
+    @Value("${book.warm-up.pages:3}")
+    private int pages;
+    @Value("${book.warm-up.page-size:20}")
+    private int pageSize;
+
+    /**
+     * Runs every warm-up step once and logs how long each of them took.
+     *
+     * @param args The application arguments, unused
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        Map<String, Long> timings = new LinkedHashMap<>();
+        timings.put("catalog pages", step("catalog pages", this::warmCatalogPages));
+        timings.put("hot books", step("hot books", this::warmHotBooks));
+        timings.put("roles", step("roles", () -> roleService.findAll(PageRequest.of(0, pageSize))));
+        timings.put("permissions", step("permissions", () -> permissionService.findAll(PageRequest.of(0, pageSize))));
+        timings.put("carts", step("carts", this::warmCarts));
+        logger.info("Catalog warm-up finished in {} ms, steps in ms: {}", System.currentTimeMillis() - started, timings);
+    }
+
+    private long step(String name, Runnable work) {
+        long started = System.currentTimeMillis();
+        try {
+            work.run();
+        } catch (NotFoundException ex) {
+            // An empty table is nothing to warm, not a failure
+            logger.debug("Warm-up step {} found nothing: {}", name, ex.getMessage());
+        } catch (Exception ex) {
+            logger.warn("Warm-up step {} failed: {}", name, ex.getMessage());
+        }
+        return System.currentTimeMillis() - started;
+    }
+
+    private void warmCatalogPages() {
+        // Cached under the same keys as the first pages requested by clients
+        for (int page = 0; page < pages; page++) {
+            bookService.findAll(PageRequest.of(page, pageSize));
+        }
+    }
+
+    private void warmHotBooks() {
+        List<Long> ids = statisticService.getBook().stream()
+                .map(PopularBookStatistic::getBookId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            // Fills the book cache through the same batch path the clients use
+            bookService.getByIds(ids);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+    private void warmCarts() {
+        SecurityContext previous = SecurityContextHolder.getContext();
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(WARM_UP_USER, null, List.of()));
+        SecurityContextHolder.setContext(context);
+        try {
+            cartService.getAllCarts(PageRequest.of(0, pageSize));
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+}
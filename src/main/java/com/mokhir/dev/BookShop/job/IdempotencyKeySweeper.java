@@ -0,0 +1,44 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.service.IdempotencyService;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes idempotency keys whose time to live is over, in chunks, each chunk committed on its own.
+ */
+@Component
+@RequiredArgsConstructor
+public class IdempotencyKeySweeper {
+    private final IdempotencyService idempotencyService;
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeySweeper.class);
+
+    @Value("${order.idempotency.sweep.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Removes expired keys chunk by chunk until none is left.
+     */
+    @Scheduled(fixedDelayString = "${order.idempotency.sweep.interval:600000}")
+    public void sweep() {
+        try {
+            long started = System.currentTimeMillis();
+            long total = 0;
+            int deleted;
+            do {
+                deleted = idempotencyService.deleteExpired(chunkSize);
+                total += deleted;
+            } while (deleted == chunkSize);
+            if (total > 0) {
+                logger.info("Removed {} expired idempotency keys in {} ms", total, System.currentTimeMillis() - started);
+            }
+        } catch (Exception ex) {
+            // Keys left behind are picked up by the next run
+            logger.error("Error removing expired idempotency keys: {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.service.StockReservationService;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives back the copies of holds that expired, so carts left alone stop keeping books from other buyers.
+ * Holds are removed in chunks, each chunk committed on its own; the cart lines themselves are kept.
+ */
+@Component
+@RequiredArgsConstructor
+public class StockReservationSweeper {
+    private final StockReservationService stockReservationService;
+    private static final Logger logger = LoggerFactory.getLogger(StockReservationSweeper.class);
+
+    @Value("${cart.reservation.sweep.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Removes expired holds chunk by chunk until none is left.
+     */
+    @Scheduled(fixedDelayString = "${cart.reservation.sweep.interval:30000}")
+    public void sweep() {
+        try {
+            long started = System.currentTimeMillis();
+            long total = 0;
+            int released;
+            do {
+                released = stockReservationService.releaseExpired(chunkSize);
+                total += released;
+            } while (released == chunkSize);
+            if (total > 0) {
+                logger.info("Released {} expired holds in {} ms", total, System.currentTimeMillis() - started);
+            }
+        } catch (Exception ex) {
+            // Holds left behind are picked up by the next run
+            logger.error("Error releasing expired holds: {}", ex.getMessage());
+        }
+    }
+}
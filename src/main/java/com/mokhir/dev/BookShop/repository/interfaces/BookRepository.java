@@ -1,16 +1,49 @@
 package com.mokhir.dev.BookShop.repository.interfaces;
 
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
 import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.domain.Pageable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
 
 @Repository
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, BookStockRepository, BookSearchRepository {
     Optional<Book> findBooksByCreatedBy(String authorUsername);
     List<Book> findAllBooksByCreatedBy(String authorUsername);
     Page<Book> findAllBooksByCreatedBy(String authorUsername, Pageable pageable);
+    boolean existsByCreatedByAndNormalizedName(String authorUsername, String normalizedName);
+
+    // Read paths select only the columns of BookView instead of hydrating managed entities
+    Optional<BookView> findViewById(Long id);
+    List<BookView> findViewsByIdIn(Collection<Long> ids);
+    Page<BookView> findViewsByActiveTrueOrderByIdAsc(Pageable pageable);
+    Slice<BookView> findViewSliceByActiveTrueOrderByIdAsc(Pageable pageable);
+    List<BookView> findViewsByActiveTrueAndIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+    Page<BookView> findViewsByCreatedBy(String authorUsername, Pageable pageable);
+    List<BookView> findViewsByCreatedByAndIdGreaterThanOrderByIdAsc(String authorUsername, Long id, Limit limit);
+
+    @Query("SELECT b.normalizedName FROM Book b WHERE b.createdBy = :createdBy AND b.normalizedName IN :names")
+    Set<String> findExistingNormalizedNames(@Param("createdBy") String authorUsername,
+                                            @Param("names") Collection<String> normalizedNames);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    Stream<Book> streamByActiveTrueOrderByIdAsc();
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    Stream<BookView> streamViewsByActiveTrueOrderByIdAsc();
 }
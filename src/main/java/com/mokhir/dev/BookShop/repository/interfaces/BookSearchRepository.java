@@ -0,0 +1,19 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSearchHit;
+
+import java.util.List;
+
+public interface BookSearchRepository {
+    /**
+     * Finds active books whose name matches a full-text query through the GIN index on
+     * {@code books.search_vector}, best match first and by ID among equal ranks.
+     *
+     * @param tsQuery   A PostgreSQL tsquery in the 'simple' configuration
+     * @param afterRank The rank of the last hit of the previous page, or null for the first page
+     * @param afterId   The ID of the last hit of the previous page, ignored for the first page
+     * @param limit     The maximum number of hits to return
+     * @return The matching books with their rank
+     */
+    List<BookSearchHit> search(String tsQuery, Float afterRank, Long afterId, int limit);
+}
@@ -0,0 +1,53 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSearchHit;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+
+@RequiredArgsConstructor
+public class BookSearchRepositoryImpl implements BookSearchRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final String MATCHES = """
+            SELECT b.id, b.name, b.price, b.quantity, b.version,
+                   ts_rank(b.search_vector, q.query) AS rank
+            FROM books b, to_tsquery('simple', ?) AS q(query)
+            WHERE b.active
+              AND b.search_vector @@ q.query
+            """;
+
+    private static final String FIRST_PAGE = MATCHES + """
+            ORDER BY rank DESC, b.id
+            LIMIT ?
+            """;
+
+    // Ranks are computed per row, so the seek condition has to be applied on top of the matches
+    private static final String NEXT_PAGE = "SELECT * FROM (" + MATCHES + """
+            ) AS hits
+            WHERE hits.rank < ? OR (hits.rank = ? AND hits.id > ?)
+            ORDER BY hits.rank DESC, hits.id
+            LIMIT ?
+            """;
+
+    private static final RowMapper<BookSearchHit> HIT_MAPPER = (resultSet, rowNum) -> new BookSearchHit(
+            BookResponse.builder()
+                    .id(resultSet.getLong("id"))
+                    .name(resultSet.getString("name"))
+                    .price(resultSet.getInt("price"))
+                    .quantity(resultSet.getInt("quantity"))
+                    .version(resultSet.getLong("version"))
+                    .build(),
+            resultSet.getFloat("rank"));
+
+    @Override
+    public List<BookSearchHit> search(String tsQuery, Float afterRank, Long afterId, int limit) {
+        if (afterRank == null) {
+            return jdbcTemplate.query(FIRST_PAGE, HIT_MAPPER, tsQuery, limit);
+        }
+        return jdbcTemplate.query(NEXT_PAGE, HIT_MAPPER, tsQuery, afterRank, afterRank, afterId, limit);
+    }
+}
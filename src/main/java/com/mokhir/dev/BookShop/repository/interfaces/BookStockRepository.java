@@ -0,0 +1,20 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import java.util.Map;
+import java.util.Set;
+
+public interface BookStockRepository {
+    /**
+     * Takes the given quantities out of stock in a single statement, consuming the copies held for them.
+     * The books are locked in the order of their IDs first, like every other stock update, so concurrent
+     * checkouts of the same books cannot deadlock each other.
+     * Held copies are already set aside, so a book is only checked for the copies that were not held:
+     * it is decremented when enough copies are left that nobody holds, and concurrent checkouts can
+     * never oversell it.
+     *
+     * @param quantities The quantity to take, keyed by book ID
+     * @param held       The part of each quantity that was held, keyed by book ID; books without holds may be absent
+     * @return The IDs of the books that were decremented; the others did not have enough stock
+     */
+    Set<Long> decrementQuantities(Map<Long, Integer> quantities, Map<Long, Integer> held);
+}
@@ -0,0 +1,51 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+@RequiredArgsConstructor
+public class BookStockRepositoryImpl implements BookStockRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    // A join UPDATE locks rows in whatever order its plan visits them, so the books are locked in ID order first
+    private static final String LOCK_BOOKS = "SELECT id FROM books WHERE id = ANY(?::bigint[]) ORDER BY id FOR UPDATE";
+    private static final String DECREMENT_QUANTITIES = """
+            UPDATE books b
+            SET quantity = b.quantity - v.quantity,
+                reserved = b.reserved - v.held,
+                version = b.version + 1
+            FROM unnest(?::bigint[], ?::integer[], ?::integer[]) AS v(id, quantity, held)
+            WHERE b.id = v.id
+              AND b.quantity - b.reserved >= v.quantity - v.held
+            RETURNING b.id
+            """;
+
+    @Override
+    public Set<Long> decrementQuantities(Map<Long, Integer> quantities, Map<Long, Integer> held) {
+        if (quantities.isEmpty()) {
+            return Set.of();
+        }
+        Map<Long, Integer> sorted = new TreeMap<>(quantities);
+        Long[] ids = sorted.keySet().toArray(Long[]::new);
+        Integer[] amounts = sorted.values().toArray(Integer[]::new);
+        Integer[] heldAmounts = sorted.keySet().stream().map(id -> held.getOrDefault(id, 0)).toArray(Integer[]::new);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(LOCK_BOOKS);
+            statement.setArray(1, connection.createArrayOf("bigint", ids));
+            return statement;
+        }, (resultSet, rowNum) -> resultSet.getLong(1));
+        return new HashSet<>(jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(DECREMENT_QUANTITIES);
+            statement.setArray(1, connection.createArrayOf("bigint", ids));
+            statement.setArray(2, connection.createArrayOf("integer", amounts));
+            statement.setArray(3, connection.createArrayOf("integer", heldAmounts));
+            return statement;
+        }, (resultSet, rowNum) -> resultSet.getLong(1)));
+    }
+}
@@ -1,13 +1,37 @@
 package com.mokhir.dev.BookShop.repository.interfaces;
 
 import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface CartRepository extends JpaRepository<Cart, Long> {
+public interface CartRepository extends JpaRepository<Cart, Long>, CartUpsertRepository {
+    // Cart responses include the book, so it is joined into the same query
+    @EntityGraph(attributePaths = "book")
     List<Cart> findAllByCreatedBy(String createdById);
+    @EntityGraph(attributePaths = "book")
+    Page<Cart> findAllByCreatedByOrderByIdAsc(String createdById, Pageable pageable);
+    @EntityGraph(attributePaths = "book")
+    List<Cart> findAllByIdInAndCreatedBy(Collection<Long> ids, String createdById);
+
+    @Query("SELECT COALESCE(SUM(c.totalPrice), 0) FROM Cart c WHERE c.createdBy = :createdBy")
+    long sumTotalPriceByCreatedBy(@Param("createdBy") String createdBy);
     void deleteAllByCreatedBy(String createdById);
+
+    // Locked in ID order like everywhere else; lines written after the chunk was read no longer match once locked
+    @Query(value = "SELECT id FROM cart WHERE last_activity_at < :before ORDER BY id LIMIT :limit FOR UPDATE",
+            nativeQuery = true)
+    List<Long> lockAbandonedIds(@Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    @Query("SELECT DISTINCT c.createdBy FROM Cart c WHERE c.id IN :ids")
+    List<String> findOwnersByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,26 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartUpsert;
+
+import java.util.Optional;
+
+public interface CartUpsertRepository {
+    /**
+     * Adds copies of a book to the user's line of that book, or starts the line, in a single statement.
+     * The copies are only added when the book is active and has enough copies left for the whole line.
+     *
+     * @param createdBy The owner of the cart
+     * @param bookId    The ID of the book
+     * @param quantity  The number of copies to add
+     * @return The outcome, or empty if the book does not exist
+     */
+    Optional<CartUpsert> addQuantity(String createdBy, Long bookId, int quantity);
+
+    /**
+     * Hands out the next cart ID from cart_seq, taking the sequence in blocks the same way Hibernate does,
+     * so IDs given out here never collide with those of carts saved through the entity.
+     *
+     * @return An unused cart ID
+     */
+    long nextCartId();
+}
@@ -0,0 +1,91 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartUpsert;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public class CartUpsertRepositoryImpl implements CartUpsertRepository {
+    private static final String CART_SEQUENCE = "cart_seq";
+    // The allocationSize of the cart sequence generator
+    private static final int ID_BLOCK_SIZE = 50;
+
+    /*
+     * The insert only happens for an active book with enough copies; on uk_cart_created_by_book_id it turns into
+     * an update that only happens if the grown line still fits the stock. The outer select returns the book
+     * and the line as they were before the statement, plus the line written by it, if any.
+     */
+    private static final String ADD_QUANTITY = """
+            WITH line AS (
+                INSERT INTO cart AS c (id, book_id, quantity, total_price, created_by, created_at, updated_at,
+                                       last_activity_at)
+                SELECT ?, b.id, ?, ? * b.price, ?, ?, ?, ?
+                FROM books b
+                WHERE b.id = ? AND b.active AND b.quantity >= ?
+                ON CONFLICT (created_by, book_id) DO UPDATE
+                    SET quantity = c.quantity + EXCLUDED.quantity,
+                        total_price = (c.quantity + EXCLUDED.quantity)
+                                      * (SELECT s.price FROM books s WHERE s.id = c.book_id),
+                        updated_at = EXCLUDED.updated_at,
+                        last_activity_at = EXCLUDED.last_activity_at,
+                        version = c.version + 1
+                    WHERE c.quantity + EXCLUDED.quantity <= (SELECT s.quantity FROM books s WHERE s.id = c.book_id)
+                RETURNING c.id, c.quantity, c.total_price
+            )
+            SELECT b.id, b.name, b.price, b.quantity, b.version, b.active,
+                   (SELECT o.quantity FROM cart o WHERE o.created_by = ? AND o.book_id = b.id) AS already_in_cart,
+                   line.id AS cart_id, line.quantity AS cart_quantity, line.total_price AS cart_total_price
+            FROM books b
+            LEFT JOIN line ON true
+            WHERE b.id = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String nextIdQuery;
+    // The next free cart ID and the last one of the block it belongs to
+    private long nextId;
+    private long lastId;
+
+    public CartUpsertRepositoryImpl(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.nextIdQuery = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect().getSequenceSupport().getSequenceNextValString(CART_SEQUENCE);
+    }
+
+    @Override
+    public Optional<CartUpsert> addQuantity(String createdBy, Long bookId, int quantity) {
+        LocalDateTime activity = LocalDateTime.now();
+        String now = String.valueOf(activity);
+        return jdbcTemplate.query(ADD_QUANTITY, (resultSet, rowNum) -> new CartUpsert(
+                        new BookView(resultSet.getLong("id"), resultSet.getString("name"),
+                                resultSet.getObject("price", Integer.class), resultSet.getObject("quantity", Integer.class),
+                                resultSet.getObject("version", Long.class)),
+                        resultSet.getBoolean("active"),
+                        resultSet.getObject("already_in_cart", Integer.class),
+                        resultSet.getObject("cart_id", Long.class),
+                        resultSet.getObject("cart_quantity", Integer.class),
+                        resultSet.getObject("cart_total_price", Integer.class)),
+                nextCartId(), quantity, quantity, createdBy, now, now, activity, bookId, quantity, createdBy, bookId)
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public synchronized long nextCartId() {
+        if (nextId == 0 || nextId > lastId) {
+            // Each sequence value reserves the block of IDs that ends with it, as for Hibernate's pooled optimizer
+            Long value = jdbcTemplate.queryForObject(nextIdQuery, Long.class);
+            if (value == null) {
+                throw new DatabaseException("No value returned by " + CART_SEQUENCE);
+            }
+            lastId = value;
+            nextId = Math.max(1, value - ID_BLOCK_SIZE + 1);
+        }
+        return nextId++;
+    }
+}
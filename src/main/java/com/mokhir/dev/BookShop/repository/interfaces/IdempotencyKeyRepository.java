@@ -0,0 +1,37 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.entity.IdempotencyKey;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, IdempotencyKey.UserKey> {
+    // Fails with a DataIntegrityViolationException when the user has taken the key
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_keys (created_by, idempotency_key, request_hash, expires_at) "
+            + "VALUES (:createdBy, :key, :requestHash, :expiresAt)", nativeQuery = true)
+    int claim(@Param("createdBy") String createdBy,
+              @Param("key") String key,
+              @Param("requestHash") String requestHash,
+              @Param("expiresAt") LocalDateTime expiresAt);
+
+    // Waits for the transaction that is executing the request under the key, if any
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT k FROM IdempotencyKey k WHERE k.createdBy = :createdBy AND k.key = :key")
+    Optional<IdempotencyKey> lockByKey(@Param("createdBy") String createdBy, @Param("key") String key);
+
+    @Modifying
+    @Query(value = "DELETE FROM idempotency_keys WHERE (created_by, idempotency_key) IN "
+            + "(SELECT e.created_by, e.idempotency_key FROM idempotency_keys e WHERE e.expires_at < :now "
+            + "ORDER BY e.created_by, e.idempotency_key LIMIT :limit)",
+            nativeQuery = true)
+    int deleteExpired(@Param("now") LocalDateTime now, @Param("limit") int limit);
+}
@@ -1,12 +1,19 @@
 package com.mokhir.dev.BookShop.repository.interfaces;
 
 import com.mokhir.dev.BookShop.aggregation.entity.OrderDetails;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface OrderDetailsRepository extends JpaRepository<OrderDetails, Long> {
+    // Listings map the book of every detail, so it is joined into the same query
+    @EntityGraph(attributePaths = "book")
     List<OrderDetails> findAllByCreatedBy(String createdBy);
+
+    @EntityGraph(attributePaths = "book")
+    List<OrderDetails> findAllByOrderIdInOrderByIdAsc(Collection<Long> orderIds);
 }
@@ -0,0 +1,55 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.entity.StockReservation;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Holds are always locked before the books they belong to, in the order of their cart IDs, and books are updated
+ * in the order of their IDs, so holding, releasing, sweeping and checking out cannot deadlock each other.
+ */
+public interface StockHoldRepository {
+    /**
+     * Holds copies of books for cart lines, adding them to a line's hold if it has one and moving its expiry.
+     * A book's reserved count only grows if the book is active and the copies are not yet held by other lines;
+     * for the books that fail nothing is reserved and the caller's transaction must be rolled back.
+     *
+     * @param holds The copies to hold, by cart line, with the time each hold expires
+     * @return The IDs of the books whose copies could not be held
+     */
+    Set<Long> hold(Collection<StockReservation> holds);
+
+    /**
+     * Gives back part of the holds of cart lines, or all of a hold when the quantity covers it.
+     *
+     * @param quantities The number of copies no longer needed, keyed by cart ID
+     */
+    void release(Map<Long, Integer> quantities);
+
+    /**
+     * Removes the holds of the given cart lines without touching the reserved counts of their books.
+     *
+     * @param cartIds The IDs of the cart lines
+     * @return The held quantity per book ID
+     */
+    Map<Long, Integer> takeHolds(Collection<Long> cartIds);
+
+    /**
+     * Takes copies off the reserved counts of books.
+     *
+     * @param quantities The number of copies, keyed by book ID
+     */
+    void unreserve(Map<Long, Integer> quantities);
+
+    /**
+     * Removes up to limit holds that expired before the given time and gives their copies back.
+     *
+     * @param now   The current time
+     * @param limit The maximum number of holds to remove
+     * @return The number of holds removed
+     */
+    int releaseExpired(LocalDateTime now, int limit);
+}
@@ -0,0 +1,156 @@
+package com.mokhir.dev.BookShop.repository.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.entity.StockReservation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+@RequiredArgsConstructor
+public class StockHoldRepositoryImpl implements StockHoldRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final String GROW_HOLD =
+            "UPDATE stock_reservations SET quantity = quantity + ?, expires_at = ? WHERE cart_id = ?";
+    private static final String INSERT_HOLD =
+            "INSERT INTO stock_reservations (cart_id, book_id, quantity, expires_at) VALUES (?, ?, ?, ?)";
+    // Only copies nobody holds yet can be reserved, so the reserved count never exceeds the stock
+    private static final String RESERVE = """
+            UPDATE books
+            SET reserved = reserved + ?
+            WHERE id = ?
+              AND active = true
+              AND quantity - reserved >= ?
+            """;
+    private static final String UNRESERVE = "UPDATE books SET reserved = reserved - ? WHERE id = ?";
+    private static final String SHRINK_HOLD = "UPDATE stock_reservations SET quantity = quantity - ? WHERE cart_id = ?";
+    private static final String DELETE_HOLD = "DELETE FROM stock_reservations WHERE cart_id = ?";
+    private static final String LOCK_HOLDS =
+            "SELECT cart_id, book_id, quantity FROM stock_reservations WHERE cart_id IN (%s) ORDER BY cart_id FOR UPDATE";
+    private static final String DELETE_HOLDS = "DELETE FROM stock_reservations WHERE cart_id IN (%s)";
+    private static final String LOCK_EXPIRED = """
+            SELECT cart_id, book_id, quantity
+            FROM stock_reservations
+            WHERE expires_at < ?
+            ORDER BY cart_id
+            LIMIT ?
+            FOR UPDATE
+            """;
+
+    private record Hold(Long cartId, Long bookId, int quantity) {
+    }
+
+    @Override
+    public Set<Long> hold(Collection<StockReservation> holds) {
+        if (holds.isEmpty()) {
+            return Set.of();
+        }
+        List<StockReservation> sorted = holds.stream()
+                .sorted(Comparator.comparing(StockReservation::getCartId))
+                .toList();
+        int[] grown = jdbcTemplate.batchUpdate(GROW_HOLD, sorted.stream()
+                .map(hold -> new Object[]{hold.getQuantity(), hold.getExpiresAt(), hold.getCartId()})
+                .toList());
+        // Lines without a hold, or whose hold has been swept, start a new one
+        List<Object[]> inserts = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            if (grown[i] == 0) {
+                StockReservation hold = sorted.get(i);
+                inserts.add(new Object[]{hold.getCartId(), hold.getBookId(), hold.getQuantity(), hold.getExpiresAt()});
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_HOLD, inserts);
+
+        Map<Long, Integer> quantities = new TreeMap<>();
+        sorted.forEach(hold -> quantities.merge(hold.getBookId(), hold.getQuantity(), Integer::sum));
+        List<Long> bookIds = new ArrayList<>(quantities.keySet());
+        int[] reserved = jdbcTemplate.batchUpdate(RESERVE, bookIds.stream()
+                .map(bookId -> new Object[]{quantities.get(bookId), bookId, quantities.get(bookId)})
+                .toList());
+        Set<Long> failed = new HashSet<>();
+        for (int i = 0; i < bookIds.size(); i++) {
+            if (reserved[i] == 0) {
+                failed.add(bookIds.get(i));
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void release(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(quantities.size(), "?"));
+        List<Hold> holds = jdbcTemplate.query(LOCK_HOLDS.formatted(placeholders),
+                (resultSet, rowNum) -> new Hold(resultSet.getLong(1), resultSet.getLong(2), resultSet.getInt(3)),
+                quantities.keySet().toArray());
+        List<Object[]> deletes = new ArrayList<>();
+        List<Object[]> shrinks = new ArrayList<>();
+        List<Hold> released = new ArrayList<>();
+        for (Hold hold : holds) {
+            int quantity = Math.min(Math.max(quantities.get(hold.cartId()), 0), hold.quantity());
+            if (quantity == hold.quantity()) {
+                deletes.add(new Object[]{hold.cartId()});
+            } else if (quantity > 0) {
+                shrinks.add(new Object[]{quantity, hold.cartId()});
+            }
+            released.add(new Hold(hold.cartId(), hold.bookId(), quantity));
+        }
+        jdbcTemplate.batchUpdate(DELETE_HOLD, deletes);
+        jdbcTemplate.batchUpdate(SHRINK_HOLD, shrinks);
+        unreserve(perBook(released));
+    }
+
+    @Override
+    public Map<Long, Integer> takeHolds(Collection<Long> cartIds) {
+        if (cartIds.isEmpty()) {
+            return Map.of();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(cartIds.size(), "?"));
+        List<Hold> holds = jdbcTemplate.query(LOCK_HOLDS.formatted(placeholders),
+                (resultSet, rowNum) -> new Hold(resultSet.getLong(1), resultSet.getLong(2), resultSet.getInt(3)),
+                cartIds.toArray());
+        if (holds.isEmpty()) {
+            return Map.of();
+        }
+        jdbcTemplate.update(DELETE_HOLDS.formatted(placeholders), cartIds.toArray());
+        return perBook(holds);
+    }
+
+    @Override
+    public void unreserve(Map<Long, Integer> quantities) {
+        List<Object[]> updates = new ArrayList<>();
+        new TreeMap<>(quantities).forEach((bookId, quantity) -> updates.add(new Object[]{quantity, bookId}));
+        jdbcTemplate.batchUpdate(UNRESERVE, updates);
+    }
+
+    @Override
+    public int releaseExpired(LocalDateTime now, int limit) {
+        // Holds grown or released meanwhile are read as they are once their locks are taken
+        List<Hold> expired = jdbcTemplate.query(LOCK_EXPIRED,
+                (resultSet, rowNum) -> new Hold(resultSet.getLong(1), resultSet.getLong(2), resultSet.getInt(3)),
+                now, limit);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        jdbcTemplate.batchUpdate(DELETE_HOLD, expired.stream().map(hold -> new Object[]{hold.cartId()}).toList());
+        unreserve(perBook(expired));
+        return expired.size();
+    }
+
+    private static Map<Long, Integer> perBook(List<Hold> holds) {
+        Map<Long, Integer> quantities = new TreeMap<>();
+        holds.forEach(hold -> quantities.merge(hold.bookId(), hold.quantity(), Integer::sum));
+        return quantities;
+    }
+}
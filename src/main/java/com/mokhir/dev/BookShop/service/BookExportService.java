@@ -0,0 +1,71 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.BookFileFormat;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the whole catalog of active books to a stream, reading it through a database cursor
+ * so that neither the result set nor the persistence context grows with the number of books.
+ */
+@Service
+@RequiredArgsConstructor
+public class BookExportService {
+    private final BookRepository repository;
+    private final BookMapper mapper;
+    private final ObjectMapper objectMapper;
+    private static final Logger logger = LoggerFactory.getLogger(BookExportService.class);
+
+    /**
+     * Exports all active books, ordered by ID, in a format the import endpoint can read back.
+     *
+     * @param out    The stream to write to; it is flushed but not closed
+     * @param format The format of the file
+     * @return The number of exported books
+     * @throws UncheckedIOException if the client stops reading
+     */
+    @Transactional(readOnly = true)
+    public long exportBooks(OutputStream out, BookFileFormat format) {
+        long started = System.nanoTime();
+        long exported = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try (Stream<BookView> books = repository.streamViewsByActiveTrueOrderByIdAsc()) {
+            String header = format.header();
+            if (header != null) {
+                writer.write(header);
+                writer.write('\n');
+            }
+            Iterator<BookView> iterator = books.iterator();
+            while (iterator.hasNext()) {
+                // Projections are not managed, so the persistence context stays empty however many books are read
+                writer.write(format.write(mapper.toDto(iterator.next()), objectMapper));
+                writer.write('\n');
+                exported++;
+            }
+            writer.flush();
+        } catch (IOException ex) {
+            logger.error("Book export aborted after {} books: {}", exported, ex.getMessage());
+            throw new UncheckedIOException(ex);
+        }
+        logger.info("Exported {} books as {} in {} ms",
+                exported, format, (System.nanoTime() - started) / 1_000_000);
+        return exported;
+    }
+}
@@ -0,0 +1,260 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookImportError;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookImportResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.BookFileFormat;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static com.mokhir.dev.BookShop.config.CacheConfig.BOOK_PAGES;
+
+/**
+ * Loads whole catalogs of books from a streamed CSV or NDJSON request body.
+ * Rows are validated one by one, deduplicated per chunk against the author's existing
+ * books with a single query and inserted in JDBC batches, each chunk in its own transaction.
+ */
+@Service
+@RequiredArgsConstructor
+public class BookImportService {
+    private final BookRepository repository;
+    private final BookMapper mapper;
+    private final UserService userService;
+    private final JwtProvider jwtProvider;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final CacheManager cacheManager;
+    private final ObjectMapper objectMapper;
+    private final BookSuggestIndex suggestIndex;
+    private static final Logger logger = LoggerFactory.getLogger(BookImportService.class);
+    // A book takes a few hundred characters; longer records are cut off instead of held in memory
+    private static final int MAX_RECORD_LENGTH = 8192;
+
+    @Value("${book.import.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${book.import.max-errors:1000}")
+    private int maxErrors;
+
+    /**
+     * Imports the books of a streamed file on behalf of the current user.
+     * Chunks that were committed stay committed if a later chunk fails.
+     *
+     * @param body   The request body, read line by line and never held in memory as a whole
+     * @param format The format of the body
+     * @return The number of imported and rejected rows with the reason for each rejection
+     * @throws NotFoundException if the current user is not found
+     * @throws DatabaseException if the body cannot be read or a chunk cannot be stored
+     */
+    public BookImportResponse importBooks(InputStream body, BookFileFormat format) {
+        String createdBy = jwtProvider.getCurrentUser();
+        if (createdBy == null || createdBy.isBlank() || userService.findUserByUsername(createdBy) == null) {
+            logger.error("User {} not found", createdBy);
+            throw new NotFoundException(createdBy + ": User not found");
+        }
+
+        ImportReport report = new ImportReport(maxErrors);
+        List<ImportRow> chunk = new ArrayList<>(batchSize);
+        long started = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && format.isHeader(line))) {
+                    continue;
+                }
+                // A record that spans several lines is reported at its first one
+                long recordLine = lineNumber;
+                String record = line;
+                while (!format.isRecordComplete(record) && record.length() <= MAX_RECORD_LENGTH
+                        && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    record = record + "\n" + line;
+                }
+                if (record.length() > MAX_RECORD_LENGTH) {
+                    // Most likely a quote that is never closed; the rest of the file is read as new records
+                    report.reject(recordLine, "Record longer than " + MAX_RECORD_LENGTH + " characters");
+                    continue;
+                }
+                try {
+                    // Parse and validate the row before it takes a place in the chunk
+                    chunk.add(new ImportRow(recordLine, toEntity(format.read(record, objectMapper), createdBy)));
+                } catch (Exception ex) {
+                    report.reject(recordLine, ex.getMessage());
+                }
+                if (chunk.size() >= batchSize) {
+                    saveChunk(chunk, createdBy, report);
+                    chunk.clear();
+                }
+            }
+            saveChunk(chunk, createdBy, report);
+        } catch (IOException ex) {
+            logger.error("Error reading book import body after {} imported books", report.imported, ex);
+            throw new DatabaseException("Book import interrupted after " + report.imported
+                    + " imported books: " + ex.getMessage());
+        } finally {
+            if (report.imported > 0) {
+                // New books change every cached page, so drop them all once instead of per chunk
+                Cache pages = cacheManager.getCache(BOOK_PAGES);
+                if (pages != null) {
+                    pages.clear();
+                }
+            }
+        }
+
+        logger.info("Imported {} books for {} in {} ms, {} rows rejected",
+                report.imported, createdBy, (System.nanoTime() - started) / 1_000_000, report.failed);
+        return report.toResponse();
+    }
+
+    private Book toEntity(BookRequest request, String createdBy) {
+        if (request.getName() == null || request.getName().isBlank()) {
+            throw new IllegalArgumentException("Name of the book must not be blank");
+        }
+        if (request.getQuantity() == null) {
+            throw new IllegalArgumentException("Quantity of books must be higher than zero");
+        }
+        Book entity = new Book();
+        try {
+            mapper.updateFromDto(request, entity);
+        } catch (DatabaseException ex) {
+            throw new IllegalArgumentException(ex.getMessage().replace("BookMapper: updateFromDto: ", ""));
+        }
+        entity.setName(request.getName().trim());
+        entity.setActive(true);
+        entity.setCreatedBy(createdBy);
+        entity.setCreatedAt(String.valueOf(LocalDateTime.now()));
+        entity.setNormalizedName(Book.normalizeName(entity.getName()));
+        return entity;
+    }
+
+    private void saveChunk(List<ImportRow> chunk, String createdBy, ImportReport report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // One query finds which names of the chunk the author already has
+        Set<String> names = new HashSet<>();
+        chunk.forEach(row -> names.add(row.book.getNormalizedName()));
+        Set<String> existing = repository.findExistingNormalizedNames(createdBy, names);
+
+        List<ImportRow> accepted = new ArrayList<>(chunk.size());
+        Set<String> seen = new HashSet<>();
+        for (ImportRow row : chunk) {
+            String name = row.book.getNormalizedName();
+            if (existing.contains(name)) {
+                report.reject(row.line, name + ": Book already exists");
+            } else if (!seen.add(name)) {
+                report.reject(row.line, name + ": Book is repeated in the file");
+            } else {
+                accepted.add(row);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+                repository.saveAll(accepted.stream().map(row -> row.book).toList());
+                entityManager.flush();
+                // Detach the chunk so the persistence context does not grow with the file
+                entityManager.clear();
+            });
+            report.imported += accepted.size();
+            accepted.forEach(row -> suggestIndex.put(row.book));
+        } catch (DataIntegrityViolationException | PersistenceException ex) {
+            // A concurrent write of one of the names won the race for the unique index and the whole chunk
+            // was rolled back, so its rows are stored one by one and only the conflicting ones are rejected
+            logger.warn("Storing the books of lines {}-{} one by one: {}",
+                    accepted.get(0).line, accepted.get(accepted.size() - 1).line, ex.getMessage());
+            accepted.forEach(row -> saveRow(row, report));
+        }
+    }
+
+    private void saveRow(ImportRow row, ImportReport report) {
+        // The rolled back chunk left an ID and a version on the book, it is inserted anew
+        row.book.setId(null);
+        row.book.setVersion(null);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                repository.saveAndFlush(row.book);
+                entityManager.clear();
+            });
+            report.imported++;
+            suggestIndex.put(row.book);
+        } catch (DataIntegrityViolationException | PersistenceException ex) {
+            logger.error("Error importing the book of line {}: {}", row.line, ex.getMessage());
+            report.reject(row.line, row.book.getNormalizedName() + ": Book already exists");
+        }
+    }
+
+    private record ImportRow(long line, Book book) {
+    }
+
+    private static class ImportReport {
+        private final int maxErrors;
+        // Keeps the errors of the first lines of the file; the head is the latest line kept
+        private final PriorityQueue<BookImportError> errors =
+                new PriorityQueue<>(Comparator.comparing(BookImportError::getLine).reversed());
+        private long imported;
+        private long failed;
+
+        private ImportReport(int maxErrors) {
+            this.maxErrors = maxErrors;
+        }
+
+        private void reject(long line, String message) {
+            failed++;
+            // Duplicates are only found when their chunk is saved, so errors do not arrive in line order
+            if (errors.size() < maxErrors) {
+                errors.add(new BookImportError(line, message));
+            } else if (!errors.isEmpty() && errors.peek().getLine() > line) {
+                errors.poll();
+                errors.add(new BookImportError(line, message));
+            }
+        }
+
+        private BookImportResponse toResponse() {
+            List<BookImportError> sorted = new ArrayList<>(errors);
+            sorted.sort(Comparator.comparing(BookImportError::getLine));
+            return BookImportResponse.builder()
+                    .imported(imported)
+                    .failed(failed)
+                    .errors(sorted)
+                    .errorsTruncated(failed > sorted.size())
+                    .build();
+        }
+    }
+}
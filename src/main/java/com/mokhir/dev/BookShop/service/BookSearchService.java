@@ -0,0 +1,106 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.CursorPage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSearchHit;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.InvalidCursorException;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.CursorCodec;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text search over book names, ranked by relevance and paginated with a (rank, id) keyset.
+ */
+@Service
+@RequiredArgsConstructor
+public class BookSearchService {
+    private final BookRepository repository;
+    private static final Logger logger = LoggerFactory.getLogger(BookSearchService.class);
+
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final int MAX_WORDS = 8;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Searches active books by name. Every word of the query must match the start of a word
+     * of the name, so partially typed queries already find their books.
+     *
+     * @param query  The text typed by the user
+     * @param cursor The continuation token of the previous page, or null for the first page
+     * @param size   The maximum number of books to return, at most 100
+     * @return A CursorPage of the best matching books with the cursor of the next page
+     * @throws ApiControllerException if the query contains no searchable word
+     * @throws InvalidCursorException if the cursor is malformed
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    public CursorPage<BookResponse> search(String query, String cursor, int size) throws ApiControllerException {
+        String tsQuery = toPrefixTsQuery(query);
+        if (tsQuery.isEmpty()) {
+            throw new ApiControllerException("Search query must contain at least one letter or digit");
+        }
+        Float afterRank = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            String[] keys = CursorCodec.decode(cursor, 2);
+            try {
+                afterRank = Float.valueOf(keys[0]);
+                afterId = Long.valueOf(keys[1]);
+            } catch (NumberFormatException ex) {
+                throw new InvalidCursorException("Malformed cursor: " + cursor);
+            }
+        }
+
+        try {
+            int limit = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+            // Fetch one extra row to find out whether another page follows
+            List<BookSearchHit> hits = repository.search(tsQuery, afterRank, afterId, limit + 1);
+            boolean hasNext = hits.size() > limit;
+            List<BookSearchHit> content = hasNext ? hits.subList(0, limit) : hits;
+            String nextCursor = null;
+            if (hasNext) {
+                BookSearchHit last = content.get(content.size() - 1);
+                nextCursor = CursorCodec.encode(last.getRank(), last.getBook().getId());
+            }
+            return CursorPage.<BookResponse>builder()
+                    .content(content.stream().map(BookSearchHit::getBook).toList())
+                    .size(content.size())
+                    .hasNext(hasNext)
+                    .nextCursor(nextCursor)
+                    .build();
+        } catch (Exception ex) {
+            logger.error("Error searching books for '{}': {}", query, ex.getMessage());
+            throw new DatabaseException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Turns free text into a tsquery that requires every word as a prefix, e.g. {@code "war pea"}
+     * becomes {@code "war:* & pea:*"}. Everything but letters and digits is dropped, so user input
+     * can never inject tsquery operators.
+     *
+     * @param query The text typed by the user
+     * @return The tsquery, or an empty string if the text has no words
+     */
+    static String toPrefixTsQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = WORD.matcher(query.toLowerCase(Locale.ROOT));
+        while (matcher.find() && terms.size() < MAX_WORDS) {
+            terms.add(matcher.group() + ":*");
+        }
+        return String.join(" & ", terms);
+    }
+}
@@ -1,29 +1,57 @@
 package com.mokhir.dev.BookShop.service;
 
+import com.mokhir.dev.BookShop.aggregation.dto.CursorPage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookLookup;
 import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSuggestion;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
 import com.mokhir.dev.BookShop.aggregation.entity.Book;
 import com.mokhir.dev.BookShop.aggregation.entity.Cart;
 import com.mokhir.dev.BookShop.aggregation.entity.User;
 import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
 import com.mokhir.dev.BookShop.exceptions.DatabaseException;
 import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.exceptions.PreconditionFailedException;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
 import com.mokhir.dev.BookShop.jwt.JwtProvider;
 import com.mokhir.dev.BookShop.service.interfaces.EntityServiceInterface;
 import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.CursorCodec;
+import com.mokhir.dev.BookShop.utils.SingleFlight;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import static com.mokhir.dev.BookShop.config.CacheConfig.BOOKS;
+import static com.mokhir.dev.BookShop.config.CacheConfig.BOOK_PAGES;
 import static java.util.stream.Collectors.*;
 
 
@@ -36,10 +64,20 @@ public class BookService
     private final UserService userService;
     private final JwtProvider jwtProvider;
     private final BookRepository bookRepository;
+    private final CacheManager cacheManager;
+    private final BookSuggestIndex suggestIndex;
+    private final CacheBatchReader cacheBatchReader;
+    // Concurrent cache misses for the same book share one database read
+    private final SingleFlight<Long, Optional<BookView>> bookLookups = new SingleFlight<>();
     private static final Logger logger = LoggerFactory.getLogger(BookService.class);
+    private static final int MAX_PAGE_SIZE = 100;
+
+    @Value("${book.batch.max-ids:100}")
+    private int maxBatchIds;
 
     /**
      * Retrieves information about a book by its identifier.
+     * Requests that miss the cache at the same time for the same book wait for a single database read.
      *
      * @param id The identifier of the book
      * @return A BookResponse object containing information about the book
@@ -47,13 +85,14 @@ public class BookService
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
+    @Cacheable(cacheNames = BOOKS, key = "T(java.lang.Long).valueOf(#id)", condition = "#id matches '\\d+'")
     public BookResponse getById(String id) {
         try {
             // Parse the identifier to a Long
             Long realId = Long.valueOf(id);
 
-            // Find the book by its ID in the repository
-            Optional<Book> byId = repository.findById(realId);
+            // Find the book by its ID in the repository, joining a read of the same book already in flight
+            Optional<BookView> byId = bookLookups.load(realId, () -> repository.findViewById(realId));
 
             // Check if the book exists
             if (byId.isEmpty()) {
@@ -64,11 +103,8 @@ public class BookService
                 throw new NotFoundException(realId + ": not found");
             }
 
-            // Retrieve the book from the Optional
-            Book book = byId.get();
-
-            // Map the book entity to a BookResponse object and return it
-            return mapper.toDto(book);
+            // Map the book to a BookResponse object and return it
+            return mapper.toDto(byId.get());
         } catch (NotFoundException ex) {
             // Log the exception
             logger.error("Error retrieving book: {}", ex.getMessage());
@@ -86,7 +122,63 @@ public class BookService
 
 
     /**
-     * Retrieves a page of books based on the provided Pageable object.
+     * Retrieves many books by their identifiers at once. Books found in the book cache are served
+     * from it with a single multi-get; the rest are loaded with one query and cached for later reads.
+     *
+     * @param ids The identifiers of the books, in the order the caller wants them back
+     * @return One entry per requested identifier, in request order, marking the books that do not exist
+     * @throws ApiControllerException if no identifiers or more than book.batch.max-ids are requested
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    public List<BookLookup> getByIds(List<Long> ids) throws ApiControllerException {
+        if (ids == null || ids.isEmpty() || ids.size() > maxBatchIds) {
+            throw new ApiControllerException("Between 1 and " + maxBatchIds + " book IDs must be requested");
+        }
+        try {
+            List<Long> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+            Cache cache = cacheManager.getCache(BOOKS);
+            Map<Long, BookResponse> books = new HashMap<>(cacheBatchReader.getAll(cache, distinctIds, BookResponse.class));
+
+            // Load everything the cache did not have in one query
+            List<Long> missing = distinctIds.stream().filter(id -> !books.containsKey(id)).toList();
+            if (!missing.isEmpty()) {
+                for (BookView book : repository.findViewsByIdIn(missing)) {
+                    BookResponse response = mapper.toDto(book);
+                    books.put(book.id(), response);
+                    if (cache != null) {
+                        cache.put(book.id(), response);
+                    }
+                }
+            }
+            logger.info("Fetched {} books by ID, {} from cache", distinctIds.size(), distinctIds.size() - missing.size());
+
+            List<BookLookup> result = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                BookResponse book = id == null ? null : books.get(id);
+                result.add(new BookLookup(id, book != null, book));
+            }
+            return result;
+        } catch (Exception ex) {
+            logger.error("Error accessing database: {}", ex.getMessage());
+            throw new DatabaseException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Completes the beginning of a book name from the in-memory suggest index, without touching the database.
+     *
+     * @param prefix The beginning of a book name, as typed by the user
+     * @param limit  The maximum number of suggestions
+     * @return The active books whose names start with the prefix, in alphabetical order
+     */
+    public List<BookSuggestion> suggest(String prefix, int limit) {
+        return suggestIndex.suggest(prefix, limit);
+    }
+
+    /**
+     * Retrieves a page of active books based on the provided Pageable object.
+     * Filtering and pagination both happen in the database, so the page is always full
+     * and the total counts only active books.
      *
      * @param pageable The Pageable object specifying the pagination parameters
      * @return A Page object containing a list of BookResponse objects
@@ -94,10 +186,12 @@ public class BookService
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
+    @Cacheable(cacheNames = BOOK_PAGES,
+            key = "#pageable.pageNumber + ':' + #pageable.pageSize + ':' + #pageable.sort")
     public Page<BookResponse> findAll(Pageable pageable) {
         try {
-            // Retrieve all books from the repository based on the provided Pageable object
-            Page<Book> all = repository.findAll(pageable);
+            // Retrieve a page of active books, ordered by ID
+            Page<BookView> all = repository.findViewsByActiveTrueOrderByIdAsc(pageable);
 
             // Check if any books were found
             if (all.isEmpty()) {
@@ -108,14 +202,8 @@ public class BookService
                 throw new NotFoundException("Books not found");
             }
 
-            // Filter out inactive books
-            List<Book> activeBooks = all.stream().filter(Book::getActive).toList();
-
-            // Map Book objects to BookResponse objects
-            List<BookResponse> responseList = activeBooks.stream().map(mapper::toDto).collect(toList());
-
-            // Return a new Page object with the filtered and mapped data
-            return new PageImpl<>(responseList, pageable, all.getTotalElements());
+            // Map the books to BookResponse objects
+            return all.map(mapper::toDto);
         } catch (NotFoundException ex) {
             // Log the exception
             logger.error("Error finding books: {}", ex.getMessage());
@@ -131,6 +219,40 @@ public class BookService
         }
     }
 
+    /**
+     * Retrieves a slice of active books based on the provided Pageable object.
+     * Unlike {@link #findAll(Pageable)} no COUNT query is issued, so the result only
+     * tells whether a next slice exists.
+     *
+     * @param pageable The Pageable object specifying the pagination parameters
+     * @return A Slice object containing a list of BookResponse objects
+     * @throws NotFoundException if no books are found
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Cacheable(cacheNames = BOOK_PAGES,
+            key = "'slice:' + #pageable.pageNumber + ':' + #pageable.pageSize + ':' + #pageable.sort")
+    public Slice<BookResponse> findAllSlice(Pageable pageable) {
+        try {
+            // Retrieve a slice of active books, ordered by ID, without counting them
+            Slice<BookView> slice = repository.findViewSliceByActiveTrueOrderByIdAsc(pageable);
+
+            // Check if any books were found
+            if (slice.isEmpty()) {
+                logger.warn("No books found");
+                throw new NotFoundException("Books not found");
+            }
+
+            // Map the books to BookResponse objects
+            return slice.map(mapper::toDto);
+        } catch (NotFoundException ex) {
+            logger.error("Error finding books: {}", ex.getMessage());
+            throw new NotFoundException(ex.getMessage());
+        } catch (Exception ex) {
+            logger.error("Error accessing database: {}", ex.getMessage());
+            throw new DatabaseException(ex.getMessage());
+        }
+    }
+
     /**
      * Retrieves a page of books created by a specific user.
      *
@@ -143,8 +265,8 @@ public class BookService
     public Page<BookResponse> findAllBooksByCreatedBy(Pageable pageable, String createdBy) {
         try {
             // Retrieve a page of books created by the specified user
-            Page<Book> allBooksByCreatedBy = repository.findAllBooksByCreatedBy(createdBy, pageable);
-            // Map Book objects to BookResponse objects
+            Page<BookView> allBooksByCreatedBy = repository.findViewsByCreatedBy(createdBy, pageable);
+            // Map the books to BookResponse objects
             Page<BookResponse> bookResponses = allBooksByCreatedBy.map(mapper::toDto);
 
             // Log successful retrieval
@@ -166,6 +288,71 @@ public class BookService
         }
     }
 
+    /**
+     * Retrieves the active books that follow the given ID, using keyset pagination.
+     * The query seeks straight to the position through the primary key, so its cost
+     * does not grow with how deep the client has paged.
+     *
+     * @param afterId The ID of the last book of the previous page, 0 for the first page
+     * @param size    The maximum number of books to return, at most 100
+     * @return A CursorPage of BookResponse objects with the cursor of the next page
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    public CursorPage<BookResponse> findAllAfter(Long afterId, int size) {
+        try {
+            int limit = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+            // Fetch one extra row to find out whether another page follows
+            List<BookView> books = repository.findViewsByActiveTrueAndIdGreaterThanOrderByIdAsc(
+                    afterId, Limit.of(limit + 1));
+            return toCursorPage(books, limit);
+        } catch (Exception ex) {
+            logger.error("Error accessing database: {}", ex.getMessage());
+            throw new DatabaseException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the books created by a specific user that follow the given ID, using keyset pagination.
+     *
+     * @param createdBy The username of the user who created the books
+     * @param afterId   The ID of the last book of the previous page, 0 for the first page
+     * @param size      The maximum number of books to return, at most 100
+     * @return A CursorPage of BookResponse objects with the cursor of the next page
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    public CursorPage<BookResponse> findAllBooksByCreatedByAfter(String createdBy, Long afterId, int size) {
+        try {
+            int limit = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+            // Fetch one extra row to find out whether another page follows
+            List<BookView> books = repository.findViewsByCreatedByAndIdGreaterThanOrderByIdAsc(
+                    createdBy, afterId, Limit.of(limit + 1));
+            logger.info("Retrieved {} books created by user '{}' after ID {}", books.size(), createdBy, afterId);
+            return toCursorPage(books, limit);
+        } catch (Exception ex) {
+            logger.error("Error accessing database: {}", ex.getMessage());
+            throw new DatabaseException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Builds a CursorPage from a keyset query that fetched up to one row more than the page size.
+     *
+     * @param books The books returned by the keyset query
+     * @param size  The requested page size
+     * @return A CursorPage holding at most size books
+     */
+    private CursorPage<BookResponse> toCursorPage(List<BookView> books, int size) {
+        boolean hasNext = books.size() > size;
+        List<BookView> content = hasNext ? books.subList(0, size) : books;
+        String nextCursor = hasNext ? CursorCodec.encode(content.get(content.size() - 1).id()) : null;
+        return CursorPage.<BookResponse>builder()
+                .content(content.stream().map(mapper::toDto).toList())
+                .size(content.size())
+                .hasNext(hasNext)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
     /**
      * Registers a new book based on the provided BookRequest object.
      *
@@ -175,6 +362,7 @@ public class BookService
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
+    @CacheEvict(cacheNames = BOOK_PAGES, allEntries = true)
     public BookResponse register(BookRequest request) {
         try {
             // Map the BookRequest object to a Book entity
@@ -185,6 +373,7 @@ public class BookService
 
             // Save the book entity to the database
             Book save = repository.save(entity);
+            suggestIndex.put(save);
 
             // Log the successful registration
             logger.info("Book registered successfully: {}", save);
@@ -216,6 +405,10 @@ public class BookService
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = BOOKS, key = "#request.id"),
+            @CacheEvict(cacheNames = BOOK_PAGES, allEntries = true)
+    })
     public BookResponse remove(BookRequest request) {
         try {
             logger.info("Removing book with ID: {}", request.getId());
@@ -248,6 +441,7 @@ public class BookService
 
             // Save the changes to the database
             repository.save(book);
+            suggestIndex.remove(id);
 
             // Map the book entity to a BookResponse object and return it
             BookResponse removedBook = mapper.toDto(book);
@@ -271,9 +465,14 @@ public class BookService
      * @param request The BookRequest object containing the information to update the book
      * @return A BookResponse object containing information about the updated book
      * @throws NotFoundException if the book with the specified ID is not found or does not belong to the current user
+     * @throws PreconditionFailedException if the request carries a version and the book has moved past it
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = BOOKS, key = "#request.id"),
+            @CacheEvict(cacheNames = BOOK_PAGES, allEntries = true)
+    })
     public BookResponse update(BookRequest request) {
         try {
             logger.info("Updating book with ID: {}", request.getId());
@@ -292,12 +491,23 @@ public class BookService
 
             // Check if the book belongs to the current user
             if (book.getCreatedBy().equals(currentUser)) {
+                // Reject changes made to a stale copy of the book before touching it
+                if (request.getVersion() != null && !request.getVersion().equals(book.getVersion())) {
+                    throw new PreconditionFailedException(String.format(
+                            "Book %d is at version %d, not %d", id, book.getVersion(), request.getVersion()));
+                }
                 // Update the book entity with the information from the request
                 mapper.updateFromDto(request, book);
-                // Save the changes to the database
-                repository.save(book);
+                // Save the changes to the database; the version check also covers a concurrent update
+                Book saved;
+                try {
+                    saved = repository.save(book);
+                } catch (ObjectOptimisticLockingFailureException ex) {
+                    throw new PreconditionFailedException(String.format("Book %d was updated concurrently", id));
+                }
+                suggestIndex.put(saved);
                 // Map the updated book entity to a BookResponse object and return it
-                BookResponse updatedBook = mapper.toDto(book);
+                BookResponse updatedBook = mapper.toDto(saved);
                 logger.info("Book updated successfully: {}", updatedBook);
                 return updatedBook;
             }
@@ -310,6 +520,10 @@ public class BookService
             // Re-throw NotFoundException with the original message
             logger.error("Error updating book: {}", ex.getMessage());
             throw new NotFoundException(ex.getMessage());
+        } catch (PreconditionFailedException ex) {
+            // Re-throw PreconditionFailedException as-is so the client gets 412
+            logger.warn("Rejected stale update of book {}: {}", request.getId(), ex.getMessage());
+            throw ex;
         } catch (Exception ex) {
             // Wrap any other exceptions in a DatabaseException and throw it
             logger.error("Error updating book: {}", ex.getMessage());
@@ -326,6 +540,7 @@ public class BookService
      * @throws NotFoundException if the current user is not found or if a book with the same name already exists
      * @throws DatabaseException if there is an error accessing the database
      */
+    @CacheEvict(cacheNames = BOOK_PAGES, allEntries = true)
     public BookResponse addBook(BookRequest request) {
         try {
             logger.info("Adding a new book");
@@ -335,18 +550,11 @@ public class BookService
 
             // Check if the username is not blank
             if (!createdBy.isBlank()) {
-                // Find all books created by the current user
-                List<Book> booksByCreatedBy = repository.findAllBooksByCreatedBy(createdBy);
-
-                // Iterate through each book to check if a book with the same name already exists
-                for (Book book : booksByCreatedBy) {
-                    String bookName = book.getName().replaceAll(" ", "").toLowerCase();
-                    String newBookName = request.getName().replaceAll(" ", "").toLowerCase();
-
-                    if (bookName.equals(newBookName)) {
-                        logger.error("Book with name {} already exists", bookName);
-                        throw new DatabaseException(bookName + ": Book already exists");
-                    }
+                // Check through the (created_by, normalized_name) index whether the author already has this book
+                String newBookName = Book.normalizeName(request.getName());
+                if (repository.existsByCreatedByAndNormalizedName(createdBy, newBookName)) {
+                    logger.error("Book with name {} already exists", newBookName);
+                    throw new DatabaseException(newBookName + ": Book already exists");
                 }
 
                 // Find the user by username
@@ -358,7 +566,14 @@ public class BookService
                     entity.setCreatedBy(request.getCreatedBy());
                     entity.setCreatedAt(String.valueOf(LocalDateTime.now()));
                     entity.setUpdatedAt(String.valueOf(LocalDateTime.now()));
-                    repository.save(entity);
+                    try {
+                        repository.save(entity);
+                    } catch (DataIntegrityViolationException ex) {
+                        // A concurrent insert of the same name won the race for the unique index
+                        logger.error("Book with name {} already exists", newBookName);
+                        throw new DatabaseException(newBookName + ": Book already exists");
+                    }
+                    suggestIndex.put(entity);
 
                     // Map the new book entity to a BookResponse object and return it
                     BookResponse bookResponse = mapper.toDto(entity);
@@ -431,28 +646,39 @@ public class BookService
 
 
     /**
-     * Reduces the quantity of books based on the provided cart items.
+     * Reduces the quantity of books based on the provided cart items, consuming the copies held for them.
+     * All books are decremented in one conditional statement; held copies are not checked again, and if any
+     * book does not have enough copies left for the rest, nothing is returned and the caller's transaction
+     * must be rolled back.
      *
      * @param cartList The list of cart items containing book IDs and quantities
+     * @param held     The number of copies held for the cart items, keyed by book ID
      * @return A list of BookResponse objects representing the updated book quantities
+     * @throws StockNotEnoughException if some books do not have enough copies left
      * @throws DatabaseException if there is an error accessing the database
      */
-    public List<BookResponse> minusBookQuantity(List<Cart> cartList) {
+    public List<BookResponse> minusBookQuantity(List<Cart> cartList, Map<Long, Integer> held) {
         try {
             logger.info("Start reducing book quantities");
 
-            // Fetch the books from the database based on the provided cart items
-            List<Book> list = cartList.stream()
-                    .map(cart -> bookRepository.findById(cart.getBook().getId()).get())
-                    .toList();
+            // Sum the requested quantities per book, the same book may appear on several cart lines
+            Map<Long, Integer> quantities = cartList.stream()
+                    .collect(groupingBy(cart -> cart.getBook().getId(), TreeMap::new,
+                            summingInt(Cart::getQuantity)));
+
+            // Decrement every book that still has enough copies, in a single round trip
+            Set<Long> decremented = repository.decrementQuantities(quantities, held);
 
-            // Adjust the quantity of each book based on the cart items
-            for (int i = 0; i < list.size(); i++) {
-                list.get(i).setQuantity(list.get(i).getQuantity() - cartList.get(i).getQuantity());
+            // Reject the checkout if any book could not be decremented
+            List<Long> oversold = quantities.keySet().stream()
+                    .filter(bookId -> !decremented.contains(bookId))
+                    .toList();
+            if (!oversold.isEmpty()) {
+                throw new StockNotEnoughException(oversold);
             }
 
-            // Save the updated book quantities to the database
-            List<Book> books = repository.saveAll(list);
+            // Drop the cached copies of the books whose stock has changed
+            evictCachedBooks(decremented);
 
             // Map the updated book quantities to BookResponse objects
             List<BookResponse> list1 = cartList.stream()
@@ -467,9 +693,28 @@ public class BookService
             logger.info("Successfully reduced book quantities");
 
             return list1;
+        } catch (StockNotEnoughException ex) {
+            logger.error("Error reducing book quantities: {}", ex.getMessage());
+            throw ex;
         } catch (Exception ex) {
             logger.error("Error reducing book quantities: {}", ex.getMessage());
             throw new DatabaseException("Error reducing book quantities: " + ex.getMessage());
         }
     }
+
+    /**
+     * Evicts the given books and every cached page of books from the cache.
+     *
+     * @param bookIds The IDs of the books whose cached copies are stale
+     */
+    private void evictCachedBooks(Collection<Long> bookIds) {
+        Cache books = cacheManager.getCache(BOOKS);
+        if (books != null) {
+            bookIds.forEach(books::evict);
+        }
+        Cache pages = cacheManager.getCache(BOOK_PAGES);
+        if (pages != null) {
+            pages.clear();
+        }
+    }
 }
@@ -0,0 +1,233 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSuggestion;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the names of active books in memory, sorted, so that title prefixes can be completed
+ * without a database round trip. A lookup is a seek into a skip list followed by a short scan,
+ * which stays in the microseconds however large the catalog is.
+ * <p>
+ * The index is filled once after startup and then kept current by the book write paths of this
+ * instance. Its size is capped by {@code book.suggest.max-entries}; books beyond the cap are not
+ * suggested and are counted in {@code book.suggest.rejected}.
+ */
+@Component
+public class BookSuggestIndex {
+    private static final Logger logger = LoggerFactory.getLogger(BookSuggestIndex.class);
+
+    // Separates the name from the ID in a key; sorts before every other character, so equal names stay together
+    private static final char KEY_SEPARATOR = '\u0000';
+    // Rough cost of one entry besides its characters: key and name strings, suggestion, skip list node, ID mapping
+    private static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    private final BookRepository repository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ConcurrentSkipListMap<String, BookSuggestion> entries = new ConcurrentSkipListMap<>();
+    private final Map<Long, String> keysById = new ConcurrentHashMap<>();
+    // Books written while a load is running, true if put and false if removed; the load leaves them alone
+    private final Map<Long, Boolean> writtenDuringLoad = new ConcurrentHashMap<>();
+    private volatile boolean loading;
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final Counter rejected;
+    private final int maxEntries;
+    private final int maxResults;
+
+    public BookSuggestIndex(BookRepository repository,
+                            EntityManager entityManager,
+                            PlatformTransactionManager transactionManager,
+                            MeterRegistry meterRegistry,
+                            @Value("${book.suggest.max-entries:2000000}") int maxEntries,
+                            @Value("${book.suggest.max-results:50}") int maxResults) {
+        this.repository = repository;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxEntries = maxEntries;
+        this.maxResults = maxResults;
+        Gauge.builder("book.suggest.entries", keysById, Map::size)
+                .description("Book names held by the suggest index")
+                .register(meterRegistry);
+        Gauge.builder("book.suggest.memory", estimatedBytes, AtomicLong::get)
+                .description("Estimated heap used by the suggest index")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("book.suggest.rejected")
+                .description("Books left out of the suggest index because it was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads the names of all active books, streaming them so the catalog is never held in memory as entities.
+     * The stream may still return a book that was renamed or deactivated while it ran; such books were written
+     * through {@link #put(Book)} or {@link #remove(Long)} meanwhile, so the load skips them and applies the
+     * removals once more when it is done.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        writtenDuringLoad.clear();
+        loading = true;
+        try {
+            long started = System.currentTimeMillis();
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<Book> books = repository.streamByActiveTrueOrderByIdAsc()) {
+                    books.forEach(book -> {
+                        if (!writtenDuringLoad.containsKey(book.getId())) {
+                            index(book);
+                        }
+                        entityManager.detach(book);
+                    });
+                }
+            });
+            logger.info("Loaded {} book names into the suggest index in {} ms, about {} KB",
+                    size(), System.currentTimeMillis() - started, estimatedBytes() / 1024);
+        } catch (Exception ex) {
+            // Suggestions are an optional feature, the shop keeps working without them
+            logger.error("Error loading the book suggest index: {}", ex.getMessage());
+        } finally {
+            loading = false;
+            // A removal may have landed between the check above and the indexing of its book
+            for (Long bookId : writtenDuringLoad.keySet()) {
+                writtenDuringLoad.computeIfPresent(bookId, (id, present) -> {
+                    if (!present) {
+                        unindex(id);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * Adds or renames a book, or drops it when it is no longer active.
+     *
+     * @param book The book as it was saved
+     */
+    public void put(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+        if (!Boolean.TRUE.equals(book.getActive()) || book.getName() == null || book.getName().isBlank()) {
+            remove(book.getId());
+            return;
+        }
+        if (loading) {
+            writtenDuringLoad.put(book.getId(), true);
+        }
+        index(book);
+    }
+
+    /**
+     * Drops a book from the index.
+     *
+     * @param bookId The ID of the book
+     */
+    public void remove(Long bookId) {
+        if (loading) {
+            writtenDuringLoad.put(bookId, false);
+        }
+        unindex(bookId);
+    }
+
+    private void index(Book book) {
+        String key = normalize(book.getName()) + KEY_SEPARATOR + book.getId();
+        BookSuggestion suggestion = new BookSuggestion(book.getId(), book.getName());
+        keysById.compute(book.getId(), (id, oldKey) -> {
+            if (oldKey == null && keysById.size() >= maxEntries) {
+                rejected.increment();
+                return null;
+            }
+            if (oldKey != null) {
+                BookSuggestion old = entries.remove(oldKey);
+                estimatedBytes.addAndGet(-estimate(oldKey, old));
+            }
+            entries.put(key, suggestion);
+            estimatedBytes.addAndGet(estimate(key, suggestion));
+            return key;
+        });
+    }
+
+    private void unindex(Long bookId) {
+        keysById.computeIfPresent(bookId, (id, oldKey) -> {
+            BookSuggestion old = entries.remove(oldKey);
+            estimatedBytes.addAndGet(-estimate(oldKey, old));
+            return null;
+        });
+    }
+
+    /**
+     * Completes a title prefix, ignoring case and repeated spaces.
+     *
+     * @param prefix The beginning of a book name
+     * @param limit  The maximum number of suggestions, capped by {@code book.suggest.max-results}
+     * @return The matching books in alphabetical order of their names
+     */
+    public List<BookSuggestion> suggest(String prefix, int limit) {
+        String normalized = normalizePrefix(prefix);
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int max = Math.min(Math.max(limit, 1), maxResults);
+        NavigableMap<String, BookSuggestion> matches =
+                entries.subMap(normalized, true, normalized + Character.MAX_VALUE, false);
+        List<BookSuggestion> result = new ArrayList<>(max);
+        for (BookSuggestion suggestion : matches.values()) {
+            result.add(suggestion);
+            if (result.size() == max) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return keysById.size();
+    }
+
+    public long estimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    private static long estimate(String key, BookSuggestion suggestion) {
+        int nameLength = suggestion == null ? 0 : suggestion.getName().length();
+        return ENTRY_OVERHEAD_BYTES + 2L * (key.length() + nameLength);
+    }
+
+    private static String normalize(String name) {
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    // Unlike a stored name, a typed prefix keeps one trailing space: "war " must not complete to "warden"
+    private static String normalizePrefix(String prefix) {
+        if (prefix == null) {
+            return "";
+        }
+        String normalized = prefix.stripLeading().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.indexOf(KEY_SEPARATOR) >= 0 ? "" : normalized;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out what a cart batch does to the cart, for both cart stores.
+ */
+final class CartBatches {
+    private CartBatches() {
+    }
+
+    /**
+     * Works out the quantity every book of the batch ends up with, applying the operations in order.
+     *
+     * @param operations The operations of the batch, in request order
+     * @param current    The quantities in the cart before the batch, keyed by book ID; books not in the cart may be absent
+     * @return The final quantity per book ID, in the order the books first appear in the batch; 0 means no line
+     * @throws ApiControllerException if an operation is incomplete, has a negative quantity, removes more
+     *                                copies than the line holds at that point or adds more than a line can hold
+     */
+    static Map<Long, Integer> targetQuantities(List<CartOperation> operations, Map<Long, Integer> current)
+            throws ApiControllerException {
+        Map<Long, Integer> targets = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            CartOperation operation = operations.get(i);
+            if (operation == null || operation.getType() == null || operation.getBookId() == null
+                    || operation.getQuantity() == null || operation.getQuantity() < 0) {
+                throw new ApiControllerException(
+                        "Operation %d needs a type, a book ID and a quantity not below zero".formatted(i));
+            }
+            Long bookId = operation.getBookId();
+            int quantity = targets.getOrDefault(bookId, current.getOrDefault(bookId, 0));
+            int change = operation.getQuantity();
+            if (change == 0 && operation.getType() != CartOperation.Type.SET) {
+                throw new ApiControllerException("Operation %d must change at least one copy".formatted(i));
+            }
+            if (operation.getType() == CartOperation.Type.REMOVE && change > quantity) {
+                throw new ApiControllerException("Operation %d removes %d copies of book %d, the cart holds %d"
+                        .formatted(i, change, bookId, quantity));
+            }
+            if (operation.getType() == CartOperation.Type.ADD && change > Integer.MAX_VALUE - quantity) {
+                // The sum would wrap around to a negative line that no stock check catches
+                throw new ApiControllerException("Operation %d adds %d copies of book %d to the %d in the cart, "
+                        .formatted(i, change, bookId, quantity) + "more than a line can hold");
+            }
+            targets.put(bookId, switch (operation.getType()) {
+                case ADD -> quantity + change;
+                case REMOVE -> quantity - change;
+                case SET -> change;
+            });
+        }
+        return targets;
+    }
+}
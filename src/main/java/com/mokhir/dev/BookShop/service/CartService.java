@@ -1,46 +1,78 @@
 package com.mokhir.dev.BookShop.service;
 
 import com.mokhir.dev.BookShop.aggregation.dto.ResponseMessage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation;
 import com.mokhir.dev.BookShop.aggregation.dto.cart.CartRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartUpsert;
 import com.mokhir.dev.BookShop.aggregation.entity.Book;
 import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.entity.StockReservation;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
 import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
 import com.mokhir.dev.BookShop.exceptions.*;
 import com.mokhir.dev.BookShop.jwt.JwtProvider;
 import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
 import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.service.interfaces.CartCheckoutInterface;
+import com.mokhir.dev.BookShop.service.interfaces.CartPurgeInterface;
 import com.mokhir.dev.BookShop.service.interfaces.CartServiceInterface;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+/**
+ * Keeps carts in the cart table. This is the default cart store; see {@link RedisCartService}
+ * for the one selected with {@code cart.store=redis}.
+ */
 @Service
 @RequiredArgsConstructor
-public class CartService implements CartServiceInterface {
+@ConditionalOnProperty(name = "cart.store", havingValue = "database", matchIfMissing = true)
+public class CartService implements CartServiceInterface, CartCheckoutInterface, CartPurgeInterface {
     private final CartRepository cartRepository;
     private final BookRepository bookRepository;
     private final CartMapper cartMapper;
+    private final BookMapper bookMapper;
     private final JwtProvider jwtProvider;
+    private final StockReservationService stockReservationService;
+    private final OptimisticRetry optimisticRetry;
 
     private static final Logger logger = LoggerFactory.getLogger(CartService.class);
 
+    @Value("${cart.batch.max-operations:500}")
+    private int maxBatchOperations;
+
     /**
-     * Adds a book to the user's cart.
+     * Adds a book to the user's cart in a single statement, which starts the user's line of the book or grows it
+     * and checks in the same statement that the book is active and has enough copies left for the whole line.
+     * The added copies are then held for the line, so other carts cannot take them until the hold expires.
      *
      * @param cartRequest The CartRequest object containing information about the book to be added to the cart
      * @return A CartResponse object containing information about the added item in the cart
-     * @throws NotFoundException if the requested book is not found or is not available
-     * @throws DatabaseException if there is an error accessing the database
+     * @throws NotFoundException if the requested book is not found
+     * @throws DatabaseException if the book is not available or there is an error accessing the database
      */
     @Override
     @Transactional
@@ -49,36 +81,45 @@ public class CartService implements CartServiceInterface {
             // Get the ID and quantity of the book to be added to the cart
             Long bookId = cartRequest.getBookId();
             Integer inCartQuantity = cartRequest.getQuantity();
+            if (inCartQuantity == null || inCartQuantity <= 0) {
+                throw new IncorrectValueException("Expected value must be higher than zero!");
+            }
 
-            // Find the book in the repository by its ID
-            Book book = bookRepository.findById(bookId).orElseThrow(() ->
-                    new NotFoundException("Book with current id:%d not found".formatted(bookId)));
+            // Add the copies to the user's line of the book, if the book can take them
+            CartUpsert upsert = cartRepository.addQuantity(jwtProvider.getCurrentUser(), bookId, inCartQuantity)
+                    .orElseThrow(() -> new NotFoundException("Book with current id:%d not found".formatted(bookId)));
+            BookView book = upsert.book();
 
             // Check if the book is available and active
-            if (book.getQuantity() == 0 || !book.getActive()) {
+            if (!upsert.active() || book.quantity() == 0) {
                 throw new EntityNotLeftException(
                         "Book with current id:%d did not left or not active".formatted(bookId));
             }
 
-            // Find all items in the user's cart
-            List<Cart> allByCreatedBy = cartRepository.findAllByCreatedBy(jwtProvider.getCurrentUser());
-
-            // Check if adding the requested quantity of the book exceeds availability
-            if (!checkAvailabilityQuantityBook(allByCreatedBy, book, inCartQuantity)) {
+            // Nothing was written if the line would have exceeded the copies left
+            if (upsert.cartId() == null) {
+                int alreadyInCart = upsert.alreadyInCart() == null ? 0 : upsert.alreadyInCart();
                 throw new LimitCrowdedException("Limit crowded, exist books:%d, you want to add:%d, wasted:%d"
-                        .formatted(book.getQuantity(),
+                        .formatted(book.quantity(),
                                 inCartQuantity,
-                                inCartQuantity - (book.getQuantity() - countBooksInCard(allByCreatedBy, book))));
+                                inCartQuantity - (book.quantity() - alreadyInCart)));
             }
 
-            // Get an existing cart item if it already exists, otherwise create a new one
-            Cart entity = getExistCart(cartRequest);
-
-            // Save the cart item to the database
-            cartRepository.save(entity);
+            // Hold the added copies for the line; the line is rolled back if other carts hold them already
+            try {
+                stockReservationService.hold(upsert.cartId(), bookId, inCartQuantity);
+            } catch (StockNotEnoughException e) {
+                throw new LimitCrowdedException("Limit crowded, the copies left of book with id:%d are held by other carts"
+                        .formatted(bookId));
+            }
 
-            // Map the cart item entity to a CartResponse object and return it
-            return cartMapper.toDto(entity);
+            // Map the written cart line to a CartResponse object and return it
+            return CartResponse.builder()
+                    .id(upsert.cartId())
+                    .bookResponse(bookMapper.toDto(book))
+                    .quantity(upsert.quantity())
+                    .totalPrice(upsert.totalPrice())
+                    .build();
         } catch (NotFoundException e) {
             // Log the exception and re-throw NotFoundException with the original message
             logger.error("Error adding book to cart: {}", e.getMessage());
@@ -90,49 +131,6 @@ public class CartService implements CartServiceInterface {
         }
     }
 
-    /**
-     * Retrieves an existing cart item or creates a new one based on the provided CartRequest object.
-     *
-     * @param cartRequest The CartRequest object containing information about the book to be added to the cart
-     * @return A Cart object representing the existing or new cart item
-     * @throws DatabaseException if there is an error accessing the database
-     */
-    private Cart getExistCart(CartRequest cartRequest) {
-        try {
-            // Find all cart items created by the current user
-            List<Cart> allByCreatedBy = cartRepository.findAllByCreatedBy(jwtProvider.getCurrentUser());
-
-            // Check if there is already a cart item for the requested book
-            Optional<Cart> existCart = allByCreatedBy
-                    .stream()
-                    .filter(cart -> cart.getBook().getId().equals(cartRequest.getBookId()))
-                    .findFirst();
-
-            // Find the book in the repository by its ID
-            Book book = bookRepository.findById(cartRequest.getBookId()).orElseThrow(() ->
-                    new NotFoundException("Book with ID: %d not found".formatted(cartRequest.getBookId())));
-
-            if (existCart.isEmpty()) {
-                // If no existing cart item is found, create a new one
-                Cart newCart = cartMapper.toEntity(cartRequest);
-                newCart.setBook(book);
-                newCart.setTotalPrice(newCart.getQuantity() * book.getPrice());
-                return newCart;
-            }
-
-            // If an existing cart item is found, update its quantity and total price
-            Cart cart = existCart.get();
-            Integer quantityAllBooks = cart.getQuantity();
-            cart.setQuantity(quantityAllBooks + cartRequest.getQuantity());
-            cart.setTotalPrice(quantityAllBooks * book.getPrice());
-            return cart;
-        } catch (Exception e) {
-            // Log the exception and wrap it in a DatabaseException and throw it
-            logger.error("Error retrieving existing cart or creating a new one: {}", e.getMessage());
-            throw new DatabaseException("getExistCart: " + e.getMessage());
-        }
-    }
-
     /**
      * Removes a specified quantity of books from the cart based on the provided CartRequest object.
      *
@@ -140,11 +138,16 @@ public class CartService implements CartServiceInterface {
      * @return A CartResponse object containing information about the updated cart item
      * @throws NotFoundException if the cart item with the specified ID is not found
      * or if the current user does not own the cart item
+     * @throws ConcurrentUpdateException if the cart item kept being changed by other requests
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
-    @Transactional
     public CartResponse removeFromCart(CartRequest cartRequest) {
+        // Read and write the line again if another request changed it in the meantime
+        return optimisticRetry.run("removeFromCart", () -> removeOnce(cartRequest));
+    }
+
+    private CartResponse removeOnce(CartRequest cartRequest) {
         try {
             // Get the quantity to be removed from the cart
             Integer wasteQuantity = cartRequest.getQuantity();
@@ -161,16 +164,25 @@ public class CartService implements CartServiceInterface {
             // Get the current quantity of books in the cart
             Integer dbQuantity = cart.getQuantity();
             // Update the quantity in the cart if the requested quantity is valid
-            if (wasteQuantity > 0 && wasteQuantity <= dbQuantity) {
+            boolean removed = wasteQuantity > 0 && wasteQuantity <= dbQuantity;
+            if (removed) {
                 cart.setQuantity(dbQuantity - wasteQuantity);
             }
-            // Save the changes to the database
-            Cart savedCart = cartRepository.save(cart);
+            // Save the changes to the database, which fails if the line changed since it was read;
+            // the line is written before its hold, in the same order as everywhere else
+            Cart savedCart = cartRepository.saveAndFlush(cart);
+            if (removed) {
+                // Give back the copies held for the removed books
+                stockReservationService.release(cartId, wasteQuantity);
+            }
             // Map the updated cart item to a CartResponse object and return it
             return cartMapper.toDto(savedCart);
         } catch (NotFoundException e) {
             // Re-throw NotFoundException with the original message
             throw new NotFoundException(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the line is read and written again
+            throw e;
         } catch (Exception e) {
             // Log the exception and wrap it in a DatabaseException and throw it
             logger.error("Error removing book from cart: {}", e.getMessage());
@@ -213,7 +225,8 @@ public class CartService implements CartServiceInterface {
     }
 
     /**
-     * Retrieves a page of cart items belonging to the current user.
+     * Retrieves a page of cart items belonging to the current user. Only the requested page is read,
+     * and the total price of the whole cart is summed by the database.
      *
      * @param pageable The Pageable object specifying the pagination parameters
      * @return A ResponseMessage object containing a page of CartResponse objects and additional information
@@ -225,14 +238,17 @@ public class CartService implements CartServiceInterface {
         try {
             // Get the username of the current user
             String currentUser = jwtProvider.getCurrentUser();
-            // Find all cart items belonging to the current user
-            List<Cart> cartList = cartRepository.findAllByCreatedBy(currentUser);
-            // Check if the cart list is empty
-            Page<Cart> cartPage = getCarts(pageable, cartList, currentUser);
+            // Find the requested page of cart items belonging to the current user
+            Page<Cart> cartPage = cartRepository.findAllByCreatedByOrderByIdAsc(currentUser,
+                    PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()));
+            // Check if the user has any cart items at all
+            if (cartPage.getTotalElements() == 0) {
+                throw new NotFoundException("Current user %s doesn't have any carts".formatted(currentUser));
+            }
             // Map the cart Page object to a Page of CartResponse objects
             Page<CartResponse> mappedPage = cartPage.map(cartMapper::toDto);
             // Calculate the total price of all carts
-            Integer totalPriceAllCarts = cartList.stream().map(Cart::getTotalPrice).reduce(0, Integer::sum);
+            long totalPriceAllCarts = cartRepository.sumTotalPriceByCreatedBy(currentUser);
             // Create a ResponseMessage object and set its attributes
             ResponseMessage<Page<CartResponse>> responseMessage = new ResponseMessage<>();
             responseMessage.setMessage("Total price of all carts: " + totalPriceAllCarts);
@@ -250,16 +266,6 @@ public class CartService implements CartServiceInterface {
         }
     }
 
-    private static Page<Cart> getCarts(Pageable pageable, List<Cart> cartList, String currentUser) {
-        if (cartList.isEmpty()) {
-            throw new NotFoundException("Current user %s doesn't have any carts".formatted(currentUser));
-        }
-        // Create a PageRequest object for pagination
-        PageRequest pageRequest = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize());
-        // Create a Page object for the cart list
-        return new PageImpl<>(cartList, pageRequest, cartList.size());
-    }
-
     /**
      * Deletes a cart item based on the provided CartRequest object.
      *
@@ -267,10 +273,16 @@ public class CartService implements CartServiceInterface {
      * @return A ResponseMessage object containing information about the deleted cart item
      * @throws NotFoundException if the cart item with the specified ID is not found
      *                            or if the current user does not own the cart item
+     * @throws ConcurrentUpdateException if the cart item kept being changed by other requests
      * @throws DatabaseException if there is an error accessing the database
      */
     @Override
     public ResponseMessage<CartResponse> deleteCart(CartRequest cartRequest) {
+        // Read and delete the line again if another request changed it in the meantime
+        return optimisticRetry.run("deleteCart", () -> deleteOnce(cartRequest));
+    }
+
+    private ResponseMessage<CartResponse> deleteOnce(CartRequest cartRequest) {
         try {
             // Get the username of the current user
             String currentUser = jwtProvider.getCurrentUser();
@@ -283,8 +295,10 @@ public class CartService implements CartServiceInterface {
             if (!cart.getCreatedBy().equals(currentUser)) {
                 throw new NotFoundException("Current user %s does not own any cart items".formatted(currentUser));
             }
-            // Delete the cart item from the database
-            cartRepository.deleteById(cartId);
+            // Delete the cart item from the database and give back the copies held for it
+            cartRepository.delete(cart);
+            cartRepository.flush();
+            stockReservationService.releaseAll(List.of(cartId));
             // Create a ResponseMessage object and set its attributes
             ResponseMessage<CartResponse> responseMessage = new ResponseMessage<>();
             responseMessage.setCurrentUser(currentUser);
@@ -295,6 +309,9 @@ public class CartService implements CartServiceInterface {
         } catch (NotFoundException e) {
             // Re-throw NotFoundException with the original message
             throw new NotFoundException(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the line is read and deleted again
+            throw e;
         } catch (Exception e) {
             // Log the exception and wrap it in a DatabaseException and throw it
             logger.error("Error deleting cart: {}", e.getMessage());
@@ -321,8 +338,9 @@ public class CartService implements CartServiceInterface {
             if (allByCreatedBy.isEmpty()) {
                 throw new NotFoundException("Current user %s doesn't have any carts".formatted(currentUser));
             }
-            // Delete all cart items belonging to the current user
+            // Delete all cart items belonging to the current user and give back the copies held for them
             cartRepository.deleteAllByCreatedBy(currentUser);
+            stockReservationService.releaseAll(allByCreatedBy.stream().map(Cart::getId).toList());
             // Map the deleted cart items to CartResponse objects
             List<CartResponse> list = allByCreatedBy.stream().map(cartMapper::toDto).toList();
             // Create a ResponseMessage object and set its attributes
@@ -343,65 +361,147 @@ public class CartService implements CartServiceInterface {
     }
 
     /**
-     * Checks if the requested quantity of a book is available in the user's cart.
+     * Applies many changes to the current user's cart in one transaction. The cart and the books it refers to
+     * are read once, the stock of all grown lines is checked together, and the lines and holds are written with
+     * batched statements. If any change cannot be made, none is.
      *
-     * @param allByCreatedBy A list of cart items belonging to the user
-     * @param book            The book to be checked for availability
-     * @param expectedCount   The expected quantity of the book
-     * @return true if the requested quantity is available, otherwise false
+     * @param batchRequest The changes, applied in request order
+     * @return A ResponseMessage object containing the lines of the changed books that are left in the cart
+     * @throws ApiControllerException if no changes or more than cart.batch.max-operations are sent,
+     *                                or a change is invalid
+     * @throws NotFoundException if some books to be put into the cart are not found
+     * @throws StockNotEnoughException if some books are not active or do not have enough copies left
+     * @throws ConcurrentUpdateException if the cart kept being changed by other requests
      * @throws DatabaseException if there is an error accessing the database
      */
-    private boolean checkAvailabilityQuantityBook(List<Cart> allByCreatedBy, Book book, Integer expectedCount) {
-        try {
-            // Check if the list of cart items is empty and the expected count
-            // is less than or equal to the book's quantity
-            if (allByCreatedBy.isEmpty() && expectedCount <= book.getQuantity()) {
-                return true;
-            }
-            // Throw an exception if the expected count is less than zero
-            if (expectedCount < 0) {
-                throw new IncorrectValueException("Expected value must be higher than zero!");
-            }
-            // Count the number of books in the user's cart
-            Integer countBooksInCart = countBooksInCard(allByCreatedBy, book);
-            // Return true if the sum of the counted books and
-            // the expected count is less than or equal to the book's quantity
-            return countBooksInCart + expectedCount <= book.getQuantity();
-        } catch (Exception e) {
-            // Log the exception and wrap it in a DatabaseException and throw it
-            logger.error("Error checking book availability: {}", e.getMessage());
-            throw new DatabaseException("checkAvailabilityQuantityBook: " + e.getMessage());
+    @Override
+    public ResponseMessage<List<CartResponse>> applyBatch(CartBatchRequest batchRequest) throws ApiControllerException {
+        List<CartOperation> operations = batchRequest == null ? null : batchRequest.getOperations();
+        if (operations == null || operations.isEmpty() || operations.size() > maxBatchOperations) {
+            throw new ApiControllerException("Between 1 and " + maxBatchOperations + " operations must be sent");
         }
+        // Apply the batch again to a fresh read of the cart if another request changed it in the meantime
+        return optimisticRetry.run("applyBatch", () -> applyOnce(batchRequest));
     }
 
-    /**
-     * Counts the total quantity of a book in the user's cart.
-     *
-     * @param allByCreatedBy A list of cart items belonging to the user
-     * @param book            The book to be counted
-     * @return The total quantity of the book in the user's cart
-     * @throws DatabaseException if there is an error accessing the database
-     */
-    private Integer countBooksInCard(List<Cart> allByCreatedBy, Book book) {
+    private ResponseMessage<List<CartResponse>> applyOnce(CartBatchRequest batchRequest) throws ApiControllerException {
+        List<CartOperation> operations = batchRequest.getOperations();
         try {
-            // Filter the cart items by the book ID
-            List<Cart> cartList = allByCreatedBy.stream()
-                    .filter(cart -> cart.getBook().getId().equals(book.getId()))
+            // Read the user's cart once, with the books of its lines
+            String currentUser = jwtProvider.getCurrentUser();
+            Map<Long, Cart> lines = cartRepository.findAllByCreatedBy(currentUser).stream()
+                    .collect(Collectors.toMap(cart -> cart.getBook().getId(), Function.identity()));
+            // Work out what every book of the batch ends up with
+            Map<Long, Integer> targets = CartBatches.targetQuantities(operations, lines.values().stream()
+                    .collect(Collectors.toMap(cart -> cart.getBook().getId(), Cart::getQuantity)));
+
+            // Read the books that are not in the cart yet in one query
+            Map<Long, Book> books = new HashMap<>();
+            lines.values().forEach(cart -> books.put(cart.getBook().getId(), cart.getBook()));
+            List<Long> newBookIds = targets.entrySet().stream()
+                    .filter(target -> !lines.containsKey(target.getKey()) && target.getValue() > 0)
+                    .map(Map.Entry::getKey)
                     .toList();
-            // Return zero if the filtered list is empty
-            if (cartList.isEmpty()) {
-                return 0;
+            bookRepository.findAllById(newBookIds).forEach(book -> books.put(book.getId(), book));
+            List<Long> missing = newBookIds.stream().filter(bookId -> !books.containsKey(bookId)).toList();
+            if (!missing.isEmpty()) {
+                throw new NotFoundException("Books with ids:%s not found".formatted(missing));
             }
-            // Sum the quantities of the filtered cart items
-            int totalQuantity = cartList.stream()
-                    .mapToInt(Cart::getQuantity)
-                    .sum();
-            logger.info("Total quantity of book {} in cart: {}", book.getId(), totalQuantity);
-            return totalQuantity;
+
+            // Check the stock of every grown line before writing anything
+            List<Long> oversold = new ArrayList<>();
+            targets.forEach((bookId, target) -> {
+                Cart line = lines.get(bookId);
+                int added = target - (line == null ? 0 : line.getQuantity());
+                if (added <= 0) {
+                    // Kept or shrunk lines need no stock, and books that end at 0 outside the cart were not read
+                    return;
+                }
+                Book book = books.get(bookId);
+                int reserved = book.getReserved() == null ? 0 : book.getReserved();
+                if (!Boolean.TRUE.equals(book.getActive()) || target > book.getQuantity()
+                        || added > book.getQuantity() - reserved) {
+                    oversold.add(bookId);
+                }
+            });
+            if (!oversold.isEmpty()) {
+                throw new StockNotEnoughException(oversold);
+            }
+
+            // Sort the changes into deleted, written, grown and shrunk lines
+            List<Cart> deleted = new ArrayList<>();
+            List<Cart> written = new ArrayList<>();
+            Map<Cart, Integer> grown = new LinkedHashMap<>();
+            Map<Long, Integer> shrunk = new HashMap<>();
+            targets.forEach((bookId, target) -> {
+                Cart line = lines.get(bookId);
+                int before = line == null ? 0 : line.getQuantity();
+                if (target == before) {
+                    return;
+                }
+                if (target == 0) {
+                    deleted.add(line);
+                    return;
+                }
+                Book book = books.get(bookId);
+                Cart cart = line;
+                if (cart == null) {
+                    cart = Cart.builder().book(book).build();
+                    cart.setCreatedBy(currentUser);
+                }
+                cart.setQuantity(target);
+                cart.setTotalPrice(target * book.getPrice());
+                written.add(cart);
+                if (target > before) {
+                    grown.put(cart, target - before);
+                } else {
+                    shrunk.put(cart.getId(), before - target);
+                }
+            });
+
+            // Write the lines in batches, then move the holds along with them
+            // Deleted lines are removed one by one, so their versions are checked too
+            cartRepository.deleteAll(deleted);
+            cartRepository.saveAllAndFlush(written);
+            stockReservationService.releaseAll(deleted.stream().map(Cart::getId).toList());
+            stockReservationService.release(shrunk);
+            stockReservationService.hold(grown.entrySet().stream()
+                    .map(entry -> StockReservation.builder()
+                            .cartId(entry.getKey().getId())
+                            .bookId(entry.getKey().getBook().getId())
+                            .quantity(entry.getValue())
+                            .build())
+                    .toList());
+
+            // Return the lines of the changed books that are left in the cart
+            List<CartResponse> list = written.stream()
+                    .sorted(Comparator.comparing(Cart::getId))
+                    .map(cartMapper::toDto)
+                    .toList();
+            ResponseMessage<List<CartResponse>> responseMessage = new ResponseMessage<>();
+            responseMessage.setMessage(
+                    "Applied %d operations to %d books".formatted(operations.size(), targets.size()));
+            responseMessage.setEntities(list);
+            responseMessage.setCurrentUser(currentUser);
+            return responseMessage;
+        } catch (ApiControllerException | NotFoundException | StockNotEnoughException e) {
+            // Log and re-throw the rejected batch as it is
+            logger.error("Error applying cart batch: {}", e.getMessage());
+            throw e;
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the batch is applied again
+            throw e;
+        } catch (DataIntegrityViolationException e) {
+            if (OptimisticRetry.isConcurrentInsert(e)) {
+                // Another request started one of the new lines first, the batch is applied again to it
+                throw e;
+            }
+            logger.error("Error applying cart batch: {}", e.getMessage());
+            throw new DatabaseException("applyBatch: " + e.getMessage());
         } catch (Exception e) {
             // Log the exception and wrap it in a DatabaseException and throw it
-            logger.error("Error counting books in cart: {}", e.getMessage());
-            throw new DatabaseException("countBooksInCard: " + e.getMessage());
+            logger.error("Error applying cart batch: {}", e.getMessage());
+            throw new DatabaseException("applyBatch: " + e.getMessage());
         }
     }
 
@@ -422,4 +522,71 @@ public class CartService implements CartServiceInterface {
             throw new DatabaseException("removeFromCart: " + e.getMessage());
         }
     }
+
+    /**
+     * Removes up to limit cart items nobody wrote to since the given time, with the copies held for them.
+     *
+     * @param before The time before which the items were last written
+     * @param limit  The maximum number of items to remove
+     * @return The number of items removed
+     */
+    @Override
+    @Transactional
+    public int purgeAbandoned(LocalDateTime before, int limit) {
+        List<Long> cartIds = cartRepository.lockAbandonedIds(before, limit);
+        if (cartIds.isEmpty()) {
+            return 0;
+        }
+        stockReservationService.releaseAll(cartIds);
+        cartRepository.deleteAllByIdInBatch(cartIds);
+        return cartIds.size();
+    }
+
+    /**
+     * Takes the given cart items of the current user out of the cart for checkout, reading them with their books
+     * in one query. The deletion is part of the caller's transaction.
+     *
+     * @param cartIds The IDs of the cart items to check out
+     * @return The cart items taken out of the cart
+     * @throws NotFoundException         if some of the items do not exist or belong to another user
+     * @throws ConcurrentUpdateException if some of the items were changed since they were read
+     * @throws DatabaseException         if there is an error accessing the database
+     */
+    @Override
+    @Transactional
+    public List<Cart> takeCarts(List<Long> cartIds) {
+        try {
+            // Get the current user's username
+            String currentUser = jwtProvider.getCurrentUser();
+            // Retrieve the requested cart items of the current user, with their books
+            List<Cart> existCarts = cartRepository.findAllByIdInAndCreatedBy(cartIds, currentUser);
+            // Items of other users are reported as missing, the same as items that do not exist
+            Set<Long> found = existCarts.stream().map(Cart::getId).collect(Collectors.toSet());
+            List<Long> missing = cartIds.stream().distinct().filter(id -> !found.contains(id)).toList();
+            if (!missing.isEmpty()) {
+                throw new NotFoundException("Carts with ids:%s not found".formatted(missing));
+            }
+            // Remove them from the cart, in one batch. The deletes are versioned, so they are flushed here: a line
+            // changed since it was read fails now instead of at the caller's commit
+            cartRepository.deleteAll(existCarts);
+            try {
+                cartRepository.flush();
+            } catch (OptimisticLockingFailureException e) {
+                throw new ConcurrentUpdateException("Carts with ids:%s were changed during the checkout, try again"
+                        .formatted(cartIds));
+            }
+            return existCarts;
+        } catch (NotFoundException e) {
+            // Log the exception and re-throw NotFoundException with the original message
+            logger.error("Error taking cart items: {}", e.getMessage());
+            throw new NotFoundException(e.getMessage());
+        } catch (ConcurrentUpdateException e) {
+            logger.error("Error taking cart items: {}", e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            // Log the exception and wrap it in a DatabaseException and throw it
+            logger.error("Error taking cart items: {}", e.getMessage());
+            throw new DatabaseException("takeCarts: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mokhir.dev.BookShop.aggregation.entity.IdempotencyKey;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.exceptions.ConcurrentUpdateException;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.IdempotencyKeyMismatchException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.IdempotencyKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+/**
+ * Executes requests sent with an Idempotency-Key header at most once. The first request under a key claims it
+ * in a short transaction of its own, then executes while holding the key's row lock and stores the response
+ * in the same transaction. A repeated key gets the stored response; one that arrives while the first request
+ * still runs waits on the lock instead of executing alongside it. A request that failed leaves no response,
+ * so the next request under its key executes again. Keys belong to the user who sent them, so two users may
+ * send the same key. Keys are kept for order.idempotency.ttl.
+ */
+@Service
+public class IdempotencyService {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final JwtProvider jwtProvider;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration ttl;
+
+    public IdempotencyService(IdempotencyKeyRepository idempotencyKeyRepository,
+                              JwtProvider jwtProvider,
+                              ObjectMapper objectMapper,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${order.idempotency.ttl:24h}") Duration ttl) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.jwtProvider = jwtProvider;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Executes the work once per key, or returns the response it stored for the same request before.
+     *
+     * @param key          The Idempotency-Key sent by the client
+     * @param request      The request body; it must be the same every time the current user sends the key
+     * @param responseType The type of the response, to read a stored response back
+     * @param work         The request to execute; it runs in the transaction that stores its response
+     * @return The response of the work, executed now or earlier
+     * @throws ApiControllerException if the key is blank or longer than 255 characters
+     * @throws IdempotencyKeyMismatchException if the current user sent the key with another request before
+     * @throws DatabaseException if the key or the response cannot be stored
+     */
+    public <T> T execute(String key, Object request, Class<T> responseType, Supplier<T> work)
+            throws ApiControllerException {
+        if (key == null || key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new ApiControllerException("Idempotency-Key must have 1 to %d characters".formatted(MAX_KEY_LENGTH));
+        }
+        String user = jwtProvider.getCurrentUser();
+        String requestHash = requestHash(request);
+        claim(user, key, requestHash);
+        return transactionTemplate.execute(status -> {
+            // Blocks while another request of the user runs under the key
+            IdempotencyKey stored = idempotencyKeyRepository.lockByKey(user, key).orElseThrow(() ->
+                    // Only expired keys are swept, so this takes a key that expired right after the claim
+                    new ConcurrentUpdateException("Idempotency-Key %s expired, try again".formatted(key)));
+            if (stored.getExpiresAt().isBefore(LocalDateTime.now())) {
+                // An expired key that was not swept yet is used as a new one
+                stored.setRequestHash(requestHash);
+                stored.setResponse(null);
+            }
+            if (!stored.getRequestHash().equals(requestHash)) {
+                throw new IdempotencyKeyMismatchException(
+                        "Idempotency-Key %s was already used for another request".formatted(key));
+            }
+            if (stored.getResponse() != null) {
+                logger.debug("Replaying the response stored for Idempotency-Key {}", key);
+                return read(stored.getResponse(), responseType);
+            }
+            T response = work.get();
+            stored.setResponse(write(response));
+            stored.setExpiresAt(LocalDateTime.now().plus(ttl));
+            return response;
+        });
+    }
+
+    /**
+     * Removes up to limit keys that expired.
+     *
+     * @param limit The maximum number of keys to remove
+     * @return The number of keys removed
+     */
+    public int deleteExpired(int limit) {
+        Integer deleted = transactionTemplate.execute(status ->
+                idempotencyKeyRepository.deleteExpired(LocalDateTime.now(), limit));
+        return deleted == null ? 0 : deleted;
+    }
+
+    private void claim(String user, String key, String requestHash) {
+        try {
+            // Committed right away, so requests that repeat the key find the row and wait on its lock
+            transactionTemplate.executeWithoutResult(status ->
+                    idempotencyKeyRepository.claim(user, key, requestHash, LocalDateTime.now().plus(ttl)));
+        } catch (DataIntegrityViolationException ex) {
+            // The user claimed the key before; the stored row decides what happens
+            logger.debug("Idempotency-Key {} of {} is already claimed", key, user);
+        }
+    }
+
+    private String requestHash(Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(objectMapper.writeValueAsBytes(request)));
+        } catch (NoSuchAlgorithmException | JsonProcessingException ex) {
+            throw new DatabaseException("requestHash: " + ex.getMessage());
+        }
+    }
+
+    private String write(Object response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException ex) {
+            throw new DatabaseException("Cannot store the response: " + ex.getMessage());
+        }
+    }
+
+    private <T> T read(String response, Class<T> responseType) {
+        try {
+            return objectMapper.readValue(response, responseType);
+        } catch (JsonProcessingException ex) {
+            throw new DatabaseException("Cannot read the stored response: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.exceptions.ConcurrentUpdateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a read-modify-write in its own transaction and runs it again, in a new transaction, when a versioned
+ * entity it wrote was changed by another transaction in the meantime, or when it inserted a cart line that
+ * another transaction inserted first. Writers of different rows never wait for each other; only writers of
+ * the same row retry, a bounded number of times.
+ */
+@Component
+public class OptimisticRetry {
+    private static final Logger logger = LoggerFactory.getLogger(OptimisticRetry.class);
+    // A user has one line per book, so the loser of two inserts of the same line finds it on the next run
+    private static final String CART_LINE_CONSTRAINT = "uk_cart_created_by_book_id";
+
+    private final PlatformTransactionManager transactionManager;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final AtomicLong retries = new AtomicLong();
+
+    public OptimisticRetry(PlatformTransactionManager transactionManager,
+                           @Value("${cart.write.max-attempts:5}") int maxAttempts,
+                           @Value("${cart.write.backoff:10ms}") Duration backoff) {
+        this.transactionManager = transactionManager;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoff.toMillis();
+    }
+
+    /**
+     * A unit of work that may throw a checked exception.
+     */
+    @FunctionalInterface
+    public interface Attempt<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * Tells whether a write failed only because another transaction inserted the same cart line first.
+     *
+     * @param ex The exception thrown by the write
+     * @return true if the write would find the line when run again
+     */
+    public static boolean isConcurrentInsert(DataIntegrityViolationException ex) {
+        // The constraint is named in the message of the database's exception somewhere down the causes
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.toLowerCase(Locale.ROOT).contains(CART_LINE_CONSTRAINT)) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the work in a new transaction, retrying it on an optimistic locking failure or a concurrent insert
+     * of the same cart line.
+     *
+     * @param operation The name of the operation, for the logs and the exception
+     * @param attempt   The work; it must read what it changes again on every run
+     * @return What the last run of the work returned
+     * @throws E the exception thrown by the work, which rolls its transaction back
+     * @throws ConcurrentUpdateException if every attempt lost to a concurrent write
+     * @throws DataIntegrityViolationException if the work broke any other constraint
+     */
+    public <T, E extends Exception> T run(String operation, Attempt<T, E> attempt) throws E {
+        for (int tries = 1; ; tries++) {
+            TransactionStatus status = transactionManager.getTransaction(new DefaultTransactionDefinition());
+            try {
+                T result;
+                try {
+                    result = attempt.run();
+                } catch (Exception | Error e) {
+                    transactionManager.rollback(status);
+                    throw e;
+                }
+                // Versions are checked when the changes are flushed, at the latest on commit
+                transactionManager.commit(status);
+                return result;
+            } catch (OptimisticLockingFailureException | DataIntegrityViolationException e) {
+                if (e instanceof DataIntegrityViolationException violation && !isConcurrentInsert(violation)) {
+                    throw violation;
+                }
+                if (!status.isNewTransaction()) {
+                    // Inside a caller's transaction only the caller can start over
+                    throw e;
+                }
+                if (tries >= maxAttempts) {
+                    logger.warn("{} lost to concurrent writes {} times: {}", operation, tries, e.getMessage());
+                    throw new ConcurrentUpdateException(
+                            "%s was changed concurrently, try again".formatted(operation));
+                }
+                logger.debug("{} lost to a concurrent write, attempt {} of {}", operation, tries, maxAttempts);
+                retries.incrementAndGet();
+                backOff(tries);
+            }
+        }
+    }
+
+    /**
+     * @return The number of times work was run again since startup
+     */
+    public long retries() {
+        return retries.get();
+    }
+
+    private void backOff(int tries) {
+        if (backoffMillis <= 0) {
+            return;
+        }
+        try {
+            // Random jitter keeps writers of the same row from colliding again in step
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis * tries + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrentUpdateException("Interrupted while waiting to retry");
+        }
+    }
+}
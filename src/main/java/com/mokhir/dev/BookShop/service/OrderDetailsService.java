@@ -1,10 +1,8 @@
 package com.mokhir.dev.BookShop.service;
 
-import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
 import com.mokhir.dev.BookShop.aggregation.dto.order.details.OrderDetailsResponse;
 import com.mokhir.dev.BookShop.aggregation.entity.Cart;
 import com.mokhir.dev.BookShop.aggregation.entity.OrderDetails;
-import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
 import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
 import com.mokhir.dev.BookShop.aggregation.mapper.OrderDetailsMapper;
 import com.mokhir.dev.BookShop.exceptions.DatabaseException;
@@ -25,8 +23,6 @@ import java.util.List;
 public class OrderDetailsService {
     private final OrderDetailsRepository orderDetailsRepository;
     private final CartMapper cartMapper;
-    private final BookMapper bookMapper;
-    private final BookService bookService;
     private final JwtProvider jwtProvider;
     private final OrderDetailsMapper orderDetailsMapper;
     private static final Logger logger = LoggerFactory.getLogger(OrderDetailsService.class);
@@ -75,37 +71,18 @@ public class OrderDetailsService {
     }
 
     /**
-     * Service method to update order details based on the provided order details and cart list.
+     * Service method to update order details once their order has been created.
      *
      * @param orderDetails The list of order details to be updated
-     * @param cartList     The list of carts
      * @return A list of updated order details response DTOs
      */
-    public List<OrderDetailsResponse> updateOrderDetails(List<OrderDetails> orderDetails, List<Cart> cartList) {
+    public List<OrderDetailsResponse> updateOrderDetails(List<OrderDetails> orderDetails) {
 
         try {
             // Save all updated order details
             List<OrderDetails> saveAll = orderDetailsRepository.saveAll(orderDetails);
-            // Retrieve book responses with updated quantities
-            List<BookResponse> bookResponses = minusOrderDetailsBookQuantity(cartList);
             // Map the saved order details to order details response DTOs
-            List<OrderDetailsResponse> orderDetailsResponseList = saveAll.stream().map(detail -> {
-                return OrderDetailsResponse.builder()
-                        .id(detail.getId())
-                        .orderId(detail.getOrder().getId())
-                        .book(bookMapper.toDto(detail.getBook()))
-                        .quantity(detail.getQuantity())
-                        .price(detail.getPrice())
-                        .totalPrice(detail.getPrice() * detail.getQuantity())
-                        .build();
-            }).toList();
-            // Update the book information in order details response DTOs
-            orderDetailsResponseList.forEach(detail -> {
-                BookResponse bookResponse = bookResponses.stream().filter(
-                        book -> book.getId().equals(detail.getBook().getId())).findFirst().get();
-                detail.setBook(bookResponse);
-            });
-            return orderDetailsResponseList;
+            return saveAll.stream().map(orderDetailsMapper::toDto).toList();
         } catch (Exception ex) {
             // Log any database exceptions that occur
             logger.error("Error updating order details: {}", ex.getMessage());
@@ -113,26 +90,4 @@ public class OrderDetailsService {
             throw new DatabaseException("updateOrderDetails: " + ex.getMessage());
         }
     }
-
-
-    /**
-     * Service method to update the quantity of books based on the provided list of carts.
-     *
-     * @param carts The list of carts
-     * @return A list of updated book responses
-     */
-    public List<BookResponse> minusOrderDetailsBookQuantity(List<Cart> carts) {
-        // Initialize logger
-        Logger logger = LoggerFactory.getLogger(OrderDetailsService.class);
-
-        try {
-            // Delegate to book service to update book quantities
-            return bookService.minusBookQuantity(carts);
-        } catch (Exception ex) {
-            // Log any database exceptions that occur
-            logger.error("Error updating book quantities: {}", ex.getMessage());
-            // Wrap and rethrow database exceptions for higher level handling
-            throw new DatabaseException("minusOrderDetailsBookQuantity: " + ex.getMessage());
-        }
-    }
 }
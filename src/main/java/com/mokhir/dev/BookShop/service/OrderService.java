@@ -6,10 +6,13 @@ import com.mokhir.dev.BookShop.aggregation.entity.Cart;
 import com.mokhir.dev.BookShop.aggregation.entity.Order;
 import com.mokhir.dev.BookShop.aggregation.entity.OrderDetails;
 import com.mokhir.dev.BookShop.aggregation.mapper.OrderMapper;
+import com.mokhir.dev.BookShop.exceptions.ConcurrentUpdateException;
 import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
 import com.mokhir.dev.BookShop.jwt.JwtProvider;
-import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
 import com.mokhir.dev.BookShop.repository.interfaces.OrderRepository;
+import com.mokhir.dev.BookShop.service.interfaces.CartCheckoutInterface;
 import com.mokhir.dev.BookShop.service.interfaces.OrderServiceInterface;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -20,22 +23,25 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
 public class OrderService implements OrderServiceInterface {
-    private final CartService cartService;
+    private final CartCheckoutInterface cartCheckout;
     private final JwtProvider jwtProvider;
-    private final CartRepository cartRepository;
     private final OrderDetailsService orderDetailsService;
     private final OrderRepository orderRepository;
     private final OrderMapper orderMapper;
+    private final BookService bookService;
+    private final StockReservationService stockReservationService;
     private static final Logger logger = LoggerFactory.getLogger(OrderService.class);
 
 
     /**
-     * Creates an order based on the provided request by retrieving existing carts, creating order details,
-     * calculating total amount and total price, and updating order details accordingly.
+     * Creates an order based on the provided request by retrieving existing carts, taking the books out of stock
+     * with the copies held for the carts, creating order details, calculating total amount and total price,
+     * and updating order details accordingly.
      *
      * @param request The order request containing cart IDs
      * @return The created order response
@@ -46,6 +52,10 @@ public class OrderService implements OrderServiceInterface {
         try {
             // Retrieve existing carts associated with the provided cart IDs
             List<Cart> cartList = getUserExistsCarts(request.getCartIds());
+            // Take the holds of the carts, their copies are already set aside for this order
+            Map<Long, Integer> held = stockReservationService.take(cartList.stream().map(Cart::getId).toList());
+            // Take the ordered copies out of stock first, rejecting the order if any book is oversold
+            bookService.minusBookQuantity(cartList, held);
             // Create order details from the retrieved carts
             List<OrderDetails> orderDetails = orderDetailsService.create(cartList);
             // Calculate total amount and total price from the order details
@@ -66,13 +76,17 @@ public class OrderService implements OrderServiceInterface {
             Order save = orderRepository.save(build);
             // Associate order details with the created order
             orderDetails.forEach(orderDetail -> orderDetail.setOrder(save));
-            // Update order details and associated carts
-            orderDetailsService.updateOrderDetails(orderDetails, cartList);
+            // Update order details with the created order
+            orderDetailsService.updateOrderDetails(orderDetails);
             return orderMapper.toDto(save);
         } catch (NullPointerException ex) {
             // Log null pointer exceptions and rethrow them
             logger.error("Null pointer exception occurred: {}", ex.getMessage());
             throw new NullPointerException(ex.getMessage());
+        } catch (StockNotEnoughException | NotFoundException | ConcurrentUpdateException ex) {
+            // Log the oversold books, missing or changed carts and rethrow so the whole order is rolled back
+            logger.error("Error creating order: {}", ex.getMessage());
+            throw ex;
         } catch (Exception e) {
             // Log database exceptions and rethrow them
             logger.error("Error creating order: {}", e.getMessage());
@@ -81,31 +95,26 @@ public class OrderService implements OrderServiceInterface {
     }
 
     /**
-     * Retrieves existing carts belonging to the current user by their IDs and removes them from the cart service.
+     * Retrieves existing carts belonging to the current user by their IDs and takes them out of the cart store,
+     * which holds the authoritative cart state whichever store is configured.
      *
      * @param cartIds The IDs of the carts to retrieve
      * @return The list of existing carts
+     * @throws NotFoundException if some of the carts do not exist or belong to another user
      */
     private List<Cart> getUserExistsCarts(List<Long> cartIds) {
 
         try {
-            // Get the current user's username
-            String currentUser = jwtProvider.getCurrentUser();
             // Check if the cart IDs list is empty
             if (cartIds.isEmpty()) {
                 throw new NullPointerException("Cart IDs are empty");
             }
 
-            // Retrieve existing carts belonging to the current user and remove them from the cart service
-            List<Cart> existCarts = cartIds.stream()
-                    .map(id -> cartRepository.findById(id).get())
-                    .filter(cart -> cart.getCreatedBy().equals(currentUser))
-                    .toList();
-            // Get the IDs of the existing carts
-            List<Long> existCartIds = existCarts.stream().map(Cart::getId).toList();
-            // Remove existing carts from the cart service
-            cartService.removeFromCart(existCartIds);
-            return existCarts;
+            // Take the current user's carts out of the cart store
+            return cartCheckout.takeCarts(cartIds);
+        } catch (NotFoundException | ConcurrentUpdateException ex) {
+            // Re-throw them as they are, so the client learns which carts are missing or changed
+            throw ex;
         } catch (Exception ex) {
             // Log any database exceptions that occur
             logger.error("Error retrieving user's existing carts: {}", ex.getMessage());
@@ -150,7 +159,7 @@ public class OrderService implements OrderServiceInterface {
             // Retrieve orders created by the current user
             List<Order> orders = orderRepository.findByCreatedBy(jwtProvider.getCurrentUser());
             // Map orders to order responses
-            List<OrderResponse> list = orders.stream().map(orderMapper::toDto).toList();
+            List<OrderResponse> list = orderMapper.toDtos(orders);
             // Return a page of order responses
             return new PageImpl<>(list, PageRequest.of(page, size), list.size());
         } catch (Exception ex) {
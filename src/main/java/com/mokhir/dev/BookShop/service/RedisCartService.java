@@ -0,0 +1,805 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mokhir.dev.BookShop.aggregation.dto.ResponseMessage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookLookup;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartLine;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.entity.StockReservation;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.exceptions.ConcurrentUpdateException;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.EntityNotLeftException;
+import com.mokhir.dev.BookShop.exceptions.LimitCrowdedException;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.service.interfaces.CartCheckoutInterface;
+import com.mokhir.dev.BookShop.service.interfaces.CartPurgeInterface;
+import com.mokhir.dev.BookShop.service.interfaces.CartServiceInterface;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the cart of every user in Redis instead of the cart table, selected with {@code cart.store=redis}.
+ * A cart is a hash under {@code cart:user:<username>} with one field per book ID, holding the cart line as JSON,
+ * and books are read through the book cache.
+ * <p>
+ * A change reads the hash, works out the new lines and writes them with a compare-and-set script, which fails
+ * if any of the changed fields was changed by another request in the meantime; the change is then made again
+ * on a fresh read, like the optimistic writes of {@link CartService}. The copies put into a cart are held in
+ * the database through {@link StockReservationService} exactly as for the cart table, in the transaction of
+ * the attempt, so a lost compare-and-set rolls its holds back.
+ * <p>
+ * Every write marks its user in {@code cart:dirty}; {@code CartWriteBehindJob} copies the carts of those users
+ * to the cart table in batches. A hash that is missing, after Redis lost its data for instance, is rebuilt
+ * from the cart table on first access. Line IDs are taken from {@code cart_seq} like those of the cart table,
+ * so they never collide with the IDs of carts written by {@link CartService}.
+ */
+@Service
+@ConditionalOnProperty(name = "cart.store", havingValue = "redis")
+public class RedisCartService implements CartServiceInterface, CartCheckoutInterface, CartPurgeInterface {
+    private static final Logger logger = LoggerFactory.getLogger(RedisCartService.class);
+
+    public static final String DIRTY_USERS = "cart:dirty";
+    private static final String KEY_PREFIX = "cart:user:";
+    // Kept in every hash, so an empty cart is told apart from one that was never loaded
+    private static final String LOADED_FIELD = "loaded";
+    // Writes fields of a cart hash only if the hash is loaded and none of them changed since they were read,
+    // and marks the user dirty in the same step. KEYS are the hash and the dirty set; ARGV is the username,
+    // then a triple per field: the field, its value when read ('' if absent), its new value ('' to delete it).
+    private static final RedisScript<Long> COMPARE_AND_SET = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'loaded') ~= '1' then
+                return 0
+            end
+            for i = 2, #ARGV, 3 do
+                if (redis.call('HGET', KEYS[1], ARGV[i]) or '') ~= ARGV[i + 1] then
+                    return 0
+                end
+            end
+            for i = 2, #ARGV, 3 do
+                if ARGV[i + 2] == '' then
+                    redis.call('HDEL', KEYS[1], ARGV[i])
+                else
+                    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 2])
+                end
+            end
+            redis.call('SADD', KEYS[2], ARGV[1])
+            return 1
+            """, Long.class);
+    // Puts back lines a rolled back checkout took, keeping any the user has started again since, and marks the
+    // user dirty; writes nothing if the hash is not loaded. KEYS are the hash and the dirty set; ARGV is the
+    // username, then a pair per line: the field and its value.
+    private static final RedisScript<Long> RESTORE = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'loaded') ~= '1' then
+                return 0
+            end
+            for i = 2, #ARGV, 2 do
+                redis.call('HSETNX', KEYS[1], ARGV[i], ARGV[i + 1])
+            end
+            redis.call('SADD', KEYS[2], ARGV[1])
+            return 1
+            """, Long.class);
+    // Drops the cart hash of a user unless the user changed the cart since it was last written to the table.
+    // KEYS are the hash and the dirty set; ARGV is the username.
+    private static final RedisScript<Long> EVICT = new DefaultRedisScript<>("""
+            if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then
+                return 0
+            end
+            return redis.call('DEL', KEYS[1])
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final HashOperations<String, String, String> hashes;
+    private final BookService bookService;
+    private final BookRepository bookRepository;
+    private final CartRepository cartRepository;
+    private final StockReservationService stockReservationService;
+    private final OptimisticRetry optimisticRetry;
+    private final JwtProvider jwtProvider;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchIds;
+    private final int maxBatchOperations;
+
+    public RedisCartService(StringRedisTemplate redis,
+                            BookService bookService,
+                            BookRepository bookRepository,
+                            CartRepository cartRepository,
+                            StockReservationService stockReservationService,
+                            OptimisticRetry optimisticRetry,
+                            JwtProvider jwtProvider,
+                            ObjectMapper objectMapper,
+                            @Value("${book.batch.max-ids:100}") int maxBatchIds,
+                            @Value("${cart.batch.max-operations:500}") int maxBatchOperations) {
+        this.redis = redis;
+        this.hashes = redis.opsForHash();
+        this.bookService = bookService;
+        this.bookRepository = bookRepository;
+        this.cartRepository = cartRepository;
+        this.stockReservationService = stockReservationService;
+        this.optimisticRetry = optimisticRetry;
+        this.jwtProvider = jwtProvider;
+        this.objectMapper = objectMapper;
+        this.maxBatchIds = maxBatchIds;
+        this.maxBatchOperations = maxBatchOperations;
+    }
+
+    /**
+     * Adds a book to the user's cart and holds the added copies for the line.
+     *
+     * @param cartRequest The CartRequest object containing information about the book to be added to the cart
+     * @return A CartResponse object containing information about the added item in the cart
+     * @throws NotFoundException if the requested book is not found
+     * @throws ConcurrentUpdateException if the line kept being changed by other requests
+     * @throws DatabaseException if the book is not available, its copies are held by other carts
+     *                           or Redis cannot be reached
+     */
+    @Override
+    public CartResponse addToCart(CartRequest cartRequest) {
+        // Read and write the line again if another request changed it in the meantime
+        return optimisticRetry.run("addToCart", () -> addOnce(cartRequest));
+    }
+
+    private CartResponse addOnce(CartRequest cartRequest) {
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Long bookId = cartRequest.getBookId();
+            Integer inCartQuantity = cartRequest.getQuantity();
+            if (inCartQuantity == null || inCartQuantity <= 0) {
+                throw new IncorrectValueException("Expected value must be higher than zero!");
+            }
+
+            // Read the book through the book cache
+            BookResponse book = bookService.getById(String.valueOf(bookId));
+            if (book.getQuantity() == 0) {
+                throw new EntityNotLeftException("Book with current id:%d did not left or not active".formatted(bookId));
+            }
+
+            // Check that the cart does not end up holding more copies than are left
+            CartLine known = lines(currentUser).get(bookId);
+            checkLimit(book, known, inCartQuantity);
+            Long lineId = known == null ? cartRepository.nextCartId() : known.id();
+
+            // Hold the added copies first: the hold locks the book row until the attempt ends, so adds of the
+            // book are made one after the other and the cart read after it is current
+            try {
+                stockReservationService.hold(lineId, bookId, inCartQuantity);
+            } catch (StockNotEnoughException e) {
+                throw new LimitCrowdedException("Limit crowded, the copies left of book with id:%d are held by other carts"
+                        .formatted(bookId));
+            }
+            Snapshot cart = read(currentUser);
+            CartLine existing = cart.lines().get(bookId);
+            if (existing == null ? known != null : !existing.id().equals(lineId)) {
+                // The line was started or deleted by another request, so the hold is not on its ID
+                throw new OptimisticLockingFailureException("Line of book %d was changed concurrently".formatted(bookId));
+            }
+            checkLimit(book, existing, inCartQuantity);
+
+            // Add to the existing line of the book, or start a new one
+            CartLine line = new CartLine(lineId, bookId, (existing == null ? 0 : existing.quantity()) + inCartQuantity);
+            compareAndSet(currentUser, cart, List.of(line), List.of());
+            return toDto(line, book);
+        } catch (NotFoundException e) {
+            logger.error("Error adding book to cart: {}", e.getMessage());
+            throw new NotFoundException(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the line is read and written again
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error adding book to cart: {}", e.getMessage());
+            throw new DatabaseException("addToCart: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a specified quantity of books from a line of the user's cart.
+     *
+     * @param cartRequest The CartRequest object containing the ID of the cart line and the quantity to remove
+     * @return A CartResponse object containing information about the updated cart line
+     * @throws NotFoundException if the current user has no cart line with the specified ID
+     * @throws ConcurrentUpdateException if the line kept being changed by other requests
+     * @throws DatabaseException if Redis cannot be reached
+     */
+    @Override
+    public CartResponse removeFromCart(CartRequest cartRequest) {
+        // Read and write the line again if another request changed it in the meantime
+        return optimisticRetry.run("removeFromCart", () -> removeOnce(cartRequest));
+    }
+
+    private CartResponse removeOnce(CartRequest cartRequest) {
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Snapshot cart = read(currentUser);
+            CartLine line = findLine(cart, cartRequest.getCartId());
+            Integer wasteQuantity = cartRequest.getQuantity();
+            // Update the quantity if the requested quantity is valid, and give back the copies held for it
+            if (wasteQuantity != null && wasteQuantity > 0 && wasteQuantity <= line.quantity()) {
+                line = new CartLine(line.id(), line.bookId(), line.quantity() - wasteQuantity);
+                stockReservationService.release(line.id(), wasteQuantity);
+                compareAndSet(currentUser, cart, List.of(line), List.of());
+            }
+            return toDto(line, bookService.getById(String.valueOf(line.bookId())));
+        } catch (NotFoundException e) {
+            throw new NotFoundException(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the line is read and written again
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error removing book from cart: {}", e.getMessage());
+            throw new DatabaseException("removeFromCart: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves a line of the user's cart.
+     *
+     * @param cartRequest The CartRequest object containing the ID of the cart line to be retrieved
+     * @return A CartResponse object containing information about the cart line
+     * @throws NotFoundException if the current user has no cart line with the specified ID
+     * @throws DatabaseException if Redis cannot be reached
+     */
+    @Override
+    public CartResponse getCart(CartRequest cartRequest) {
+        try {
+            CartLine line = findLine(read(jwtProvider.getCurrentUser()), cartRequest.getCartId());
+            return toDto(line, bookService.getById(String.valueOf(line.bookId())));
+        } catch (NotFoundException e) {
+            throw new NotFoundException(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error retrieving cart item: {}", e.getMessage());
+            throw new DatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the lines of the user's cart, with the books read in batches from the book cache.
+     *
+     * @param pageable The Pageable object specifying the pagination parameters
+     * @return A ResponseMessage object containing a page of CartResponse objects and the total price
+     * @throws NotFoundException if the current user does not have any cart items
+     * @throws DatabaseException if Redis cannot be reached
+     */
+    @Override
+    public ResponseMessage<Page<CartResponse>> getAllCarts(Pageable pageable) {
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Collection<CartLine> lines = lines(currentUser).values();
+            if (lines.isEmpty()) {
+                throw new NotFoundException("Current user %s doesn't have any carts".formatted(currentUser));
+            }
+            Map<Long, BookResponse> books = books(lines.stream().map(CartLine::bookId).toList());
+            // Lines of books that no longer exist are left out
+            List<CartResponse> carts = lines.stream()
+                    .filter(line -> books.containsKey(line.bookId()))
+                    .sorted(Comparator.comparing(CartLine::id))
+                    .map(line -> toDto(line, books.get(line.bookId())))
+                    .toList();
+            Integer totalPriceAllCarts = carts.stream().map(CartResponse::getTotalPrice).reduce(0, Integer::sum);
+            // The whole cart is in memory already, the page is cut from it in the same order as the cart table's
+            PageRequest pageRequest = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize());
+            int from = (int) Math.min(pageRequest.getOffset(), carts.size());
+            int to = Math.min(from + pageRequest.getPageSize(), carts.size());
+
+            ResponseMessage<Page<CartResponse>> responseMessage = new ResponseMessage<>();
+            responseMessage.setMessage("Total price of all carts: " + totalPriceAllCarts);
+            responseMessage.setEntities(new PageImpl<>(carts.subList(from, to), pageRequest, carts.size()));
+            responseMessage.setCurrentUser(currentUser);
+            return responseMessage;
+        } catch (NotFoundException e) {
+            throw new NotFoundException(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error retrieving all carts: {}", e.getMessage());
+            throw new DatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes a line of the user's cart.
+     *
+     * @param cartRequest The CartRequest object containing the ID of the cart line to be deleted
+     * @return A ResponseMessage object containing information about the deleted cart line
+     * @throws NotFoundException if the current user has no cart line with the specified ID
+     * @throws ConcurrentUpdateException if the line kept being changed by other requests
+     * @throws DatabaseException if Redis cannot be reached
+     */
+    @Override
+    public ResponseMessage<CartResponse> deleteCart(CartRequest cartRequest) {
+        // Read and delete the line again if another request changed it in the meantime
+        return optimisticRetry.run("deleteCart", () -> deleteOnce(cartRequest));
+    }
+
+    private ResponseMessage<CartResponse> deleteOnce(CartRequest cartRequest) {
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Snapshot cart = read(currentUser);
+            CartLine line = findLine(cart, cartRequest.getCartId());
+            CartResponse deleted = toDto(line, bookService.getById(String.valueOf(line.bookId())));
+            stockReservationService.releaseAll(List.of(line.id()));
+            compareAndSet(currentUser, cart, List.of(), List.of(line));
+
+            ResponseMessage<CartResponse> responseMessage = new ResponseMessage<>();
+            responseMessage.setCurrentUser(currentUser);
+            responseMessage.setEntities(deleted);
+            responseMessage.setMessage("Cart deleted successfully, with ID %d".formatted(line.id()));
+            return responseMessage;
+        } catch (NotFoundException e) {
+            throw new NotFoundException(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the line is read and deleted again
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error deleting cart: {}", e.getMessage());
+            throw new DatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes every line of the user's cart.
+     *
+     * @return A ResponseMessage object containing information about the deleted cart lines
+     * @throws NotFoundException if the current user does not have any cart items
+     * @throws ConcurrentUpdateException if the cart kept being changed by other requests
+     * @throws DatabaseException if Redis cannot be reached
+     */
+    @Override
+    public ResponseMessage<List<CartResponse>> deleteAllCarts() {
+        // Read and delete the cart again if another request changed it in the meantime
+        return optimisticRetry.run("deleteAllCarts", this::deleteAllOnce);
+    }
+
+    private ResponseMessage<List<CartResponse>> deleteAllOnce() {
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Snapshot cart = read(currentUser);
+            List<CartLine> lines = new ArrayList<>(cart.lines().values());
+            if (lines.isEmpty()) {
+                throw new NotFoundException("Current user %s doesn't have any carts".formatted(currentUser));
+            }
+            Map<Long, BookResponse> books = books(lines.stream().map(CartLine::bookId).toList());
+            stockReservationService.releaseAll(lines.stream().map(CartLine::id).toList());
+            compareAndSet(currentUser, cart, List.of(), lines);
+            List<CartResponse> list = lines.stream()
+                    .filter(line -> books.containsKey(line.bookId()))
+                    .map(line -> toDto(line, books.get(line.bookId())))
+                    .toList();
+
+            ResponseMessage<List<CartResponse>> responseMessage = new ResponseMessage<>();
+            responseMessage.setMessage("All carts deleted");
+            responseMessage.setEntities(list);
+            responseMessage.setCurrentUser(currentUser);
+            return responseMessage;
+        } catch (NotFoundException e) {
+            throw new NotFoundException(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the cart is read and deleted again
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error deleting all carts: {}", e.getMessage());
+            throw new DatabaseException("deleteAllCarts: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies many changes to the user's cart at once. The cart is read once, the books in batches through
+     * the book cache, the holds of the changed lines are moved in one transaction and the lines are written
+     * with a single compare-and-set, so either all changes are made or none is. If another request changed
+     * one of the lines in the meantime, the whole batch is applied again to a fresh read of the cart.
+     *
+     * @param batchRequest The changes, applied in request order
+     * @return A ResponseMessage object containing the lines of the changed books that are left in the cart
+     * @throws ApiControllerException if no changes or more than cart.batch.max-operations are sent,
+     *                                or a change is invalid
+     * @throws NotFoundException if some books to be put into the cart are not found
+     * @throws StockNotEnoughException if some books do not have enough copies left
+     * @throws ConcurrentUpdateException if the cart kept being changed by other requests
+     * @throws DatabaseException if Redis cannot be reached
+     */
+    @Override
+    public ResponseMessage<List<CartResponse>> applyBatch(CartBatchRequest batchRequest) throws ApiControllerException {
+        List<CartOperation> operations = batchRequest == null ? null : batchRequest.getOperations();
+        if (operations == null || operations.isEmpty() || operations.size() > maxBatchOperations) {
+            throw new ApiControllerException("Between 1 and " + maxBatchOperations + " operations must be sent");
+        }
+        // Apply the batch again to a fresh read of the cart if another request changed it in the meantime
+        return optimisticRetry.run("applyBatch", () -> applyOnce(batchRequest));
+    }
+
+    private ResponseMessage<List<CartResponse>> applyOnce(CartBatchRequest batchRequest) throws ApiControllerException {
+        List<CartOperation> operations = batchRequest.getOperations();
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Snapshot cart = read(currentUser);
+            Map<Long, CartLine> lines = cart.lines();
+            Map<Long, Integer> targets = CartBatches.targetQuantities(operations, lines.values().stream()
+                    .collect(Collectors.toMap(CartLine::bookId, CartLine::quantity)));
+
+            // Check every book the cart ends up holding, with the books read in batches
+            List<Long> kept = targets.entrySet().stream()
+                    .filter(target -> target.getValue() > 0)
+                    .map(Map.Entry::getKey)
+                    .toList();
+            Map<Long, BookResponse> books = books(kept);
+            List<Long> missing = kept.stream().filter(bookId -> !books.containsKey(bookId)).toList();
+            if (!missing.isEmpty()) {
+                throw new NotFoundException("Books with ids:%s not found".formatted(missing));
+            }
+            List<Long> oversold = kept.stream()
+                    .filter(bookId -> targets.get(bookId) > books.get(bookId).getQuantity())
+                    .toList();
+            if (!oversold.isEmpty()) {
+                throw new StockNotEnoughException(oversold);
+            }
+
+            // Sort the changes into deleted, written, grown and shrunk lines
+            List<CartLine> written = new ArrayList<>();
+            List<CartLine> deleted = new ArrayList<>();
+            List<StockReservation> grown = new ArrayList<>();
+            Map<Long, Integer> shrunk = new HashMap<>();
+            for (Map.Entry<Long, Integer> target : targets.entrySet()) {
+                CartLine existing = lines.get(target.getKey());
+                int before = existing == null ? 0 : existing.quantity();
+                if (target.getValue() == before) {
+                    continue;
+                }
+                if (target.getValue() == 0) {
+                    deleted.add(existing);
+                    continue;
+                }
+                CartLine line = new CartLine(existing == null ? cartRepository.nextCartId() : existing.id(),
+                        target.getKey(), target.getValue());
+                written.add(line);
+                if (target.getValue() > before) {
+                    grown.add(StockReservation.builder()
+                            .cartId(line.id()).bookId(line.bookId()).quantity(target.getValue() - before).build());
+                } else {
+                    shrunk.put(line.id(), before - target.getValue());
+                }
+            }
+
+            // Move the holds, then write all lines in one step; a lost write rolls the holds back
+            stockReservationService.releaseAll(deleted.stream().map(CartLine::id).toList());
+            stockReservationService.release(shrunk);
+            stockReservationService.hold(grown);
+            compareAndSet(currentUser, cart, written, deleted);
+
+            ResponseMessage<List<CartResponse>> responseMessage = new ResponseMessage<>();
+            responseMessage.setMessage(
+                    "Applied %d operations to %d books".formatted(operations.size(), targets.size()));
+            responseMessage.setEntities(written.stream()
+                    .map(line -> toDto(line, books.get(line.bookId())))
+                    .sorted(Comparator.comparing(CartResponse::getId))
+                    .toList());
+            responseMessage.setCurrentUser(currentUser);
+            return responseMessage;
+        } catch (ApiControllerException | NotFoundException | StockNotEnoughException e) {
+            logger.error("Error applying cart batch: {}", e.getMessage());
+            throw e;
+        } catch (OptimisticLockingFailureException e) {
+            // Re-throw it as it is, so the batch is applied again
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error applying cart batch: {}", e.getMessage());
+            throw new DatabaseException("applyBatch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Takes the given lines of the current user's cart out of Redis for checkout. The books are read from
+     * the database, not the cache, because the order is priced and checked against them. If the caller's
+     * transaction rolls back, the lines are put back. The holds of the lines are taken by the caller.
+     *
+     * @param cartIds The IDs of the cart lines to check out
+     * @return The cart lines taken out of the cart, as cart entities that are not persisted
+     * @throws NotFoundException if some of the lines are not in the current user's cart
+     * @throws ConcurrentUpdateException if the lines were changed by another request during the checkout
+     * @throws DatabaseException if a book is no longer active or Redis cannot be reached
+     */
+    @Override
+    @Transactional
+    public List<Cart> takeCarts(List<Long> cartIds) {
+        try {
+            String currentUser = jwtProvider.getCurrentUser();
+            Set<Long> wanted = new HashSet<>(cartIds);
+            Snapshot stored = read(currentUser);
+            List<CartLine> taken = stored.lines().values().stream()
+                    .filter(line -> wanted.contains(line.id()))
+                    .toList();
+            if (taken.size() < wanted.size()) {
+                Set<Long> found = taken.stream().map(CartLine::id).collect(Collectors.toSet());
+                throw new NotFoundException("Carts with ids:%s not found".formatted(
+                        cartIds.stream().distinct().filter(id -> !found.contains(id)).toList()));
+            }
+
+            Map<Long, Book> books = bookRepository.findAllById(taken.stream().map(CartLine::bookId).toList())
+                    .stream()
+                    .collect(Collectors.toMap(Book::getId, Function.identity()));
+            List<Cart> carts = new ArrayList<>(taken.size());
+            for (CartLine line : taken) {
+                Book book = books.get(line.bookId());
+                if (book == null || !book.getActive()) {
+                    throw new EntityNotLeftException(
+                            "Book with current id:%d did not left or not active".formatted(line.bookId()));
+                }
+                Cart cart = Cart.builder()
+                        .id(line.id())
+                        .book(book)
+                        .quantity(line.quantity())
+                        .totalPrice(line.quantity() * book.getPrice())
+                        .build();
+                cart.setCreatedBy(currentUser);
+                carts.add(cart);
+            }
+
+            try {
+                compareAndSet(currentUser, stored, List.of(), taken);
+            } catch (OptimisticLockingFailureException e) {
+                // The checkout priced the lines as they were read, so it cannot go on with changed ones
+                throw new ConcurrentUpdateException("Carts with ids:%s were changed during the checkout, try again"
+                        .formatted(cartIds));
+            }
+            restoreOnRollback(currentUser, taken);
+            return carts;
+        } catch (NotFoundException | ConcurrentUpdateException e) {
+            logger.error("Error taking cart items: {}", e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error taking cart items: {}", e.getMessage());
+            throw new DatabaseException("takeCarts: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes up to limit cart lines nobody wrote to since the given time from the cart table, with the copies
+     * held for them. The write-behind stamps every line of a cart whenever the cart is written, so a cart is
+     * purged as a whole, and once the removal is committed the Redis hashes of the owners are dropped with it.
+     *
+     * @param before The time before which the lines were last written
+     * @param limit  The maximum number of lines to remove
+     * @return The number of lines removed
+     */
+    @Override
+    @Transactional
+    public int purgeAbandoned(LocalDateTime before, int limit) {
+        List<Long> cartIds = cartRepository.lockAbandonedIds(before, limit);
+        if (cartIds.isEmpty()) {
+            return 0;
+        }
+        List<String> owners = cartRepository.findOwnersByIdIn(cartIds);
+        stockReservationService.releaseAll(cartIds);
+        cartRepository.deleteAllByIdInBatch(cartIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(owners);
+                }
+            });
+        } else {
+            evict(owners);
+        }
+        return cartIds.size();
+    }
+
+    private void evict(List<String> owners) {
+        // A cart written again since the purge started is kept, the write-behind stores it back
+        owners.forEach(owner -> redis.execute(EVICT, List.of(key(owner), DIRTY_USERS), owner));
+    }
+
+    /**
+     * Pops up to the given number of users whose carts changed since they were last written to the cart table.
+     *
+     * @param count The maximum number of users to pop
+     * @return The popped users, who are no longer marked
+     */
+    public List<String> pollDirtyUsers(int count) {
+        List<String> users = redis.opsForSet().pop(DIRTY_USERS, count);
+        return users == null ? List.of() : users;
+    }
+
+    /**
+     * Marks users whose carts must be written to the cart table.
+     *
+     * @param users The usernames
+     */
+    public void markDirty(Collection<String> users) {
+        if (!users.isEmpty()) {
+            redis.opsForSet().add(DIRTY_USERS, users.toArray(String[]::new));
+        }
+    }
+
+    /**
+     * Reads the cart of a user as it is in Redis, without loading it from the cart table.
+     *
+     * @param username The owner of the cart
+     * @return The lines of the cart by book ID, or empty if Redis holds no cart for the user
+     */
+    public Optional<Map<Long, CartLine>> storedLines(String username) {
+        Map<String, String> entries = hashes.entries(key(username));
+        return entries.isEmpty() ? Optional.empty() : Optional.of(parse(entries));
+    }
+
+    /**
+     * A cart as it was read from Redis: the raw fields, which a compare-and-set checks against, and their lines.
+     */
+    private record Snapshot(Map<String, String> entries, Map<Long, CartLine> lines) {
+    }
+
+    private Map<Long, CartLine> lines(String username) {
+        return read(username).lines();
+    }
+
+    private Snapshot read(String username) {
+        Map<String, String> entries = hashes.entries(key(username));
+        if (entries.isEmpty()) {
+            entries = load(username);
+        }
+        return new Snapshot(entries, parse(entries));
+    }
+
+    private Map<String, String> load(String username) {
+        List<Cart> carts = cartRepository.findAllByCreatedBy(username);
+        Map<String, String> entries = new HashMap<>();
+        entries.put(LOADED_FIELD, "1");
+        carts.forEach(cart -> entries.put(String.valueOf(cart.getBook().getId()),
+                toJson(new CartLine(cart.getId(), cart.getBook().getId(), cart.getQuantity()))));
+        // A request that loaded the cart at the same time writes the same lines
+        hashes.putAll(key(username), entries);
+        logger.info("Loaded {} cart lines of {} from the database", carts.size(), username);
+        return entries;
+    }
+
+    private CartLine findLine(Snapshot cart, Long cartId) {
+        return cart.lines().values().stream()
+                .filter(line -> line.id().equals(cartId))
+                .findFirst()
+                .orElseThrow(() -> new NotFoundException("Cart with ID %d not found".formatted(cartId)));
+    }
+
+    private void checkLimit(BookResponse book, CartLine existing, int inCartQuantity) throws LimitCrowdedException {
+        int alreadyInCart = existing == null ? 0 : existing.quantity();
+        if (alreadyInCart + inCartQuantity > book.getQuantity()) {
+            throw new LimitCrowdedException("Limit crowded, exist books:%d, you want to add:%d, wasted:%d"
+                    .formatted(book.getQuantity(), inCartQuantity,
+                            inCartQuantity - (book.getQuantity() - alreadyInCart)));
+        }
+    }
+
+    /**
+     * Writes and deletes lines of a cart in one step, if none of them changed since the cart was read.
+     *
+     * @throws OptimisticLockingFailureException if another request changed one of the lines in the meantime,
+     *                                           or the hash was lost and has to be loaded again
+     */
+    private void compareAndSet(String username, Snapshot cart, Collection<CartLine> written,
+                               Collection<CartLine> deleted) {
+        List<String> args = new ArrayList<>();
+        args.add(username);
+        written.forEach(line -> {
+            String field = String.valueOf(line.bookId());
+            args.addAll(List.of(field, cart.entries().getOrDefault(field, ""), toJson(line)));
+        });
+        deleted.forEach(line -> {
+            String field = String.valueOf(line.bookId());
+            args.addAll(List.of(field, cart.entries().getOrDefault(field, ""), ""));
+        });
+        Long result = redis.execute(COMPARE_AND_SET, List.of(key(username), DIRTY_USERS), args.toArray());
+        if (result == null || result != 1L) {
+            throw new OptimisticLockingFailureException("Cart of %s was changed concurrently".formatted(username));
+        }
+    }
+
+    private void restoreOnRollback(String username, List<CartLine> lines) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                if (!restore(username, lines)) {
+                    // The hash was lost since the checkout, a partial one would pass for the whole cart
+                    load(username);
+                    restore(username, lines);
+                }
+            }
+        });
+    }
+
+    private boolean restore(String username, List<CartLine> lines) {
+        List<String> args = new ArrayList<>();
+        args.add(username);
+        lines.forEach(line -> args.addAll(List.of(String.valueOf(line.bookId()), toJson(line))));
+        Long result = redis.execute(RESTORE, List.of(key(username), DIRTY_USERS), args.toArray());
+        return result != null && result == 1L;
+    }
+
+    private Map<Long, BookResponse> books(List<Long> bookIds) throws Exception {
+        Map<Long, BookResponse> books = new HashMap<>();
+        for (int from = 0; from < bookIds.size(); from += maxBatchIds) {
+            List<Long> batch = bookIds.subList(from, Math.min(bookIds.size(), from + maxBatchIds));
+            for (BookLookup lookup : bookService.getByIds(batch)) {
+                if (Boolean.TRUE.equals(lookup.getFound())) {
+                    books.put(lookup.getId(), lookup.getBook());
+                }
+            }
+        }
+        return books;
+    }
+
+    private CartResponse toDto(CartLine line, BookResponse book) {
+        return CartResponse.builder()
+                .id(line.id())
+                .bookResponse(book)
+                .quantity(line.quantity())
+                .totalPrice(line.quantity() * book.getPrice())
+                .build();
+    }
+
+    private Map<Long, CartLine> parse(Map<String, String> entries) {
+        Map<Long, CartLine> lines = new LinkedHashMap<>();
+        entries.forEach((field, value) -> {
+            if (!LOADED_FIELD.equals(field)) {
+                try {
+                    CartLine line = objectMapper.readValue(value, CartLine.class);
+                    lines.put(line.bookId(), line);
+                } catch (JsonProcessingException e) {
+                    throw new DatabaseException("Unreadable cart line " + field + ": " + e.getMessage());
+                }
+            }
+        });
+        return lines;
+    }
+
+    private String toJson(CartLine line) {
+        try {
+            return objectMapper.writeValueAsString(line);
+        } catch (JsonProcessingException e) {
+            throw new DatabaseException("Cart line cannot be written: " + e.getMessage());
+        }
+    }
+
+    private static String key(String username) {
+        return KEY_PREFIX + username;
+    }
+}
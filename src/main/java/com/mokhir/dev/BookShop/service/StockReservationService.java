@@ -0,0 +1,151 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.entity.StockReservation;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
+import com.mokhir.dev.BookShop.repository.interfaces.StockReservationRepository;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds copies of books for cart lines for a limited time. While a line's hold lasts its copies cannot be put
+ * into other carts, and checking the line out consumes them without checking the stock again. Holds that
+ * expire are given back by the StockReservationSweeper.
+ */
+@Service
+@RequiredArgsConstructor
+public class StockReservationService {
+    private final StockReservationRepository stockReservationRepository;
+    private static final Logger logger = LoggerFactory.getLogger(StockReservationService.class);
+
+    @Value("${cart.reservation.ttl:15m}")
+    private Duration ttl;
+
+    /**
+     * Holds copies of a book for a cart line, on top of what the line already holds, and restarts the
+     * expiry of the whole hold.
+     *
+     * @param cartId   The ID of the cart line
+     * @param bookId   The ID of the book
+     * @param quantity The number of copies to hold
+     * @throws StockNotEnoughException if the book is not active or the copies are held by other lines
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Transactional
+    public void hold(Long cartId, Long bookId, int quantity) {
+        hold(List.of(StockReservation.builder().cartId(cartId).bookId(bookId).quantity(quantity).build()));
+    }
+
+    /**
+     * Holds copies of books for many cart lines at once, in batched statements, restarting the expiry
+     * of every hold that grows.
+     *
+     * @param holds The copies to hold by cart line; their expiry is set here
+     * @throws StockNotEnoughException if some books are not active or their copies are held by other lines
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Transactional
+    public void hold(Collection<StockReservation> holds) {
+        Set<Long> failed;
+        try {
+            LocalDateTime expiresAt = LocalDateTime.now().plus(ttl);
+            holds.forEach(hold -> hold.setExpiresAt(expiresAt));
+            failed = stockReservationRepository.hold(holds);
+        } catch (Exception ex) {
+            // Log the exception and wrap it in a DatabaseException and throw it
+            logger.error("Error holding books: {}", ex.getMessage());
+            throw new DatabaseException("hold: " + ex.getMessage());
+        }
+        if (!failed.isEmpty()) {
+            // Thrown after the holds were written, so the transaction is rolled back with them
+            throw new StockNotEnoughException(failed.stream().sorted().toList());
+        }
+    }
+
+    /**
+     * Gives back copies held for a cart line whose quantity went down.
+     *
+     * @param cartId   The ID of the cart line
+     * @param quantity The number of copies taken out of the line
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Transactional
+    public void release(Long cartId, int quantity) {
+        release(Map.of(cartId, quantity));
+    }
+
+    /**
+     * Gives back copies held for many cart lines whose quantities went down, in batched statements.
+     *
+     * @param quantities The number of copies taken out of each line, keyed by cart ID
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Transactional
+    public void release(Map<Long, Integer> quantities) {
+        try {
+            stockReservationRepository.release(quantities);
+        } catch (Exception ex) {
+            // Log the exception and wrap it in a DatabaseException and throw it
+            logger.error("Error releasing held books: {}", ex.getMessage());
+            throw new DatabaseException("release: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Gives back all copies held for the given cart lines, for lines deleted from the cart.
+     *
+     * @param cartIds The IDs of the cart lines
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Transactional
+    public void releaseAll(Collection<Long> cartIds) {
+        try {
+            stockReservationRepository.unreserve(stockReservationRepository.takeHolds(cartIds));
+        } catch (Exception ex) {
+            // Log the exception and wrap it in a DatabaseException and throw it
+            logger.error("Error releasing held books: {}", ex.getMessage());
+            throw new DatabaseException("releaseAll: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Takes the holds of cart lines that are being checked out. The held copies stay reserved until
+     * BookService.minusBookQuantity consumes them in the same transaction.
+     *
+     * @param cartIds The IDs of the cart lines
+     * @return The number of held copies per book ID; lines whose hold expired hold nothing
+     * @throws DatabaseException if there is an error accessing the database
+     */
+    @Transactional
+    public Map<Long, Integer> take(Collection<Long> cartIds) {
+        try {
+            return stockReservationRepository.takeHolds(cartIds);
+        } catch (Exception ex) {
+            // Log the exception and wrap it in a DatabaseException and throw it
+            logger.error("Error taking held books: {}", ex.getMessage());
+            throw new DatabaseException("take: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Gives back the copies of up to limit expired holds.
+     *
+     * @param limit The maximum number of holds to give back
+     * @return The number of holds given back
+     */
+    @Transactional
+    public int releaseExpired(int limit) {
+        return stockReservationRepository.releaseExpired(LocalDateTime.now(), limit);
+    }
+}
@@ -0,0 +1,9 @@
+package com.mokhir.dev.BookShop.service.interfaces;
+
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+
+import java.util.List;
+
+public interface CartCheckoutInterface {
+    List<Cart> takeCarts(List<Long> cartIds);
+}
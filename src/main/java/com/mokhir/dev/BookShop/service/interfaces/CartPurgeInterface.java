@@ -0,0 +1,7 @@
+package com.mokhir.dev.BookShop.service.interfaces;
+
+import java.time.LocalDateTime;
+
+public interface CartPurgeInterface {
+    int purgeAbandoned(LocalDateTime before, int limit);
+}
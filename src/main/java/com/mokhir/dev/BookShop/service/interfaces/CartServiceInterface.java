@@ -1,8 +1,10 @@
 package com.mokhir.dev.BookShop.service.interfaces;
 
 import com.mokhir.dev.BookShop.aggregation.dto.ResponseMessage;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.cart.CartRequest;
 import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
@@ -15,4 +17,5 @@ public interface CartServiceInterface {
     ResponseMessage<Page<CartResponse>> getAllCarts(Pageable pageable);
     ResponseMessage<CartResponse> deleteCart(CartRequest cartRequest);
     ResponseMessage<List<CartResponse>> deleteAllCarts();
+    ResponseMessage<List<CartResponse>> applyBatch(CartBatchRequest batchRequest) throws ApiControllerException;
 }
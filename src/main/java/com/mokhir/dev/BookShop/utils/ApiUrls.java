@@ -16,4 +16,12 @@ public class ApiUrls {
     public static final String DELETE_BY_ID = "/delete";
     public static final String SIGN_IN = "/signIn";
     public static final String ALL_BOOKS_BY_AUTHOR = "/author/all";
+    public static final String ALL_CURSOR = "/all/cursor";
+    public static final String ALL_BOOKS_CURSOR = "/all/authors/cursor";
+    public static final String ALL_BOOKS_BY_AUTHOR_CURSOR = "/author/all/cursor";
+    public static final String IMPORT = "/import";
+    public static final String EXPORT = "/export";
+    public static final String SEARCH = "/search";
+    public static final String SUGGEST = "/suggest";
+    public static final String BATCH = "/batch";
 }
@@ -0,0 +1,229 @@
+package com.mokhir.dev.BookShop.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Line-oriented file formats used to move whole catalogs of books in and out of the shop.
+ * Both formats carry one book per record, so files can be processed as a stream. A record is
+ * one line, except in CSV, where a quoted value may contain line breaks.
+ */
+public enum BookFileFormat {
+    /**
+     * Comma separated {@code name,price,quantity}, with an optional header line.
+     * Values containing commas, quotes or line breaks are enclosed in double quotes.
+     */
+    CSV(MediaType.valueOf(BookFileFormat.TEXT_CSV_VALUE)) {
+        @Override
+        public boolean isHeader(String line) {
+            return line.replace(" ", "").equalsIgnoreCase(CSV_HEADER);
+        }
+
+        @Override
+        public boolean isRecordComplete(String record) {
+            // Quotes inside a quoted value are doubled, so an odd count means a value is still open
+            return record.chars().filter(c -> c == '"').count() % 2 == 0;
+        }
+
+        @Override
+        public BookRequest read(String line, ObjectMapper objectMapper) {
+            List<String> values = splitCsv(line);
+            if (values.size() != 3) {
+                throw new IllegalArgumentException("Expected 3 columns (" + CSV_HEADER + ") but got " + values.size());
+            }
+            BookRequest request = new BookRequest();
+            request.setName(values.get(0));
+            request.setPrice(parseInteger("price", values.get(1)));
+            request.setQuantity(parseInteger("quantity", values.get(2)));
+            return request;
+        }
+
+        @Override
+        public String header() {
+            return CSV_HEADER;
+        }
+
+        @Override
+        public String write(BookResponse book, ObjectMapper objectMapper) {
+            return escapeCsv(book.getName()) + "," + book.getPrice() + "," + book.getQuantity();
+        }
+    },
+    /**
+     * One JSON object per line with the {@code name}, {@code price} and {@code quantity} fields.
+     */
+    NDJSON(MediaType.APPLICATION_NDJSON) {
+        @Override
+        public boolean isHeader(String line) {
+            return false;
+        }
+
+        @Override
+        public BookRequest read(String line, ObjectMapper objectMapper) {
+            try {
+                return objectMapper.readValue(line, BookRequest.class);
+            } catch (JsonProcessingException ex) {
+                throw new IllegalArgumentException("Malformed JSON: " + ex.getOriginalMessage());
+            }
+        }
+
+        @Override
+        public String header() {
+            return null;
+        }
+
+        @Override
+        public String write(BookResponse book, ObjectMapper objectMapper) {
+            try {
+                return objectMapper.writeValueAsString(book);
+            } catch (JsonProcessingException ex) {
+                throw new IllegalStateException("Book " + book.getId() + " cannot be written as JSON", ex);
+            }
+        }
+    };
+
+    public static final String TEXT_CSV_VALUE = "text/csv";
+    public static final String CSV_HEADER = "name,price,quantity";
+
+    private final MediaType mediaType;
+
+    BookFileFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Tells whether a line is the column header rather than a book.
+     *
+     * @param line A non-blank line of the file
+     * @return true if the line should be skipped as a header
+     */
+    public abstract boolean isHeader(String line);
+
+    /**
+     * Tells whether the lines read so far make up a whole record, or the next line continues it.
+     *
+     * @param record The lines of the record read so far, joined with line feeds
+     * @return true if the record is complete
+     */
+    public boolean isRecordComplete(String record) {
+        return true;
+    }
+
+    /**
+     * Parses one record of the file into a book request.
+     *
+     * @param line         A non-blank record of the file
+     * @param objectMapper The mapper used for JSON based formats
+     * @return The parsed book request, not yet validated
+     * @throws IllegalArgumentException if the line cannot be parsed
+     */
+    public abstract BookRequest read(String line, ObjectMapper objectMapper);
+
+    /**
+     * Returns the first line of an exported file.
+     *
+     * @return The column header, or null if the format has none
+     */
+    public abstract String header();
+
+    /**
+     * Formats one book as a line of the file, readable again by {@link #read(String, ObjectMapper)}.
+     *
+     * @param book         The book to write
+     * @param objectMapper The mapper used for JSON based formats
+     * @return The line, without the line separator
+     */
+    public abstract String write(BookResponse book, ObjectMapper objectMapper);
+
+    /**
+     * Returns the file name an export in this format is downloaded as.
+     *
+     * @param baseName The file name without extension
+     * @return The file name with the extension of the format
+     */
+    public String fileName(String baseName) {
+        return baseName + "." + name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Resolves the format of a request body from its content type.
+     *
+     * @param contentType The Content-Type header of the request
+     * @return The matching format
+     * @throws IllegalArgumentException if the content type is missing or not supported
+     */
+    public static BookFileFormat fromContentType(String contentType) {
+        if (contentType != null) {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            for (BookFileFormat format : values()) {
+                if (format.mediaType.isCompatibleWith(mediaType)) {
+                    return format;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unsupported content type: " + contentType
+                + ", expected text/csv or application/x-ndjson");
+    }
+
+    private static Integer parseInteger(String column, String value) {
+        if (value.isBlank()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>(3);
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
@@ -0,0 +1,73 @@
+package com.mokhir.dev.BookShop.utils;
+
+import com.mokhir.dev.BookShop.exceptions.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes keyset pagination positions as opaque, URL-safe continuation tokens.
+ */
+public final class CursorCodec {
+    private static final String VERSION = "v1";
+    private static final String SEPARATOR = "|";
+
+    private CursorCodec() {
+    }
+
+    /**
+     * Encodes the key values of the last row of a page into a continuation token.
+     *
+     * @param keys The key values, in the order of the sort
+     * @return An opaque continuation token
+     */
+    public static String encode(Object... keys) {
+        StringBuilder raw = new StringBuilder(VERSION);
+        for (Object key : keys) {
+            raw.append(SEPARATOR).append(key);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a continuation token back into its key values.
+     *
+     * @param cursor       The continuation token received from the client
+     * @param expectedKeys The number of key values the token must carry
+     * @return The key values, in the order they were encoded
+     * @throws InvalidCursorException if the token was not produced by {@link #encode(Object...)}
+     */
+    public static String[] decode(String cursor, int expectedKeys) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", -1);
+            if (parts.length != expectedKeys + 1 || !VERSION.equals(parts[0])) {
+                throw new InvalidCursorException("Malformed cursor: " + cursor);
+            }
+            String[] keys = new String[expectedKeys];
+            System.arraycopy(parts, 1, keys, 0, expectedKeys);
+            return keys;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Malformed cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Decodes a single-key ID cursor; a missing cursor means the first page.
+     *
+     * @param cursor The continuation token received from the client, or null
+     * @return The ID of the last row already seen, or 0 for the first page
+     * @throws InvalidCursorException if the token is malformed
+     */
+    public static Long decodeId(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0L;
+        }
+        try {
+            return Long.valueOf(decode(cursor, 1)[0]);
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException("Malformed cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.mokhir.dev.BookShop.utils;
+
+import com.mokhir.dev.BookShop.exceptions.PreconditionFailedException;
+
+/**
+ * Builds and reads the strong entity tags of versioned entities, in the form {@code "<id>-<version>"}.
+ */
+public final class ETags {
+    private static final String ANY = "*";
+
+    private ETags() {
+    }
+
+    /**
+     * Builds the entity tag of one version of an entity.
+     *
+     * @param id      The ID of the entity
+     * @param version The version of the entity
+     * @return A quoted strong entity tag
+     */
+    public static String of(Long id, Long version) {
+        return "\"" + id + "-" + (version == null ? 0 : version) + "\"";
+    }
+
+    /**
+     * Reads the version an If-Match header expects the entity to have.
+     *
+     * @param ifMatch The If-Match header value
+     * @param id      The ID of the entity being modified
+     * @return The expected version, or null if any version matches ({@code *})
+     * @throws PreconditionFailedException if the tag is weak, malformed or belongs to another entity
+     */
+    public static Long expectedVersion(String ifMatch, Long id) {
+        String tag = ifMatch.trim();
+        if (ANY.equals(tag)) {
+            return null;
+        }
+        String prefix = "\"" + id + "-";
+        if (!tag.startsWith(prefix) || !tag.endsWith("\"") || tag.length() <= prefix.length() + 1) {
+            throw new PreconditionFailedException("If-Match " + ifMatch + " does not match book " + id);
+        }
+        try {
+            return Long.valueOf(tag.substring(prefix.length(), tag.length() - 1));
+        } catch (NumberFormatException ex) {
+            throw new PreconditionFailedException("If-Match " + ifMatch + " does not match book " + id);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+-- Runs after Hibernate has updated the schema (spring.jpa.defer-datasource-initialization),
+-- for the indexes and other objects the entity mappings cannot express. Every statement must be idempotent.
+
+CREATE INDEX IF NOT EXISTS idx_books_active_id ON books (id) WHERE active;
+CREATE INDEX IF NOT EXISTS idx_books_created_by_id ON books (created_by, id);
+
+-- Entity IDs come from pooled sequences (allocationSize 50). Tables that were filled through IDENTITY columns
+-- already hold IDs the fresh sequences would hand out again, so move each sequence past the highest ID in use.
+SELECT setval('books_seq', (SELECT max(id) FROM books) + 50) WHERE (SELECT last_value FROM books_seq) <= (SELECT COALESCE(max(id), 0) FROM books);
+SELECT setval('cart_seq', (SELECT max(id) FROM cart) + 50) WHERE (SELECT last_value FROM cart_seq) <= (SELECT COALESCE(max(id), 0) FROM cart);
+SELECT setval('orders_seq', (SELECT max(id) FROM orders) + 50) WHERE (SELECT last_value FROM orders_seq) <= (SELECT COALESCE(max(id), 0) FROM orders);
+SELECT setval('order_details_seq', (SELECT max(id) FROM order_details) + 50) WHERE (SELECT last_value FROM order_details_seq) <= (SELECT COALESCE(max(id), 0) FROM order_details);
+SELECT setval('comments_seq', (SELECT max(id) FROM comments) + 50) WHERE (SELECT last_value FROM comments_seq) <= (SELECT COALESCE(max(id), 0) FROM comments);
+SELECT setval('users_seq', (SELECT max(id) FROM users) + 50) WHERE (SELECT last_value FROM users_seq) <= (SELECT COALESCE(max(id), 0) FROM users);
+SELECT setval('roles_seq', (SELECT max(id) FROM roles) + 50) WHERE (SELECT last_value FROM roles_seq) <= (SELECT COALESCE(max(id), 0) FROM roles);
+SELECT setval('permissions_seq', (SELECT max(id) FROM permissions) + 50) WHERE (SELECT last_value FROM permissions_seq) <= (SELECT COALESCE(max(id), 0) FROM permissions);
+
+-- Full-text search over book names. 'simple' keeps words as they are, so prefix queries match titles and author
+-- names in any language instead of English stems.
+ALTER TABLE books ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (to_tsvector('simple', coalesce(name, ''))) STORED;
+CREATE INDEX IF NOT EXISTS idx_books_search_vector ON books USING GIN (search_vector);
+
+-- A user has one cart line per book, which the add-to-cart upsert relies on. Fold lines stored before the
+-- constraint existed into the oldest one, then make sure the constraint's index is there.
+UPDATE cart c
+SET quantity = d.quantity,
+    total_price = d.total_price
+FROM (SELECT min(id) AS id, sum(quantity) AS quantity, sum(total_price) AS total_price
+      FROM cart
+      GROUP BY created_by, book_id
+      HAVING count(*) > 1) d
+WHERE c.id = d.id;
+DELETE FROM cart c USING cart k WHERE c.created_by = k.created_by AND c.book_id = k.book_id AND c.id > k.id;
+CREATE UNIQUE INDEX IF NOT EXISTS uk_cart_created_by_book_id ON cart (created_by, book_id);
+
+-- Lines stored before last_activity_at existed count as active from now on, so the abandoned-cart purge
+-- gives them the full cart.purge.after before removing them.
+UPDATE cart SET last_activity_at = now() WHERE last_activity_at IS NULL;
+
+-- Idempotency keys belong to the user who sent them. Keys stored before had no user and live for a day at most,
+-- so drop them and widen the primary key from the key alone to the user and the key.
+ALTER TABLE idempotency_keys ADD COLUMN IF NOT EXISTS created_by varchar(255);
+DELETE FROM idempotency_keys WHERE created_by IS NULL;
+ALTER TABLE idempotency_keys ALTER COLUMN created_by SET NOT NULL;
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_index WHERE indrelid = ''idempotency_keys''::regclass AND indisprimary AND indnkeyatts = 1) THEN
+        ALTER TABLE idempotency_keys DROP CONSTRAINT idempotency_keys_pkey;
+        ALTER TABLE idempotency_keys ADD PRIMARY KEY (created_by, idempotency_key);
+    END IF;
+END';
@@ -0,0 +1,82 @@
+package com.mokhir.dev.BookShop.controller;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.exceptions.controller.ExceptionController;
+import com.mokhir.dev.BookShop.service.BookExportService;
+import com.mokhir.dev.BookShop.service.BookImportService;
+import com.mokhir.dev.BookShop.service.BookSearchService;
+import com.mokhir.dev.BookShop.service.BookService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class BookControllerETagTest {
+    private static final String BOOK_JSON = "{\"id\": 5, \"name\": \"Dune\", \"price\": 20, \"quantity\": 3}";
+
+    private final BookService bookService = mock(BookService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        BookController controller = new BookController(
+                bookService, mock(BookImportService.class), mock(BookExportService.class),
+                mock(BookSearchService.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new ExceptionController())
+                .build();
+        when(bookService.getById("5")).thenReturn(BookResponse.builder()
+                .id(5L).name("Dune").price(20).quantity(3).version(4L).build());
+    }
+
+    @Test
+    void readsCarryTheVersionAsStrongETag() throws Exception {
+        mockMvc.perform(get("/api/v1/book/id/5"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-4\""))
+                .andExpect(jsonPath("$.version").value(4));
+    }
+
+    @Test
+    void matchingIfNoneMatchReturnsNotModifiedWithoutBody() throws Exception {
+        mockMvc.perform(get("/api/v1/book/id/5").header(HttpHeaders.IF_NONE_MATCH, "\"5-4\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-4\""))
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/api/v1/book/id/5").header(HttpHeaders.IF_NONE_MATCH, "\"5-3\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void ifMatchIsPassedToTheServiceAsExpectedVersion() throws Exception {
+        when(bookService.update(any())).thenReturn(BookResponse.builder().id(5L).version(5L).build());
+
+        mockMvc.perform(put("/api/v1/book/update").contentType(MediaType.APPLICATION_JSON)
+                        .content(BOOK_JSON).header(HttpHeaders.IF_MATCH, "\"5-4\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-5\""));
+
+        ArgumentCaptor<BookRequest> request = ArgumentCaptor.forClass(BookRequest.class);
+        verify(bookService).update(request.capture());
+        assertThat(request.getValue().getVersion()).isEqualTo(4L);
+    }
+
+    @Test
+    void ifMatchOfAnotherBookFailsFast() throws Exception {
+        mockMvc.perform(put("/api/v1/book/update").contentType(MediaType.APPLICATION_JSON)
+                        .content(BOOK_JSON).header(HttpHeaders.IF_MATCH, "W/\"5-4\""))
+                .andExpect(status().isPreconditionFailed());
+        verify(bookService, never()).update(any());
+    }
+}
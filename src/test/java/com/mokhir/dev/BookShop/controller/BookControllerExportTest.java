@@ -0,0 +1,65 @@
+package com.mokhir.dev.BookShop.controller;
+
+import com.mokhir.dev.BookShop.exceptions.controller.ExceptionController;
+import com.mokhir.dev.BookShop.service.BookExportService;
+import com.mokhir.dev.BookShop.service.BookImportService;
+import com.mokhir.dev.BookShop.service.BookSearchService;
+import com.mokhir.dev.BookShop.service.BookService;
+import com.mokhir.dev.BookShop.utils.BookFileFormat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class BookControllerExportTest {
+    private static final Duration EXPORT_TIMEOUT = Duration.ofMinutes(30);
+
+    private final BookExportService exportService = mock(BookExportService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        BookController controller = new BookController(
+                mock(BookService.class), mock(BookImportService.class), exportService, mock(BookSearchService.class));
+        ReflectionTestUtils.setField(controller, "exportTimeout", EXPORT_TIMEOUT);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new ExceptionController())
+                .build();
+        when(exportService.exportBooks(any(), eq(BookFileFormat.CSV))).thenAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("id,name\n1,Dune\n".getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        });
+    }
+
+    @Test
+    void exportStreamsWithItsOwnTimeout() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/book/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Only the export runs this long, other async requests keep the container's default
+        assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(EXPORT_TIMEOUT.toMillis());
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(BookFileFormat.TEXT_CSV_VALUE))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"books.csv\""))
+                .andExpect(content().string("id,name\n1,Dune\n"));
+    }
+}
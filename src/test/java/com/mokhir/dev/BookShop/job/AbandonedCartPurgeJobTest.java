@@ -0,0 +1,97 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.StockReservationRepository;
+import com.mokhir.dev.BookShop.service.CartService;
+import com.mokhir.dev.BookShop.service.OptimisticRetry;
+import com.mokhir.dev.BookShop.service.StockReservationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({CartService.class, CartMapper.class, BookMapper.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AbandonedCartPurgeJobTest {
+    @MockBean
+    private JwtProvider jwtProvider;
+    @Autowired
+    private CartService cartService;
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void cleanUp() {
+        stockReservationRepository.deleteAllInBatch();
+        cartRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void linesLeftAloneArePurgedInChunksWithTheirHolds() {
+        Book book = bookRepository.save(Book.builder().name("Dune").price(12).quantity(100).active(true).build());
+        List<Long> abandoned = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            abandoned.add(line("reader" + i, book, 2).getId());
+        }
+        Long active = line("writer", book, 3).getId();
+        jdbcTemplate.update("UPDATE cart SET last_activity_at = ? WHERE id <> ?",
+                LocalDateTime.now().minusDays(31), active);
+
+        AbandonedCartPurgeJob job = new AbandonedCartPurgeJob(cartService, meterRegistry,
+                Duration.ofDays(30), 3, Duration.ZERO);
+
+        assertThat(job.purge()).isEqualTo(7);
+        assertThat(cartRepository.findAll()).extracting(Cart::getId).containsExactly(active);
+        assertThat(stockReservationRepository.findAll()).hasSize(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT reserved FROM books WHERE id = ?", Integer.class, book.getId()))
+                .isEqualTo(3);
+        assertThat(meterRegistry.get("cart.purge.rows").counter().count()).isEqualTo(7);
+        assertThat(meterRegistry.get("cart.purge.duration").timer().count()).isEqualTo(1);
+
+        // Nothing is left to purge, the run is still timed
+        assertThat(job.purge()).isZero();
+        assertThat(meterRegistry.get("cart.purge.duration").timer().count()).isEqualTo(2);
+        assertThat(abandoned).noneMatch(cartRepository::existsById);
+    }
+
+    private Cart line(String createdBy, Book book, int quantity) {
+        Cart cart = Cart.builder().book(book).quantity(quantity).totalPrice(quantity * book.getPrice()).build();
+        cart.setCreatedBy(createdBy);
+        cart = cartRepository.save(cart);
+        stockReservationService.hold(cart.getId(), book.getId(), quantity);
+        return cart;
+    }
+}
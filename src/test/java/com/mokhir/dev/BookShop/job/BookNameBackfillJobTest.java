@@ -0,0 +1,146 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.User;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.service.BookService;
+import com.mokhir.dev.BookShop.service.BookSuggestIndex;
+import com.mokhir.dev.BookShop.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = {"spring.sql.init.mode=never", "book.normalized-name.backfill.chunk-size=2"})
+@Import({BookNameBackfillJob.class, BookService.class, BookMapper.class, AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookNameBackfillJobTest {
+    private static final long LEGACY_IDS = 1_000_000;
+
+    @MockBean
+    private UserService userService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookSuggestIndex suggestIndex;
+    @MockBean
+    private CacheBatchReader cacheBatchReader;
+    @MockBean
+    private CacheManager cacheManager;
+    @Autowired
+    private BookNameBackfillJob job;
+    @Autowired
+    private BookService bookService;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void legacyNamesAreNormalizedLikeNewOnes() {
+        legacy(1, "author", "The  Great Gatsby");
+        legacy(2, "author", "ΟΔΥΣΣΕΥΣ");
+        legacy(3, "author", "İstanbul");
+
+        job.backfill();
+
+        assertThat(normalizedName(1)).isEqualTo(Book.normalizeName("The  Great Gatsby")).isEqualTo("thegreatgatsby");
+        // Java folds a closing capital sigma to ς where the database's lower() gives σ
+        assertThat(normalizedName(2)).isEqualTo(Book.normalizeName("ΟΔΥΣΣΕΥΣ")).isEqualTo("οδυσσευς");
+        assertThat(normalizedName(3)).isEqualTo(Book.normalizeName("İstanbul"));
+    }
+
+    @Test
+    void oldestOfLegacyDuplicatesKeepsTheNameAcrossChunks() {
+        legacy(1, "author", "Dune");
+        Book emma = Book.builder().name("Emma").price(10).quantity(1).active(true).build();
+        emma.setCreatedBy("author");
+        Long emmaId = bookRepository.save(emma).getId();
+        legacy(2, "author", "dune ");
+        legacy(3, "other", "DUNE");
+        legacy(4, "author", "EMMA");
+        legacy(5, "author", "D une");
+
+        job.backfill();
+
+        assertThat(normalizedName(1)).isEqualTo("dune");
+        assertThat(normalizedName(2)).isNull();
+        assertThat(normalizedName(3)).isEqualTo("dune");
+        assertThat(normalizedName(4)).isNull();
+        assertThat(normalizedName(5)).isNull();
+        assertThat(bookRepository.findById(emmaId)).get().extracting(Book::getNormalizedName).isEqualTo("emma");
+    }
+
+    @Test
+    void duplicatesWrittenBeforeTheIndexAreDemotedAndTheIndexIsEnforced() {
+        jdbcTemplate.execute("DROP INDEX IF EXISTS uk_books_created_by_normalized_name");
+        legacy(1, "author", "Dune");
+        legacy(2, "author", "Dune");
+        jdbcTemplate.update("UPDATE books SET normalized_name = 'dune'");
+
+        job.backfill();
+
+        assertThat(normalizedName(1)).isEqualTo("dune");
+        assertThat(normalizedName(2)).isNull();
+        Book copy = Book.builder().name("DUNE").price(10).quantity(1).active(true).build();
+        copy.setCreatedBy("author");
+        assertThatThrownBy(() -> bookRepository.saveAndFlush(copy)).isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    void addBookRejectsTheNameOfABackfilledBook() {
+        when(jwtProvider.getCurrentUser()).thenReturn("author");
+        when(userService.findUserByUsername("author")).thenReturn(User.builder().username("author").build());
+        legacy(1, "author", "The Hobbit");
+        job.backfill();
+
+        assertThatThrownBy(() -> bookService.addBook(request("the hobbit", "author")))
+                .isInstanceOf(DatabaseException.class)
+                .hasMessageContaining("already exists");
+        bookService.addBook(request("The Hobbit, Again", "author"));
+        when(jwtProvider.getCurrentUser()).thenReturn("other");
+        when(userService.findUserByUsername("other")).thenReturn(User.builder().username("other").build());
+        bookService.addBook(request("The Hobbit", "other"));
+
+        assertThat(bookRepository.count()).isEqualTo(3);
+    }
+
+    // A row written before normalized_name existed, with an id far from those the sequence hands out
+    private void legacy(long id, String createdBy, String name) {
+        jdbcTemplate.update("INSERT INTO books (id, name, price, quantity, active, created_by, version) "
+                + "VALUES (?, ?, 10, 1, true, ?, 0)", LEGACY_IDS + id, name, createdBy);
+    }
+
+    private String normalizedName(long id) {
+        return jdbcTemplate.queryForObject("SELECT normalized_name FROM books WHERE id = ?", String.class,
+                LEGACY_IDS + id);
+    }
+
+    private static BookRequest request(String name, String createdBy) {
+        BookRequest request = new BookRequest(null, name, 10, 1, null);
+        request.setCreatedBy(createdBy);
+        return request;
+    }
+}
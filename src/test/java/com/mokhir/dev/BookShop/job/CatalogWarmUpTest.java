@@ -0,0 +1,91 @@
+package com.mokhir.dev.BookShop.job;
+
+import com.mokhir.dev.BookShop.aggregation.dto.statistics.PopularBookStatistic;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.service.BookService;
+import com.mokhir.dev.BookShop.service.PermissionService;
+import com.mokhir.dev.BookShop.service.RoleService;
+import com.mokhir.dev.BookShop.service.StatisticService;
+import com.mokhir.dev.BookShop.service.interfaces.CartServiceInterface;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CatalogWarmUpTest {
+    private final BookService bookService = mock(BookService.class);
+    private final CartServiceInterface cartService = mock(CartServiceInterface.class);
+    private final RoleService roleService = mock(RoleService.class);
+    private final PermissionService permissionService = mock(PermissionService.class);
+    private final StatisticService statisticService = mock(StatisticService.class);
+    private CatalogWarmUp warmUp;
+
+    @BeforeEach
+    void setUp() {
+        warmUp = new CatalogWarmUp(bookService, cartService, roleService, permissionService, statisticService);
+        ReflectionTestUtils.setField(warmUp, "enabled", true);
+        ReflectionTestUtils.setField(warmUp, "pages", 2);
+        ReflectionTestUtils.setField(warmUp, "pageSize", 20);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void warmsCatalogHotBooksRolesPermissionsAndCarts() throws Exception {
+        when(statisticService.getBook()).thenReturn(List.of(
+                new PopularBookStatistic(7L, "author", "Hot", 40L),
+                new PopularBookStatistic(3L, "author", "Warm", 10L)));
+        AtomicReference<String> cartUser = new AtomicReference<>();
+        when(cartService.getAllCarts(any())).thenAnswer(invocation -> {
+            cartUser.set(SecurityContextHolder.getContext().getAuthentication().getName());
+            throw new NotFoundException("Current user doesn't have any carts");
+        });
+
+        warmUp.run(new DefaultApplicationArguments());
+
+        verify(bookService).findAll(PageRequest.of(0, 20));
+        verify(bookService).findAll(PageRequest.of(1, 20));
+        verify(bookService).getByIds(List.of(7L, 3L));
+        verify(roleService).findAll(PageRequest.of(0, 20));
+        verify(permissionService).findAll(PageRequest.of(0, 20));
+        assertThat(cartUser.get()).isEqualTo(CatalogWarmUp.WARM_UP_USER);
+        // The warm-up identity must not leak into the startup thread
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+    }
+
+    @Test
+    void failingStepDoesNotStopTheOthers() throws Exception {
+        when(bookService.findAll(any())).thenThrow(new DatabaseException("connection refused"));
+        when(statisticService.getBook()).thenThrow(new DatabaseException("connection refused"));
+
+        warmUp.run(new DefaultApplicationArguments());
+
+        verify(bookService, never()).getByIds(any());
+        verify(roleService).findAll(any());
+        verify(permissionService).findAll(any());
+        verify(cartService).getAllCarts(any());
+    }
+
+    @Test
+    void disabledWarmUpDoesNothing() throws Exception {
+        ReflectionTestUtils.setField(warmUp, "enabled", false);
+
+        warmUp.run(new DefaultApplicationArguments());
+
+        verify(bookService, never()).findAll(any());
+        verify(statisticService, never()).getBook();
+        verify(cartService, never()).getAllCarts(any());
+    }
+}
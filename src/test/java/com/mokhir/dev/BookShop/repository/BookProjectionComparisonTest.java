@@ -0,0 +1,117 @@
+package com.mokhir.dev.BookShop.repository;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Reads the same page of books as managed entities and as BookView projections and compares
+ * the persistence context footprint, the bytes allocated and the time taken.
+ */
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({BookMapper.class, AuditingConfig.class})
+class BookProjectionComparisonTest {
+    private static final int BOOKS = 2000;
+    private static final int PAGE_SIZE = 500;
+    private static final int ROUNDS = 50;
+    private static final Logger logger = LoggerFactory.getLogger(BookProjectionComparisonTest.class);
+
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private BookMapper mapper;
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < BOOKS; i++) {
+            Book book = Book.builder().name("Book " + i).price(10 + i).quantity(5).active(true).build();
+            book.setCreatedBy("author");
+            entityManager.persist(book);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void projectionsSkipThePersistenceContext() {
+        Pageable pageable = PageRequest.of(1, PAGE_SIZE);
+        List<BookResponse> fromEntities = bookRepository.findAllBooksByCreatedBy("author", pageable)
+                .map(mapper::toDto).getContent();
+        long managedAfterEntities = managedEntities();
+        entityManager.clear();
+
+        Page<BookView> views = bookRepository.findViewsByCreatedBy("author", pageable);
+        List<BookResponse> fromViews = views.map(mapper::toDto).getContent();
+
+        assertThat(fromViews).usingRecursiveFieldByFieldElementComparator().isEqualTo(fromEntities);
+        assertThat(views.getTotalElements()).isEqualTo(BOOKS);
+        assertThat(managedAfterEntities).isEqualTo(PAGE_SIZE);
+        assertThat(managedEntities()).isZero();
+    }
+
+    @Test
+    void allocationAndLatencyOfEntitiesAndProjections() {
+        Pageable pageable = PageRequest.of(1, PAGE_SIZE);
+        Supplier<List<BookResponse>> entities = () -> bookRepository.findAllBooksByCreatedBy("author", pageable)
+                .map(mapper::toDto).getContent();
+        Supplier<List<BookResponse>> views = () -> bookRepository.findViewsByCreatedBy("author", pageable)
+                .map(mapper::toDto).getContent();
+        measure(entities, ROUNDS);
+        measure(views, ROUNDS);
+
+        long[] entityCost = measure(entities, ROUNDS);
+        long[] viewCost = measure(views, ROUNDS);
+
+        // Timings vary too much between machines to assert on, they are only logged for comparison
+        logger.debug("{}-book page, average of {} reads: entities {} KB / {} ms, projections {} KB / {} ms",
+                PAGE_SIZE, ROUNDS,
+                entityCost[0] / ROUNDS / 1024, String.format("%.2f", entityCost[1] / 1e6 / ROUNDS),
+                viewCost[0] / ROUNDS / 1024, String.format("%.2f", viewCost[1] / 1e6 / ROUNDS));
+        assertThat(viewCost[0]).isLessThan(entityCost[0]);
+    }
+
+    // Returns the bytes allocated by this thread and the nanoseconds spent; each read starts from an empty context
+    private long[] measure(Supplier<List<BookResponse>> read, int rounds) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = 0;
+        long nanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long started = System.nanoTime();
+            read.get();
+            entityManager.flush();
+            nanos += System.nanoTime() - started;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            entityManager.clear();
+        }
+        return new long[]{allocated, nanos};
+    }
+
+    private long managedEntities() {
+        return entityManager.unwrap(Session.class).getStatistics().getEntityCount();
+    }
+}
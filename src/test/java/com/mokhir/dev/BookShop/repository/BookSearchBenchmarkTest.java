@@ -0,0 +1,146 @@
+package com.mokhir.dev.BookShop.repository;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSearchHit;
+import com.mokhir.dev.BookShop.repository.interfaces.BookSearchRepositoryImpl;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures book search latency on a generated catalog in PostgreSQL. It needs a real database
+ * and several minutes, so it only runs when asked for:
+ * <pre>
+ * mvn test -Dtest=BookSearchBenchmarkTest -Dbenchmark.postgres.url=jdbc:postgresql://localhost:5432/book_shop_db \
+ *     -Dbenchmark.postgres.username=postgres -Dbenchmark.postgres.password=... [-Dbenchmark.search.rows=2000000]
+ * </pre>
+ * Everything is created in a throwaway schema, the application tables are not touched. The latencies are
+ * logged, one line per query.
+ */
+@EnabledIfSystemProperty(named = "benchmark.postgres.url", matches = ".+")
+class BookSearchBenchmarkTest {
+    private static final String SCHEMA = "book_search_benchmark";
+    private static final String[] QUERIES = {"war", "war pe", "histo", "the lost", "a", "zzz"};
+    private static final int WARM_UP = 20;
+    private static final int RUNS = 200;
+    private static final int PAGE_SIZE = 21;
+    private static final Logger logger = LoggerFactory.getLogger(BookSearchBenchmarkTest.class);
+
+    private static SingleConnectionDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static BookSearchRepositoryImpl searchRepository;
+
+    @BeforeAll
+    static void generateCatalog() throws Exception {
+        dataSource = new SingleConnectionDataSource(System.getProperty("benchmark.postgres.url"),
+                System.getProperty("benchmark.postgres.username", "postgres"),
+                System.getProperty("benchmark.postgres.password", ""), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        searchRepository = new BookSearchRepositoryImpl(jdbcTemplate);
+        long rows = Long.getLong("benchmark.search.rows", 2_000_000L);
+
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + SCHEMA);
+        jdbcTemplate.execute("""
+                CREATE TABLE books (id bigint PRIMARY KEY, name varchar(255), price integer, quantity integer,
+                                    active boolean default true, version bigint default 0 not null)
+                """);
+        long started = System.nanoTime();
+        // Titles of 3-4 words from small vocabularies, so common words match hundreds of thousands of rows
+        jdbcTemplate.update("""
+                INSERT INTO books (id, name, price, quantity, active)
+                SELECT g,
+                       (ARRAY['The','A','War','Peace','Lost','History','Secret','Garden','Night','River','Stone',
+                              'Empire','Silent','Winter','Golden','Dark','Last','Hidden','Broken','Ocean'])[1 + (g * 7) % 20]
+                       || ' ' ||
+                       (ARRAY['of','and','in','under','beyond','for','with','without','after','before'])[1 + (g * 13) % 10]
+                       || ' ' ||
+                       (ARRAY['Kings','Time','Stars','Memory','Fire','Glass','Shadows','Dreams','Iron','Light',
+                              'Wolves','Rain','Paper','Silver','Sand','Bones','Songs','Crowns','Ashes','Storms',
+                              'Histories','Warriors','Peacemakers','Thieves','Maps'])[1 + (g * 31) % 25]
+                       || CASE WHEN g % 3 = 0 THEN ' ' || g ELSE '' END,
+                       10 + g % 90, 1 + g % 20, g % 50 <> 0
+                FROM generate_series(1, ?) AS g
+                """, rows);
+        logger.info("Generated {} books in {} s", rows, (System.nanoTime() - started) / 1_000_000_000);
+
+        // Apply the search column and index exactly as the application ships them
+        started = System.nanoTime();
+        String schemaSql = new ClassPathResource("schema.sql").getContentAsString(StandardCharsets.UTF_8);
+        Arrays.stream(schemaSql.split(";"))
+                .map(statement -> statement.lines().filter(line -> !line.trim().startsWith("--"))
+                        .reduce("", (a, b) -> a + "\n" + b).trim())
+                .filter(statement -> statement.contains("search_vector"))
+                .forEach(jdbcTemplate::execute);
+        jdbcTemplate.execute("ANALYZE books");
+        logger.info("Built search column and GIN index in {} s", (System.nanoTime() - started) / 1_000_000_000);
+    }
+
+    @AfterAll
+    static void dropCatalog() {
+        if (jdbcTemplate != null && !Boolean.getBoolean("benchmark.search.keep")) {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        }
+        if (dataSource != null) {
+            dataSource.destroy();
+        }
+    }
+
+    @Test
+    void searchLatency() {
+        for (String query : QUERIES) {
+            String tsQuery = String.join(" & ", Arrays.stream(query.toLowerCase().split(" "))
+                    .map(word -> word + ":*").toList());
+            for (int i = 0; i < WARM_UP; i++) {
+                searchRepository.search(tsQuery, null, null, PAGE_SIZE);
+            }
+            List<BookSearchHit> firstPage = searchRepository.search(tsQuery, null, null, PAGE_SIZE);
+            BookSearchHit last = firstPage.isEmpty() ? null : firstPage.get(firstPage.size() - 1);
+
+            List<Long> firstPageNanos = new ArrayList<>();
+            List<Long> nextPageNanos = new ArrayList<>();
+            for (int i = 0; i < RUNS; i++) {
+                long started = System.nanoTime();
+                searchRepository.search(tsQuery, null, null, PAGE_SIZE);
+                firstPageNanos.add(System.nanoTime() - started);
+                if (last != null) {
+                    started = System.nanoTime();
+                    List<BookSearchHit> next = searchRepository.search(
+                            tsQuery, last.getRank(), last.getBook().getId(), PAGE_SIZE);
+                    nextPageNanos.add(System.nanoTime() - started);
+                    assertThat(next).noneMatch(hit -> firstPage.stream()
+                            .anyMatch(seen -> seen.getBook().getId().equals(hit.getBook().getId())));
+                }
+            }
+            Long matches = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM books WHERE active AND search_vector @@ to_tsquery('simple', ?)",
+                    Long.class, tsQuery);
+            logger.info(String.format(
+                    "%-10s %8d matches  first page p50 %7.2f ms p95 %7.2f ms  next page p50 %7.2f ms p95 %7.2f ms",
+                    "'" + query + "'", matches,
+                    percentile(firstPageNanos, 50), percentile(firstPageNanos, 95),
+                    percentile(nextPageNanos, 50), percentile(nextPageNanos, 95)));
+        }
+    }
+
+    private static double percentile(List<Long> nanos, int percentile) {
+        if (nanos.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = nanos.stream().sorted().toList();
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100)) / 1e6;
+    }
+}
@@ -0,0 +1,162 @@
+package com.mokhir.dev.BookShop.repository;
+
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.support.PostgresDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the checkout's stock decrement against PostgreSQL, on the schema the application creates. The statement
+ * updates from unnest() arrays and returns the decremented rows, which only PostgreSQL runs.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(AuditingConfig.class)
+@EnabledIf("com.mokhir.dev.BookShop.support.PostgresDatabase#available")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookStockRepositoryTest {
+    private static final int CHECKOUTS = 4;
+
+    @Autowired
+    private BookRepository stockRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        PostgresDatabase.register(registry);
+    }
+
+    @BeforeEach
+    void resetBooks() {
+        jdbcTemplate.execute("TRUNCATE books CASCADE");
+        // Dune has 5 copies of which 2 are held, Emma 3 copies and none held
+        jdbcTemplate.update("INSERT INTO books (id, name, price, quantity, reserved, active, version) VALUES "
+                + "(1, 'Dune', 10, 5, 2, true, 0), (2, 'Emma', 10, 3, 0, true, 0)");
+    }
+
+    @Test
+    void heldCopiesAreConsumedWithTheRest() {
+        Set<Long> decremented = stockRepository.decrementQuantities(Map.of(1L, 4, 2L, 3), Map.of(1L, 2));
+
+        assertThat(decremented).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(stock(1)).containsExactly(1, 0, 1);
+        assertThat(stock(2)).containsExactly(0, 0, 1);
+    }
+
+    @Test
+    void booksWithoutEnoughFreeCopiesAreNotDecremented() {
+        // Only 3 Dune copies are free, and none of the 4 requested was held
+        Set<Long> decremented = stockRepository.decrementQuantities(Map.of(1L, 4, 2L, 1), Map.of());
+
+        assertThat(decremented).containsExactly(2L);
+        assertThat(stock(1)).containsExactly(5, 2, 0);
+        assertThat(stock(2)).containsExactly(2, 0, 1);
+    }
+
+    @Test
+    void checkoutWithAnOversoldBookLeavesNoBookDecremented() {
+        // As BookService.minusBookQuantity does, the checkout is rejected and its transaction rolled back
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            Map<Long, Integer> quantities = Map.of(1L, 4, 2L, 1);
+            Set<Long> decremented = stockRepository.decrementQuantities(quantities, Map.of());
+            List<Long> oversold = quantities.keySet().stream().filter(id -> !decremented.contains(id)).toList();
+            if (!oversold.isEmpty()) {
+                throw new StockNotEnoughException(oversold);
+            }
+        })).isInstanceOf(StockNotEnoughException.class);
+
+        assertThat(stock(1)).containsExactly(5, 2, 0);
+        assertThat(stock(2)).containsExactly(3, 0, 0);
+    }
+
+    @Test
+    void concurrentCheckoutsNeverOversell() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CHECKOUTS);
+        CountDownLatch start = new CountDownLatch(1);
+        int succeeded = 0;
+        try {
+            List<Future<Set<Long>>> results = new ArrayList<>();
+            for (int i = 0; i < CHECKOUTS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return stockRepository.decrementQuantities(Map.of(2L, 2), Map.of());
+                }));
+            }
+            start.countDown();
+            for (Future<Set<Long>> result : results) {
+                succeeded += result.get(30, TimeUnit.SECONDS).size();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Emma's 3 copies cover one checkout of 2, every other one finds a single copy left
+        assertThat(succeeded).isEqualTo(1);
+        assertThat(stock(2)).containsExactly(1, 0, 1);
+    }
+
+    @Test
+    void checkoutsTakingTheSameBooksInOppositeOrderDoNotDeadlock() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CHECKOUTS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Set<Long>>> results = new ArrayList<>();
+            for (int i = 0; i < CHECKOUTS; i++) {
+                // Half of the carts list Emma first, the other half Dune
+                Map<Long, Integer> quantities = new LinkedHashMap<>();
+                quantities.put(i % 2 == 0 ? 1L : 2L, 1);
+                quantities.put(i % 2 == 0 ? 2L : 1L, 1);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return transactionTemplate.execute(status -> stockRepository.decrementQuantities(quantities, Map.of()));
+                }));
+            }
+            start.countDown();
+            for (Future<Set<Long>> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Dune has 3 free copies and Emma 3, so three checkouts get both books and the last one neither
+        assertThat(stock(1)).containsExactly(2, 2, 3);
+        assertThat(stock(2)).containsExactly(0, 0, 3);
+    }
+
+    // The quantity, reserved copies and version of a book
+    private List<Integer> stock(long id) {
+        return jdbcTemplate.queryForObject("SELECT quantity, reserved, version FROM books WHERE id = ?",
+                (rs, rowNum) -> List.of(rs.getInt(1), rs.getInt(2), rs.getInt(3)), id);
+    }
+}
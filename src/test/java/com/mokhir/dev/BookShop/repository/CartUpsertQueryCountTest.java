@@ -0,0 +1,146 @@
+package com.mokhir.dev.BookShop.repository;
+
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartUpsert;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartUpsertRepositoryImpl;
+import com.mokhir.dev.BookShop.support.PostgresDatabase;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the statements sent to PostgreSQL when books are added to a cart. The upsert relies on
+ * INSERT ... ON CONFLICT inside a CTE, which only PostgreSQL runs. The tables, their unique index and the
+ * cart sequence are the ones the application creates from its entities and schema.sql. The native query
+ * that locks abandoned lines for the purge job is run here too.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(AuditingConfig.class)
+@EnabledIf("com.mokhir.dev.BookShop.support.PostgresDatabase#available")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CartUpsertQueryCountTest {
+    private static final String USER = "reader";
+
+    private final AtomicInteger statements = new AtomicInteger();
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    private CartUpsertRepositoryImpl cartRepository;
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        PostgresDatabase.register(registry);
+    }
+
+    @BeforeEach
+    void resetTables() {
+        jdbcTemplate.execute("TRUNCATE books CASCADE");
+        jdbcTemplate.update("INSERT INTO books (id, name, price, quantity, active, version) VALUES "
+                + "(1, 'Dune', 12, 5, true, 0), (2, 'Emma', 7, 3, true, 0), (3, 'Gone', 9, 10, false, 0)");
+        cartRepository = new CartUpsertRepositoryImpl(new JdbcTemplate(counting(dataSource)), entityManagerFactory);
+        // Take a block of cart IDs up front, so only the statements of the upserts are counted. The first value
+        // of a fresh cart sequence only reserves ID 1, the second one a full block.
+        cartRepository.nextCartId();
+        cartRepository.nextCartId();
+        statements.set(0);
+    }
+
+    @Test
+    void addingToCartIsOneStatement() {
+        CartUpsert started = cartRepository.addQuantity(USER, 1L, 2).orElseThrow();
+        CartUpsert grown = cartRepository.addQuantity(USER, 1L, 3).orElseThrow();
+        CartUpsert other = cartRepository.addQuantity(USER, 2L, 1).orElseThrow();
+
+        assertThat(statements.get()).isEqualTo(3);
+        assertThat(grown.cartId()).isEqualTo(started.cartId());
+        assertThat(grown.quantity()).isEqualTo(5);
+        assertThat(grown.totalPrice()).isEqualTo(60);
+        assertThat(grown.alreadyInCart()).isEqualTo(2);
+        assertThat(other.cartId()).isNotEqualTo(started.cartId());
+        // Growing a line bumps its version, so a concurrent versioned write of it fails, and stamps its activity
+        assertThat(jdbcTemplate.queryForObject("SELECT version FROM cart WHERE id = ?", Long.class, started.cartId()))
+                .isEqualTo(1L);
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM cart WHERE last_activity_at IS NULL", Integer.class))
+                .isZero();
+    }
+
+    @Test
+    void linesNeverExceedTheStockOrTakeInactiveBooks() {
+        cartRepository.addQuantity(USER, 1L, 4);
+
+        CartUpsert tooMany = cartRepository.addQuantity(USER, 1L, 2).orElseThrow();
+        CartUpsert inactive = cartRepository.addQuantity(USER, 3L, 1).orElseThrow();
+        Optional<CartUpsert> missing = cartRepository.addQuantity(USER, 99L, 1);
+
+        assertThat(tooMany.cartId()).isNull();
+        assertThat(tooMany.alreadyInCart()).isEqualTo(4);
+        assertThat(inactive.cartId()).isNull();
+        assertThat(inactive.active()).isFalse();
+        assertThat(missing).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("SELECT sum(quantity) FROM cart", Integer.class)).isEqualTo(4);
+    }
+
+    @Test
+    void abandonedLinesAreLockedInIdOrder() throws Exception {
+        cartRepository.addQuantity(USER, 1L, 1);
+        cartRepository.addQuantity("writer", 2L, 1);
+        cartRepository.addQuantity("writer", 1L, 1);
+        jdbcTemplate.update("UPDATE cart SET last_activity_at = now() - interval '31 days' WHERE created_by = 'writer'");
+        // The query exactly as CartRepository declares it
+        String lockAbandoned = CartRepository.class.getMethod("lockAbandonedIds", LocalDateTime.class, int.class)
+                .getAnnotation(Query.class).value();
+
+        List<Long> ids = new NamedParameterJdbcTemplate(jdbcTemplate).queryForList(lockAbandoned,
+                Map.of("before", LocalDateTime.now().minusDays(30), "limit", 10), Long.class);
+
+        assertThat(ids).hasSize(2).isSorted();
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM cart WHERE created_by = 'writer'", Long.class))
+                .containsExactlyInAnyOrderElementsOf(ids);
+    }
+
+    private DelegatingDataSource counting(DataSource target) {
+        return new DelegatingDataSource(target) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                        new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                            if (method.getName().equals("prepareStatement") || method.getName().equals("createStatement")) {
+                                statements.incrementAndGet();
+                            }
+                            return method.invoke(connection, args);
+                        });
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package com.mokhir.dev.BookShop.repository;
+
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Order;
+import com.mokhir.dev.BookShop.aggregation.entity.OrderDetails;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.repository.interfaces.OrderDetailsRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Saves the order details of a 50-line order with and without JDBC batching and compares
+ * the number of statements prepared.
+ */
+@DataJpaTest(properties = {
+        "spring.sql.init.mode=never",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(AuditingConfig.class)
+class OrderDetailsBatchInsertTest {
+    private static final int ORDER_LINES = 50;
+
+    @Autowired
+    private OrderDetailsRepository orderDetailsRepository;
+    @Autowired
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+    private List<Book> books;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        books = new ArrayList<>();
+        for (int i = 0; i < ORDER_LINES; i++) {
+            Book book = Book.builder().name("Book " + i).price(10).quantity(100).active(true).build();
+            entityManager.persist(book);
+            books.add(book);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void orderDetailsOfOneOrderAreInsertedInOneBatch() {
+        entityManager.unwrap(Session.class).setJdbcBatchSize(1);
+        statistics.clear();
+        insertOrder();
+        long unbatchedStatements = statistics.getPrepareStatementCount();
+
+        entityManager.unwrap(Session.class).setJdbcBatchSize(null);
+        statistics.clear();
+        insertOrder();
+        long batchedStatements = statistics.getPrepareStatementCount();
+
+        // Unbatched, every line is a statement of its own; batched, the order and its lines take one each,
+        // plus at most one sequence call per table
+        assertThat(unbatchedStatements).isGreaterThanOrEqualTo(ORDER_LINES + 1);
+        assertThat(batchedStatements).isLessThanOrEqualTo(4);
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(ORDER_LINES + 1);
+    }
+
+    private void insertOrder() {
+        Order order = Order.builder().totalAmount((long) ORDER_LINES).totalPrice(500L).status(true).build();
+        entityManager.persist(order);
+        List<OrderDetails> details = books.stream()
+                .map(book -> OrderDetails.builder()
+                        .order(order)
+                        .book(entityManager.getReference(Book.class, book.getId()))
+                        .price(book.getPrice())
+                        .quantity(1)
+                        .build())
+                .toList();
+        orderDetailsRepository.saveAll(details);
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
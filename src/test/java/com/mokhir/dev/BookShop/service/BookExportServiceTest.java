@@ -0,0 +1,75 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.utils.BookFileFormat;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({BookExportService.class, BookMapper.class, AuditingConfig.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+class BookExportServiceTest {
+    private static final int BOOKS = 1500;
+
+    @Autowired
+    private BookExportService exportService;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < BOOKS; i++) {
+            entityManager.persist(Book.builder().name("Book, \"" + i + "\"").price(10 + i).quantity(i % 7 + 1)
+                    .active(true).build());
+        }
+        entityManager.persist(Book.builder().name("Removed").price(10).quantity(1).active(false).build());
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void activeBooksAreExportedInImportFormatWithoutFillingThePersistenceContext() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long exported = exportService.exportBooks(out, BookFileFormat.CSV);
+
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(exported).isEqualTo(BOOKS);
+        assertThat(lines).hasSize(BOOKS + 1);
+        assertThat(lines.get(0)).isEqualTo(BookFileFormat.CSV_HEADER);
+        BookRequest last = BookFileFormat.CSV.read(lines.get(BOOKS), objectMapper);
+        assertThat(last.getName()).isEqualTo("Book, \"" + (BOOKS - 1) + "\"");
+        assertThat(last.getPrice()).isEqualTo(10 + BOOKS - 1);
+        assertThat(entityManager.unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+    }
+
+    @Test
+    void ndjsonExportHasNoHeader() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exportService.exportBooks(out, BookFileFormat.NDJSON);
+
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(lines).hasSize(BOOKS);
+        assertThat(BookFileFormat.NDJSON.read(lines.get(0), objectMapper).getName()).isEqualTo("Book, \"0\"");
+    }
+}
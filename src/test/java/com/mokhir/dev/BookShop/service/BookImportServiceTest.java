@@ -0,0 +1,168 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookImportError;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookImportResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.User;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.job.BookNameBackfillJob;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.BookFileFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = {
+        "spring.sql.init.mode=never",
+        "book.import.batch-size=100",
+        "book.import.max-errors=2"
+})
+@Import({BookImportService.class, BookExportService.class, BookMapper.class, BookNameBackfillJob.class,
+        AuditingConfig.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookImportServiceTest {
+    private static final String AUTHOR = "author";
+
+    @MockBean
+    private UserService userService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookSuggestIndex suggestIndex;
+    @MockBean
+    private CacheManager cacheManager;
+    @Autowired
+    private BookImportService importService;
+    @Autowired
+    private BookExportService exportService;
+    @SpyBean
+    private BookRepository bookRepository;
+
+    @BeforeEach
+    void setUp() {
+        when(jwtProvider.getCurrentUser()).thenReturn(AUTHOR);
+        when(userService.findUserByUsername(AUTHOR)).thenReturn(new User());
+    }
+
+    @AfterEach
+    void cleanUp() {
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void csvRowsAreImportedInChunksAndDuplicatesAreReported() {
+        Book existing = Book.builder().name("Existing Book").price(10).quantity(1).active(true).build();
+        existing.setCreatedBy(AUTHOR);
+        bookRepository.save(existing);
+        StringBuilder csv = new StringBuilder("name,price,quantity\n");
+        for (int i = 0; i < 250; i++) {
+            csv.append("\"Book, volume ").append(i).append("\",").append(10 + i).append(",5\n");
+        }
+        csv.append("existing book,10,1\n");   // line 252: already in the catalog
+        csv.append("Book, volume 3,10,1\n");  // line 253: four columns
+        csv.append("\"Book, volume 7\",10,1\n"); // line 254: already imported from this file
+        csv.append("Free book,0,1\n");        // line 255: price must be positive
+
+        BookImportResponse response = importService.importBooks(stream(csv.toString()), BookFileFormat.CSV);
+
+        assertThat(response.getImported()).isEqualTo(250);
+        assertThat(response.getFailed()).isEqualTo(4);
+        assertThat(response.getErrors()).extracting(BookImportError::getLine).containsExactly(252L, 253L);
+        assertThat(response.getErrorsTruncated()).isTrue();
+        assertThat(bookRepository.count()).isEqualTo(251);
+        assertThat(bookRepository.existsByCreatedByAndNormalizedName(AUTHOR, "book,volume249")).isTrue();
+    }
+
+    @Test
+    void rowWrittenConcurrentlyIsTheOnlyOneRejectedFromItsChunk() {
+        // Another request stores one of the names after the chunk was checked for duplicates
+        doAnswer(invocation -> {
+            Book concurrent = Book.builder().name("Second").price(10).quantity(1).active(true).build();
+            concurrent.setCreatedBy(AUTHOR);
+            bookRepository.save(concurrent);
+            return Set.of();
+        }).when(bookRepository).findExistingNormalizedNames(eq(AUTHOR), anyCollection());
+        String csv = "name,price,quantity\nFirst,10,1\nSecond,20,2\nThird,30,3\n";
+
+        BookImportResponse response = importService.importBooks(stream(csv), BookFileFormat.CSV);
+
+        assertThat(response.getImported()).isEqualTo(2);
+        assertThat(response.getErrors()).singleElement().satisfies(error -> {
+            assertThat(error.getLine()).isEqualTo(3L);
+            assertThat(error.getMessage()).contains("already exists");
+        });
+        assertThat(bookRepository.findAllBooksByCreatedBy(AUTHOR)).extracting(Book::getName)
+                .containsExactlyInAnyOrder("First", "Second", "Third");
+    }
+
+    @Test
+    void csvExportWithLineBreaksIsImportedAgain() {
+        List<String> names = List.of("Line one\nline two", "Quote \"and\", comma", "Windows\r\nbreak", "Plain");
+        for (String name : names) {
+            Book book = Book.builder().name(name).price(10).quantity(2).active(true).build();
+            book.setCreatedBy("exporter");
+            bookRepository.save(book);
+        }
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        exportService.exportBooks(export, BookFileFormat.CSV);
+        String csv = export.toString(StandardCharsets.UTF_8) + "\"Never closed,10,1\nNext,10,1\n";
+
+        BookImportResponse response = importService.importBooks(stream(csv), BookFileFormat.CSV);
+
+        // Line breaks inside quotes are read back as line feeds
+        assertThat(bookRepository.findAllBooksByCreatedBy(AUTHOR)).extracting(Book::getName)
+                .containsExactlyInAnyOrder("Line one\nline two", "Quote \"and\", comma", "Windows\nbreak", "Plain");
+        assertThat(response.getImported()).isEqualTo(4);
+        // The header and two books of two lines each come first, the unterminated quote swallows the rest
+        assertThat(response.getErrors()).singleElement().satisfies(error -> {
+            assertThat(error.getLine()).isEqualTo(8L);
+            assertThat(error.getMessage()).contains("Unterminated");
+        });
+    }
+
+    @Test
+    void ndjsonRowsAreImported() {
+        String ndjson = """
+                {"name": "First", "price": 10, "quantity": 2}
+
+                {"name": "Second", "price": 20, "quantity": 3}
+                {"name": "Broken", "price":
+                """;
+
+        BookImportResponse response = importService.importBooks(stream(ndjson), BookFileFormat.NDJSON);
+
+        assertThat(response.getImported()).isEqualTo(2);
+        assertThat(response.getErrors()).extracting(BookImportError::getLine).isEqualTo(List.of(4L));
+        assertThat(bookRepository.findAllBooksByCreatedBy(AUTHOR)).extracting(Book::getName)
+                .containsExactlyInAnyOrder("First", "Second");
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
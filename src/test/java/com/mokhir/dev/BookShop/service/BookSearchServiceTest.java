@@ -0,0 +1,60 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.CursorPage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSearchHit;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.exceptions.InvalidCursorException;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.CursorCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class BookSearchServiceTest {
+    private final BookRepository repository = mock(BookRepository.class);
+    private final BookSearchService searchService = new BookSearchService(repository);
+
+    @Test
+    void everyWordBecomesARequiredPrefix() {
+        assertThat(BookSearchService.toPrefixTsQuery("War  & Pea")).isEqualTo("war:* & pea:*");
+        assertThat(BookSearchService.toPrefixTsQuery("O'Brien: 1984!")).isEqualTo("o:* & brien:* & 1984:*");
+        assertThat(BookSearchService.toPrefixTsQuery("Ўткан кунлар")).isEqualTo("ўткан:* & кунлар:*");
+        assertThat(BookSearchService.toPrefixTsQuery(" :*|! ")).isEmpty();
+    }
+
+    @Test
+    void queriesWithoutWordsAreRejected() {
+        assertThatThrownBy(() -> searchService.search("!!", null, 10)).isInstanceOf(ApiControllerException.class);
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void nextCursorCarriesRankAndIdOfTheLastHit() throws ApiControllerException {
+        when(repository.search("war:*", null, null, 3)).thenReturn(List.of(hit(7L, 0.9f), hit(3L, 0.6f), hit(9L, 0.6f)));
+        when(repository.search("war:*", 0.6f, 3L, 3)).thenReturn(List.of(hit(9L, 0.6f)));
+
+        CursorPage<BookResponse> first = searchService.search("war", null, 2);
+        CursorPage<BookResponse> second = searchService.search("war", first.getNextCursor(), 2);
+
+        assertThat(first.getContent()).extracting(BookResponse::getId).containsExactly(7L, 3L);
+        assertThat(first.getHasNext()).isTrue();
+        assertThat(second.getContent()).extracting(BookResponse::getId).containsExactly(9L);
+        assertThat(second.getHasNext()).isFalse();
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    @Test
+    void cursorsOfOtherEndpointsAreRejected() {
+        assertThatThrownBy(() -> searchService.search("war", CursorCodec.encode(5L), 2))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+
+    private static BookSearchHit hit(Long id, float rank) {
+        return new BookSearchHit(BookResponse.builder().id(id).build(), rank);
+    }
+}
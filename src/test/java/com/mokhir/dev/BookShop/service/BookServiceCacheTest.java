@@ -0,0 +1,181 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookLookup;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.config.CacheConfig;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.support.EmbeddedRedis;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.cache.CacheStatistics;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(classes = {BookService.class, BookMapper.class, CacheConfig.class, CacheBatchReader.class},
+        properties = {
+                "spring.cache.type=redis",
+                "spring.cache.cache-names=books,bookPages",
+                "spring.cache.redis.enable-statistics=true"
+        })
+@ImportAutoConfiguration({AopAutoConfiguration.class, RedisAutoConfiguration.class, CacheAutoConfiguration.class})
+class BookServiceCacheTest {
+    @MockBean
+    private BookRepository bookRepository;
+    @MockBean
+    private UserService userService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookSuggestIndex suggestIndex;
+    @Autowired
+    private BookService bookService;
+    @Autowired
+    private CacheManager cacheManager;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.port", EmbeddedRedis::port);
+    }
+
+    @BeforeEach
+    void clearCaches() {
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    void getByIdIsServedFromCacheAfterFirstRead() {
+        when(bookRepository.findViewById(1L)).thenReturn(Optional.of(view(1L, 5)));
+        CacheStatistics before = statistics(CacheConfig.BOOKS);
+        long hits = before.getHits();
+        long misses = before.getMisses();
+
+        BookResponse first = bookService.getById("1");
+        BookResponse second = bookService.getById("1");
+
+        assertThat(second.getName()).isEqualTo(first.getName());
+        verify(bookRepository, times(1)).findViewById(1L);
+        CacheStatistics after = statistics(CacheConfig.BOOKS);
+        assertThat(after.getMisses() - misses).isEqualTo(1);
+        assertThat(after.getHits() - hits).isEqualTo(1);
+    }
+
+    @Test
+    void updateEvictsBookAndPages() {
+        when(bookRepository.findById(2L)).thenReturn(Optional.of(book(2L, 5)));
+        when(bookRepository.findViewById(2L)).thenReturn(Optional.of(view(2L, 5)));
+        when(bookRepository.findViewsByActiveTrueOrderByIdAsc(any(PageRequest.class)))
+                .thenReturn(new PageImpl<>(List.of(view(2L, 5)), PageRequest.of(0, 10), 1));
+        when(jwtProvider.getCurrentUser()).thenReturn("author");
+        bookService.getById("2");
+        bookService.findAll(PageRequest.of(0, 10));
+        long deletes = statistics(CacheConfig.BOOKS).getDeletes();
+
+        BookRequest request = new BookRequest(2L, "Renamed", 20, 7, null);
+        bookService.update(request);
+        BookView renamed = new BookView(2L, "Renamed", 20, 7, 1L);
+        when(bookRepository.findViewsByActiveTrueOrderByIdAsc(any(PageRequest.class)))
+                .thenReturn(new PageImpl<>(List.of(renamed), PageRequest.of(0, 10), 1));
+        bookService.getById("2");
+        Page<BookResponse> page = bookService.findAll(PageRequest.of(0, 10));
+
+        verify(bookRepository, times(2)).findViewById(2L);
+        verify(bookRepository, times(2)).findViewsByActiveTrueOrderByIdAsc(any(PageRequest.class));
+        assertThat(page.getContent().get(0).getName()).isEqualTo("Renamed");
+        assertThat(statistics(CacheConfig.BOOKS).getDeletes()).isGreaterThan(deletes);
+    }
+
+    @Test
+    void stockDecrementEvictsAffectedBooks() {
+        Book book = book(3L, 5);
+        when(bookRepository.findViewById(3L)).thenReturn(Optional.of(view(3L, 5)));
+        when(bookRepository.decrementQuantities(Map.of(3L, 2), Map.of(3L, 2))).thenReturn(Set.of(3L));
+        bookService.getById("3");
+
+        bookService.minusBookQuantity(List.of(Cart.builder().book(book).quantity(2).build()), Map.of(3L, 2));
+        when(bookRepository.findViewById(3L)).thenReturn(Optional.of(view(3L, 3)));
+        BookResponse reloaded = bookService.getById("3");
+
+        assertThat(reloaded.getQuantity()).isEqualTo(3);
+    }
+
+    @Test
+    void batchGetReadsCachedBooksAtOnceAndLoadsTheRestInOneQuery() throws Exception {
+        when(bookRepository.findViewById(4L)).thenReturn(Optional.of(view(4L, 5)));
+        when(bookRepository.findViewsByIdIn(List.of(6L, 99L))).thenReturn(List.of(view(6L, 1)));
+        bookService.getById("4");
+        CacheStatistics before = statistics(CacheConfig.BOOKS);
+
+        List<BookLookup> books = bookService.getByIds(List.of(6L, 4L, 99L, 6L));
+
+        assertThat(books).extracting(BookLookup::getId).containsExactly(6L, 4L, 99L, 6L);
+        assertThat(books).extracting(BookLookup::getFound).containsExactly(true, true, false, true);
+        assertThat(books.get(1).getBook().getName()).isEqualTo("Book 4");
+        verify(bookRepository).findViewsByIdIn(List.of(6L, 99L));
+        // The multi-get counts like three single reads: book 4 was cached, 6 and 99 were not
+        CacheStatistics after = statistics(CacheConfig.BOOKS);
+        assertThat(after.getGets() - before.getGets()).isEqualTo(3);
+        assertThat(after.getHits() - before.getHits()).isEqualTo(1);
+        assertThat(after.getMisses() - before.getMisses()).isEqualTo(2);
+
+        // Books loaded by the batch are cached for the next batch and for single reads
+        List<BookLookup> again = bookService.getByIds(List.of(4L, 6L));
+        assertThat(again).extracting(BookLookup::getFound).containsExactly(true, true);
+        assertThat(bookService.getById("6").getQuantity()).isEqualTo(1);
+        verify(bookRepository, times(1)).findViewsByIdIn(any());
+        verify(bookRepository, never()).findViewById(6L);
+    }
+
+    @Test
+    void batchGetRejectsTooManyIds() {
+        List<Long> ids = LongStream.rangeClosed(1, 101).boxed().toList();
+        assertThatThrownBy(() -> bookService.getByIds(ids))
+                .isInstanceOf(ApiControllerException.class);
+    }
+
+    private CacheStatistics statistics(String cacheName) {
+        TransactionAwareCacheDecorator decorator = (TransactionAwareCacheDecorator) cacheManager.getCache(cacheName);
+        return ((RedisCache) decorator.getTargetCache()).getStatistics();
+    }
+
+    private static BookView view(Long id, int quantity) {
+        return new BookView(id, "Book " + id, 10, quantity, 0L);
+    }
+
+    private static Book book(Long id, int quantity) {
+        Book book = Book.builder().id(id).name("Book " + id).price(10).quantity(quantity).active(true).build();
+        book.setCreatedBy("author");
+        return book;
+    }
+}
@@ -0,0 +1,109 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.CursorPage;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.utils.CursorCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({BookService.class, BookMapper.class, AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookServiceCursorTest {
+    @MockBean
+    private UserService userService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookSuggestIndex suggestIndex;
+    @MockBean
+    private CacheBatchReader cacheBatchReader;
+    @MockBean
+    private CacheManager cacheManager;
+    @Autowired
+    private BookService bookService;
+    @Autowired
+    private BookRepository bookRepository;
+
+    @AfterEach
+    void cleanUp() {
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void pagesFollowEachOtherWithoutGapsOrRepeats() {
+        List<Long> active = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            active.add(book("Book " + i, "author", true));
+            book("Hidden " + i, "author", false);
+        }
+
+        List<Long> seen = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        Long afterId = 0L;
+        CursorPage<BookResponse> page;
+        do {
+            page = bookService.findAllAfter(afterId, 3);
+            page.getContent().forEach(book -> seen.add(book.getId()));
+            sizes.add(page.getSize());
+            afterId = page.getHasNext() ? CursorCodec.decodeId(page.getNextCursor()) : null;
+        } while (afterId != null);
+
+        // Six books fill exactly two pages, so the second one ends the listing rather than pointing at an empty one
+        assertThat(sizes).containsExactly(3, 3);
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(seen).isEqualTo(active);
+    }
+
+    @Test
+    void authorPagesStopAtTheLastBookOfTheAuthor() {
+        Long first = book("Dune", "author", true);
+        book("Emma", "other", true);
+        Long second = book("Ulysses", "author", false);
+
+        CursorPage<BookResponse> page = bookService.findAllBooksByCreatedByAfter("author", 0L, 1);
+        assertThat(page.getContent()).extracting(BookResponse::getId).containsExactly(first);
+        assertThat(page.getHasNext()).isTrue();
+
+        page = bookService.findAllBooksByCreatedByAfter("author", CursorCodec.decodeId(page.getNextCursor()), 1);
+        assertThat(page.getContent()).extracting(BookResponse::getId).containsExactly(second);
+        assertThat(page.getHasNext()).isFalse();
+        assertThat(bookService.findAllBooksByCreatedByAfter("author", second, 1).getContent()).isEmpty();
+    }
+
+    @Test
+    void pageSizeIsKeptWithinBounds() {
+        for (int i = 0; i < 101; i++) {
+            book("Book " + i, "author", true);
+        }
+
+        assertThat(bookService.findAllAfter(0L, Integer.MAX_VALUE).getSize()).isEqualTo(100);
+        assertThat(bookService.findAllAfter(0L, Integer.MAX_VALUE).getHasNext()).isTrue();
+        assertThat(bookService.findAllAfter(0L, 0).getSize()).isEqualTo(1);
+        assertThat(bookService.findAllBooksByCreatedByAfter("author", 0L, Integer.MAX_VALUE).getSize()).isEqualTo(100);
+    }
+
+    private Long book(String name, String createdBy, boolean active) {
+        Book book = Book.builder().name(name).price(10).quantity(1).active(active).build();
+        book.setCreatedBy(createdBy);
+        return bookRepository.save(book).getId();
+    }
+}
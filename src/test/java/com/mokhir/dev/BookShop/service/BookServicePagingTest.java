@@ -0,0 +1,102 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lists a catalog in which every other book is inactive: pages must only hold active books, come back full
+ * and count only active books, and slices must not count at all.
+ */
+@DataJpaTest(properties = {
+        "spring.sql.init.mode=never",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({BookService.class, BookMapper.class, AuditingConfig.class})
+class BookServicePagingTest {
+    private static final int ACTIVE = 7;
+
+    @MockBean
+    private UserService userService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookSuggestIndex suggestIndex;
+    @MockBean
+    private CacheBatchReader cacheBatchReader;
+    @MockBean
+    private CacheManager cacheManager;
+    @Autowired
+    private BookService bookService;
+    @Autowired
+    private EntityManager entityManager;
+
+    private final List<Long> active = new ArrayList<>();
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < ACTIVE; i++) {
+            entityManager.persist(Book.builder().name("Hidden " + i).price(10).quantity(1).active(false).build());
+            Book book = Book.builder().name("Book " + i).price(10).quantity(1).active(true).build();
+            entityManager.persist(book);
+            active.add(book.getId());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void pagesHoldOnlyActiveBooksAndCountOnlyThem() {
+        Page<BookResponse> first = bookService.findAll(PageRequest.of(0, 3));
+        Page<BookResponse> last = bookService.findAll(PageRequest.of(2, 3));
+
+        assertThat(first.getContent()).extracting(BookResponse::getId).containsExactlyElementsOf(active.subList(0, 3));
+        assertThat(last.getContent()).extracting(BookResponse::getId).containsExactlyElementsOf(active.subList(6, 7));
+        assertThat(first.getTotalElements()).isEqualTo(ACTIVE);
+        assertThat(first.getTotalPages()).isEqualTo(3);
+        assertThat(last.hasNext()).isFalse();
+    }
+
+    @Test
+    void slicesTellWhetherMoreFollowWithoutCounting() {
+        Slice<BookResponse> first = bookService.findAllSlice(PageRequest.of(0, 3));
+        long statements = statistics.getPrepareStatementCount();
+        Slice<BookResponse> last = bookService.findAllSlice(PageRequest.of(2, 3));
+
+        assertThat(first).isNotInstanceOf(Page.class);
+        assertThat(first.getContent()).extracting(BookResponse::getId).containsExactlyElementsOf(active.subList(0, 3));
+        assertThat(first.hasNext()).isTrue();
+        assertThat(last.getContent()).extracting(BookResponse::getId).containsExactlyElementsOf(active.subList(6, 7));
+        assertThat(last.hasNext()).isFalse();
+        // The page of books is the only statement, where a Page would add a COUNT
+        assertThat(statements).isEqualTo(1);
+
+        statistics.clear();
+        bookService.findAll(PageRequest.of(0, 3));
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+}
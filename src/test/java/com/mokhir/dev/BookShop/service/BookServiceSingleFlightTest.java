@@ -0,0 +1,98 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookView;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BookServiceSingleFlightTest {
+    private static final long[] HOT_BOOKS = {1L, 2L, 3L};
+    private static final int CALLERS_PER_BOOK = 4;
+
+    @Test
+    void lookupsOfABookBeingLoadedShareItsQuery() throws Exception {
+        BookRepository repository = mock(BookRepository.class);
+        Map<Long, AtomicInteger> queries = new ConcurrentHashMap<>();
+        CountDownLatch loading = new CountDownLatch(HOT_BOOKS.length);
+        CountDownLatch release = new CountDownLatch(1);
+        when(repository.findViewById(anyLong())).thenAnswer(invocation -> {
+            Long id = invocation.getArgument(0);
+            queries.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+            // The database read lasts until every other lookup of the book has joined it
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(new BookView(id, "Book " + id, 10, 5, 0L));
+        });
+        BookService bookService = new BookService(repository, new BookMapper(), mock(UserService.class),
+                mock(JwtProvider.class), repository, mock(CacheManager.class), mock(BookSuggestIndex.class),
+                mock(CacheBatchReader.class));
+
+        ExecutorService executor = Executors.newFixedThreadPool(HOT_BOOKS.length * CALLERS_PER_BOOK);
+        Queue<Thread> followers = new ConcurrentLinkedQueue<>();
+        List<Future<BookResponse>> responses = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        try {
+            // One lookup per book starts its query
+            for (long id : HOT_BOOKS) {
+                responses.add(executor.submit(() -> bookService.getById(String.valueOf(id))));
+                expected.add(id);
+            }
+            assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // The others arrive while the queries are running
+            for (int i = 1; i < CALLERS_PER_BOOK; i++) {
+                for (long id : HOT_BOOKS) {
+                    responses.add(executor.submit(() -> {
+                        followers.add(Thread.currentThread());
+                        return bookService.getById(String.valueOf(id));
+                    }));
+                    expected.add(id);
+                }
+            }
+            awaitWaiting(followers, HOT_BOOKS.length * (CALLERS_PER_BOOK - 1));
+            release.countDown();
+
+            for (int i = 0; i < responses.size(); i++) {
+                assertThat(responses.get(i).get(5, TimeUnit.SECONDS).getId()).isEqualTo(expected.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(queries).containsOnlyKeys(1L, 2L, 3L);
+        assertThat(queries.values()).allSatisfy(count -> assertThat(count).hasValue(1));
+    }
+
+    // Waits until every follower is parked on the query in flight
+    private static void awaitWaiting(Queue<Thread> followers, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (followers.size() < count
+                || !followers.stream().allMatch(thread -> thread.getState() == Thread.State.WAITING)) {
+            assertThat(System.nanoTime()).as("followers waiting").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.config.CacheBatchReader;
+import com.mokhir.dev.BookShop.exceptions.PreconditionFailedException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({BookService.class, BookMapper.class, AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookServiceVersionTest {
+    @MockBean
+    private UserService userService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookSuggestIndex suggestIndex;
+    @MockBean
+    private CacheBatchReader cacheBatchReader;
+    @MockBean
+    private CacheManager cacheManager;
+    @Autowired
+    private BookService bookService;
+    @Autowired
+    private BookRepository bookRepository;
+
+    @AfterEach
+    void cleanUp() {
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void updateBumpsTheVersionAndRejectsStaleVersions() {
+        Book book = Book.builder().name("Dune").price(20).quantity(3).active(true).build();
+        book.setCreatedBy("author");
+        Long id = bookRepository.save(book).getId();
+        when(jwtProvider.getCurrentUser()).thenReturn("author");
+
+        BookResponse updated = bookService.update(new BookRequest(id, "Dune", 25, 3, 0L));
+
+        assertThat(updated.getVersion()).isEqualTo(1L);
+        assertThat(updated.getPrice()).isEqualTo(25);
+        assertThatThrownBy(() -> bookService.update(new BookRequest(id, "Dune", 30, 3, 0L)))
+                .isInstanceOf(PreconditionFailedException.class);
+        assertThat(bookRepository.findById(id)).get().extracting(Book::getPrice).isEqualTo(25);
+        assertThat(bookService.update(new BookRequest(id, "Dune", 30, 3, null)).getVersion()).isEqualTo(2L);
+    }
+}
@@ -0,0 +1,122 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookSuggestion;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BookSuggestIndexTest {
+    private final BookRepository repository = mock(BookRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private BookSuggestIndex index(int maxEntries) {
+        return new BookSuggestIndex(repository, mock(EntityManager.class), mock(PlatformTransactionManager.class),
+                meterRegistry, maxEntries, 50);
+    }
+
+    @Test
+    void prefixesAreCompletedIgnoringCaseAndSpaces() {
+        BookSuggestIndex index = index(100);
+        index.put(book(1L, "War and Peace"));
+        index.put(book(2L, "Warden"));
+        index.put(book(3L, "war  and Peace"));
+        index.put(book(4L, "Peace"));
+
+        assertThat(index.suggest("WAR", 10)).extracting(BookSuggestion::getId).containsExactly(1L, 3L, 2L);
+        assertThat(index.suggest("  war  a", 10)).extracting(BookSuggestion::getId).containsExactly(1L, 3L);
+        assertThat(index.suggest("war ", 10)).extracting(BookSuggestion::getId).containsExactly(1L, 3L);
+        assertThat(index.suggest("war", 1)).extracting(BookSuggestion::getId).containsExactly(1L);
+        assertThat(index.suggest(" ", 10)).isEmpty();
+    }
+
+    @Test
+    void writesKeepTheIndexCurrent() {
+        BookSuggestIndex index = index(100);
+        index.put(book(1L, "Dune"));
+        index.put(book(1L, "Dune Messiah"));
+        index.put(book(2L, "Dusk"));
+
+        assertThat(index.suggest("dune", 10)).extracting(BookSuggestion::getName).containsExactly("Dune Messiah");
+
+        Book removed = book(2L, "Dusk");
+        removed.setActive(false);
+        index.put(removed);
+        index.remove(1L);
+
+        assertThat(index.suggest("du", 10)).isEmpty();
+        assertThat(index.size()).isZero();
+        assertThat(index.estimatedBytes()).isZero();
+    }
+
+    @Test
+    void sizeIsCappedAndReported() {
+        BookSuggestIndex index = index(2);
+        index.put(book(1L, "A"));
+        index.put(book(2L, "B"));
+        index.put(book(3L, "C"));
+        index.put(book(1L, "Renamed A"));
+
+        assertThat(index.suggest("c", 10)).isEmpty();
+        assertThat(index.suggest("renamed", 10)).hasSize(1);
+        assertThat(meterRegistry.get("book.suggest.entries").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("book.suggest.memory").gauge().value()).isPositive();
+        assertThat(meterRegistry.get("book.suggest.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void loadIndexesActiveBooksAndServesPrefixesFromMemory() {
+        int books = 200_000;
+        when(repository.streamByActiveTrueOrderByIdAsc()).thenReturn(
+                LongStream.rangeClosed(1, books).mapToObj(id -> book(id, "Book " + Long.toString(id * 7919, 36))));
+        BookSuggestIndex index = index(books);
+
+        index.load();
+
+        assertThat(index.size()).isEqualTo(books);
+        assertThat(index.suggest("book 1", 10)).hasSize(10)
+                .allSatisfy(suggestion -> assertThat(suggestion.getName()).startsWith("Book 1"));
+        assertThat(index.suggest("nothing", 10)).isEmpty();
+    }
+
+    @Test
+    void writesDuringALoadAreNotUndoneByIt() {
+        BookSuggestIndex index = index(100);
+        // The stream read the books before they were written: 2 is deactivated, 3 renamed, 4 deactivated and back
+        when(repository.streamByActiveTrueOrderByIdAsc()).thenReturn(Stream.of(1L, 2L, 3L, 4L).map(id -> {
+            if (id == 2L) {
+                index.remove(2L);
+            } else if (id == 3L) {
+                index.put(book(3L, "Emma"));
+            } else if (id == 4L) {
+                index.remove(4L);
+                index.put(book(4L, "Dusk"));
+            }
+            return book(id, "Dune " + id);
+        }));
+
+        index.load();
+
+        assertThat(index.suggest("d", 10)).extracting(BookSuggestion::getName).containsExactly("Dune 1", "Dusk");
+        assertThat(index.suggest("emma", 10)).extracting(BookSuggestion::getId).containsExactly(3L);
+        assertThat(index.size()).isEqualTo(3);
+
+        // Once the load is done, writes apply as they come
+        index.remove(1L);
+        index.put(book(2L, "Dune 2"));
+        assertThat(index.suggest("dune", 10)).extracting(BookSuggestion::getId).containsExactly(2L);
+    }
+
+    private static Book book(Long id, String name) {
+        return Book.builder().id(id).name(name).active(true).build();
+    }
+}
@@ -0,0 +1,163 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.ResponseMessage;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.StockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation.Type.ADD;
+import static com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation.Type.REMOVE;
+import static com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation.Type.SET;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({CartService.class, CartMapper.class, BookMapper.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CartServiceBatchTest {
+    private static final String USER = "reader";
+
+    @MockBean
+    private JwtProvider jwtProvider;
+    @Autowired
+    private CartService cartService;
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Book dune;
+    private Book emma;
+    private Book gone;
+
+    @BeforeEach
+    void setUp() {
+        when(jwtProvider.getCurrentUser()).thenReturn(USER);
+        dune = bookRepository.save(Book.builder().name("Dune").price(12).quantity(5).active(true).build());
+        emma = bookRepository.save(Book.builder().name("Emma").price(7).quantity(3).active(true).build());
+        gone = bookRepository.save(Book.builder().name("Gone").price(9).quantity(4).active(true).build());
+        line(dune, 1);
+        line(gone, 2);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        stockReservationRepository.deleteAllInBatch();
+        cartRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void allOperationsAreAppliedTogetherAndMoveTheHolds() throws Exception {
+        ResponseMessage<List<CartResponse>> response = cartService.applyBatch(batch(
+                operation(ADD, dune, 2), operation(SET, emma, 3), operation(REMOVE, gone, 2), operation(ADD, dune, 1)));
+
+        assertThat(response.getEntities()).extracting(CartResponse::getQuantity).containsExactly(4, 3);
+        assertThat(response.getMessage()).isEqualTo("Applied 4 operations to 3 books");
+        assertThat(quantities()).isEqualTo(Map.of(dune.getId(), 4, emma.getId(), 3));
+        assertThat(cartRepository.findAllByCreatedBy(USER))
+                .filteredOn(cart -> cart.getBook().getId().equals(emma.getId()))
+                .singleElement().satisfies(cart -> assertThat(cart.getTotalPrice()).isEqualTo(21));
+        assertThat(reserved(dune)).isEqualTo(4);
+        assertThat(reserved(emma)).isEqualTo(3);
+        assertThat(reserved(gone)).isZero();
+        assertThat(stockReservationRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void batchWithABookShortOfCopiesChangesNothing() {
+        // Another cart holds the last copies of Emma
+        stockReservationService.hold(999L, emma.getId(), 3);
+
+        assertThatThrownBy(() -> cartService.applyBatch(batch(
+                operation(ADD, dune, 4), operation(ADD, emma, 1), operation(REMOVE, gone, 1))))
+                .isInstanceOf(StockNotEnoughException.class)
+                .hasMessageContaining(String.valueOf(emma.getId()));
+
+        assertThat(quantities()).isEqualTo(Map.of(dune.getId(), 1, gone.getId(), 2));
+        assertThat(reserved(dune)).isEqualTo(1);
+        assertThat(reserved(gone)).isEqualTo(2);
+    }
+
+    @Test
+    void booksOutsideTheCartThatEndAtZeroAreLeftAlone() throws Exception {
+        cartService.applyBatch(batch(operation(SET, emma, 0)));
+        cartService.applyBatch(batch(operation(ADD, emma, 2), operation(REMOVE, emma, 2), operation(ADD, dune, 1)));
+
+        assertThat(quantities()).isEqualTo(Map.of(dune.getId(), 2, gone.getId(), 2));
+        assertThat(reserved(emma)).isZero();
+        assertThat(reserved(dune)).isEqualTo(2);
+    }
+
+    @Test
+    void invalidOperationsAreRejected() {
+        assertThatThrownBy(() -> cartService.applyBatch(batch(operation(REMOVE, gone, 1), operation(REMOVE, gone, 2))))
+                .isInstanceOf(ApiControllerException.class)
+                .hasMessageContaining("Operation 1");
+        assertThatThrownBy(() -> cartService.applyBatch(batch()))
+                .isInstanceOf(ApiControllerException.class);
+        // Dune is in the cart once, so adding the largest quantity would wrap around to a negative line
+        assertThatThrownBy(() -> cartService.applyBatch(batch(operation(ADD, dune, Integer.MAX_VALUE))))
+                .isInstanceOf(ApiControllerException.class)
+                .hasMessageContaining("Operation 0");
+
+        assertThat(quantities()).isEqualTo(Map.of(dune.getId(), 1, gone.getId(), 2));
+    }
+
+    private void line(Book book, int quantity) {
+        Cart cart = Cart.builder().book(book).quantity(quantity).totalPrice(quantity * book.getPrice()).build();
+        cart.setCreatedBy(USER);
+        cart = cartRepository.save(cart);
+        stockReservationService.hold(cart.getId(), book.getId(), quantity);
+    }
+
+    private Map<Long, Integer> quantities() {
+        return cartRepository.findAllByCreatedBy(USER).stream()
+                .collect(Collectors.toMap(cart -> cart.getBook().getId(), Cart::getQuantity));
+    }
+
+    private int reserved(Book book) {
+        return jdbcTemplate.queryForObject("SELECT reserved FROM books WHERE id = ?", Integer.class, book.getId());
+    }
+
+    private static CartOperation operation(CartOperation.Type type, Book book, int quantity) {
+        return CartOperation.builder().type(type).bookId(book.getId()).quantity(quantity).build();
+    }
+
+    private static CartBatchRequest batch(CartOperation... operations) {
+        return CartBatchRequest.builder().operations(List.of(operations)).build();
+    }
+}
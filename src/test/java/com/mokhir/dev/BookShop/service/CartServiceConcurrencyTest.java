@@ -0,0 +1,220 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartRequest;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.ConcurrentUpdateException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.StockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({CartService.class, CartMapper.class, BookMapper.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CartServiceConcurrencyTest {
+    private static final int DEVICES = 8;
+    private static final int WRITES = 5;
+
+    // One write racing as many others can lose to each of them once, so this many devices is the most that
+    // the configured attempts are sure to serve
+    @Value("${cart.write.max-attempts}")
+    private int maxAttempts;
+
+    @MockBean
+    private JwtProvider jwtProvider;
+    @Autowired
+    private CartService cartService;
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private OptimisticRetry optimisticRetry;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // The user each worker thread writes as
+    private final ThreadLocal<String> user = new ThreadLocal<>();
+
+    @BeforeEach
+    void createLineIndex() {
+        // schema.sql creates it in the application, which these tests do not run
+        jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS uk_cart_created_by_book_id ON cart (created_by, book_id)");
+    }
+
+    @AfterEach
+    void cleanUp() {
+        stockReservationRepository.deleteAllInBatch();
+        cartRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void concurrentWritesOfOneUserAreNotLost() throws Exception {
+        when(jwtProvider.getCurrentUser()).thenReturn("reader");
+        Book book = book("Dune");
+        Cart cart = line("reader", book, 100);
+
+        // In every round each device of the user writes the same line once, all at the same time
+        for (int i = 0; i < WRITES; i++) {
+            race(maxAttempts, device -> () -> {
+                cartService.removeFromCart(CartRequest.builder().cartId(cart.getId()).quantity(3).build());
+                return null;
+            });
+            race(maxAttempts, device -> () -> {
+                cartService.applyBatch(add(book, 1));
+                return null;
+            });
+        }
+
+        int expected = 100 - maxAttempts * WRITES * 2;
+        assertThat(cartRepository.findById(cart.getId()).orElseThrow().getQuantity()).isEqualTo(expected);
+        assertThat(reserved(book)).isEqualTo(expected);
+        assertThat(stockReservationRepository.findById(cart.getId()).orElseThrow().getQuantity()).isEqualTo(expected);
+    }
+
+    @Test
+    void concurrentAddsOfANewLineAreAllKept() throws Exception {
+        when(jwtProvider.getCurrentUser()).thenReturn("reader");
+        Book book = book("Dune");
+
+        // Every device inserts the same line, the losers of the unique index add to the winner's line
+        race(maxAttempts, device -> () -> {
+            cartService.applyBatch(add(book, 1));
+            return null;
+        });
+
+        assertThat(cartRepository.findAll()).singleElement().satisfies(cart -> {
+            assertThat(cart.getQuantity()).isEqualTo(maxAttempts);
+            assertThat(stockReservationRepository.findById(cart.getId()).orElseThrow().getQuantity())
+                    .isEqualTo(maxAttempts);
+        });
+        assertThat(reserved(book)).isEqualTo(maxAttempts);
+    }
+
+    @Test
+    void writesOfDifferentUsersNeverRetry() throws Exception {
+        when(jwtProvider.getCurrentUser()).thenAnswer(invocation -> user.get());
+        List<Cart> carts = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            carts.add(line("reader" + i, book("Book " + i), 100));
+        }
+        long retries = optimisticRetry.retries();
+
+        long started = System.nanoTime();
+        race(DEVICES, worker -> () -> {
+            user.set("reader" + worker);
+            Long cartId = carts.get(worker).getId();
+            for (int i = 0; i < WRITES * 4; i++) {
+                cartService.removeFromCart(CartRequest.builder().cartId(cartId).quantity(1).build());
+            }
+            return null;
+        });
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertThat(optimisticRetry.retries()).as("retries after %d ms", elapsed).isEqualTo(retries);
+        for (Cart cart : carts) {
+            assertThat(cartRepository.findById(cart.getId()).orElseThrow().getQuantity()).isEqualTo(100 - WRITES * 4);
+            assertThat(reserved(cart.getBook())).isEqualTo(100 - WRITES * 4);
+        }
+    }
+
+    @Test
+    void lineChangedDuringACheckoutIsAConflict() {
+        when(jwtProvider.getCurrentUser()).thenReturn("reader");
+        Cart cart = line("reader", book("Dune"), 2);
+
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            // The checkout has read the line when another request of the user changes it
+            cartRepository.findById(cart.getId()).orElseThrow();
+            CompletableFuture.runAsync(() -> jdbcTemplate.update(
+                    "UPDATE cart SET quantity = 3, version = version + 1 WHERE id = ?", cart.getId())).join();
+            cartService.takeCarts(List.of(cart.getId()));
+        })).isInstanceOf(ConcurrentUpdateException.class);
+
+        assertThat(cartRepository.findById(cart.getId()).orElseThrow().getQuantity()).isEqualTo(3);
+    }
+
+    private Book book(String name) {
+        return bookRepository.save(Book.builder().name(name).price(10).quantity(1000).active(true).build());
+    }
+
+    private Cart line(String createdBy, Book book, int quantity) {
+        Cart cart = Cart.builder().book(book).quantity(quantity).totalPrice(quantity * book.getPrice()).build();
+        cart.setCreatedBy(createdBy);
+        cart = cartRepository.save(cart);
+        stockReservationService.hold(cart.getId(), book.getId(), quantity);
+        return cart;
+    }
+
+    private int reserved(Book book) {
+        return jdbcTemplate.queryForObject("SELECT reserved FROM books WHERE id = ?", Integer.class, book.getId());
+    }
+
+    private static CartBatchRequest add(Book book, int quantity) {
+        return CartBatchRequest.builder().operations(List.of(CartOperation.builder()
+                .type(CartOperation.Type.ADD).bookId(book.getId()).quantity(quantity).build())).build();
+    }
+
+    // Starts every task at the same moment and waits for all of them, failing on the first error
+    private static void race(int tasks, IntFunction<Callable<Void>> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                Callable<Void> callable = task.apply(i);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return callable.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.ResponseMessage;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({CartService.class, CartMapper.class, BookMapper.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+class CartServicePagingTest {
+    private static final String USER = "reader";
+    private static final int LINES = 25;
+
+    @MockBean
+    private JwtProvider jwtProvider;
+    @Autowired
+    private CartService cartService;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        when(jwtProvider.getCurrentUser()).thenReturn(USER);
+        for (int i = 0; i < LINES; i++) {
+            Book book = Book.builder().name("Book " + i).price(10).quantity(100).active(true).build();
+            entityManager.persist(book);
+            Cart cart = Cart.builder().book(book).quantity(2).totalPrice(20).build();
+            cart.setCreatedBy(USER);
+            entityManager.persist(cart);
+        }
+        Cart foreign = Cart.builder().book(Book.builder().name("Other").price(99).quantity(1).active(true).build())
+                .quantity(1).totalPrice(99).build();
+        entityManager.persist(foreign.getBook());
+        foreign.setCreatedBy("someone else");
+        entityManager.persist(foreign);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void onlyTheRequestedPageIsReturnedWithTheTotalOfTheWholeCart() {
+        ResponseMessage<Page<CartResponse>> firstPage = cartService.getAllCarts(PageRequest.of(0, 10));
+        ResponseMessage<Page<CartResponse>> lastPage = cartService.getAllCarts(PageRequest.of(2, 10));
+
+        assertThat(firstPage.getEntities().getContent()).hasSize(10);
+        assertThat(firstPage.getEntities().getTotalElements()).isEqualTo(LINES);
+        assertThat(firstPage.getEntities().getTotalPages()).isEqualTo(3);
+        assertThat(lastPage.getEntities().getContent()).hasSize(5);
+        assertThat(lastPage.getEntities().getContent().get(0).getId())
+                .isGreaterThan(firstPage.getEntities().getContent().get(9).getId());
+        assertThat(firstPage.getMessage()).isEqualTo("Total price of all carts: " + LINES * 20);
+    }
+
+    @Test
+    void emptyCartIsNotFound() {
+        cartRepository.deleteAllByCreatedBy(USER);
+
+        assertThatThrownBy(() -> cartService.getAllCarts(PageRequest.of(0, 10)))
+                .isInstanceOf(NotFoundException.class);
+    }
+}
@@ -0,0 +1,132 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.order.OrderRequest;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.OrderDetailsMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.OrderMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.NotFoundException;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.OrderDetailsRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.OrderRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Guards checkout against loading carts one by one: creating an order must run the same number of
+ * statements however many cart lines it is made of. The stock is taken by the mocked BookService.
+ */
+@DataJpaTest(properties = {
+        "spring.sql.init.mode=never",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({CartService.class, OrderService.class, OrderDetailsService.class, CartMapper.class, BookMapper.class,
+        OrderMapper.class, OrderDetailsMapper.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CheckoutQueryCountTest {
+    private static final String USER = "reader";
+
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookService bookService;
+    @Autowired
+    private OrderService orderService;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private OrderDetailsRepository orderDetailsRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        when(jwtProvider.getCurrentUser()).thenReturn(USER);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        orderDetailsRepository.deleteAllInBatch();
+        orderRepository.deleteAllInBatch();
+        cartRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void checkoutRunsTheSameStatementsForAnyNumberOfLines() {
+        // Warms up the pooled ID sequences, which are read twice on first use and then once per block of IDs
+        checkout(lines(USER, 1));
+        checkout(lines(USER, 1));
+
+        long few = checkout(lines(USER, 2));
+        long many = checkout(lines(USER, 12));
+
+        assertThat(many).isEqualTo(few);
+        assertThat(cartRepository.findAllByCreatedBy(USER)).isEmpty();
+        assertThat(orderDetailsRepository.count()).isEqualTo(16);
+    }
+
+    @Test
+    void missingAndForeignLinesRejectTheWholeCheckout() {
+        List<Long> own = lines(USER, 2);
+        List<Long> foreign = lines("writer", 1);
+        List<Long> ids = new ArrayList<>(own);
+        ids.addAll(foreign);
+        ids.add(-1L);
+
+        assertThatThrownBy(() -> orderService.createOrder(new OrderRequest(ids)))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessageContaining(foreign.get(0) + ", -1");
+
+        assertThat(cartRepository.count()).isEqualTo(3);
+        assertThat(orderRepository.count()).isZero();
+    }
+
+    // Checks the lines out and returns the number of statements Hibernate prepared for it
+    private long checkout(List<Long> cartIds) {
+        statistics.clear();
+        orderService.createOrder(new OrderRequest(cartIds));
+        return statistics.getPrepareStatementCount();
+    }
+
+    private List<Long> lines(String createdBy, int count) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Book book = bookRepository.save(Book.builder().name("Book " + i).price(10).quantity(100).active(true).build());
+            Cart cart = Cart.builder().book(book).quantity(1).totalPrice(10).build();
+            cart.setCreatedBy(createdBy);
+            ids.add(cartRepository.save(cart).getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,169 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.order.OrderRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.order.OrderResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.order.details.OrderDetailsResponse;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.ApiControllerException;
+import com.mokhir.dev.BookShop.exceptions.IdempotencyKeyMismatchException;
+import com.mokhir.dev.BookShop.job.IdempotencyKeySweeper;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.IdempotencyKeyRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({IdempotencyService.class, IdempotencyKeySweeper.class, AuditingConfig.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdempotencyServiceTest {
+    private static final OrderRequest REQUEST = new OrderRequest(List.of(1L, 2L));
+
+    @MockBean
+    private JwtProvider jwtProvider;
+    @Autowired
+    private IdempotencyService idempotencyService;
+    @Autowired
+    private IdempotencyKeySweeper sweeper;
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Stands in for checkout: counts its runs and creates a new order every time
+    private final AtomicInteger checkouts = new AtomicInteger();
+    private final Supplier<OrderResponse> checkout = () -> {
+        int id = checkouts.incrementAndGet();
+        return OrderResponse.builder().id((long) id).totalAmount(2L).totalPrice(20L).status(true)
+                .orderDetails(List.of(OrderDetailsResponse.builder().id(10L * id).quantity(2).price(10).build()))
+                .build();
+    };
+
+    @BeforeEach
+    void setUp() {
+        when(jwtProvider.getCurrentUser()).thenReturn("reader");
+    }
+
+    @AfterEach
+    void cleanUp() {
+        idempotencyKeyRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void repeatedKeyReplaysTheFirstResponse() throws Exception {
+        OrderResponse first = idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout);
+        OrderResponse retried = idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout);
+        OrderResponse other = idempotencyService.execute("key-2", REQUEST, OrderResponse.class, checkout);
+
+        assertThat(checkouts).hasValue(2);
+        assertThat(retried.getId()).isEqualTo(first.getId());
+        assertThat(retried.getOrderDetails()).singleElement()
+                .satisfies(details -> assertThat(details.getId()).isEqualTo(10L));
+        assertThat(other.getId()).isEqualTo(2L);
+    }
+
+    @Test
+    void concurrentDuplicatesWaitForTheFirstExecution() throws Exception {
+        Supplier<OrderResponse> slowCheckout = () -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return checkout.get();
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<OrderResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return idempotencyService.execute("key-1", REQUEST, OrderResponse.class, slowCheckout);
+                }));
+            }
+            start.countDown();
+            for (Future<OrderResponse> result : results) {
+                assertThat(result.get(30, TimeUnit.SECONDS).getId()).isEqualTo(1L);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(checkouts).hasValue(1);
+    }
+
+    @Test
+    void keyOfAnotherRequestIsRejected() throws Exception {
+        idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout);
+
+        assertThatThrownBy(() -> idempotencyService.execute("key-1", new OrderRequest(List.of(3L)),
+                OrderResponse.class, checkout))
+                .isInstanceOf(IdempotencyKeyMismatchException.class);
+        assertThatThrownBy(() -> idempotencyService.execute(" ", REQUEST, OrderResponse.class, checkout))
+                .isInstanceOf(ApiControllerException.class);
+        assertThat(checkouts).hasValue(1);
+    }
+
+    @Test
+    void usersSendingTheSameKeyEachGetTheirOwnExecution() throws Exception {
+        OrderResponse reader = idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout);
+
+        // Neither the same nor another body of a second user is matched against the first user's key
+        when(jwtProvider.getCurrentUser()).thenReturn("writer");
+        OrderResponse writer = idempotencyService.execute("key-1", new OrderRequest(List.of(3L)),
+                OrderResponse.class, checkout);
+        when(jwtProvider.getCurrentUser()).thenReturn("editor");
+        OrderResponse editor = idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout);
+        when(jwtProvider.getCurrentUser()).thenReturn("reader");
+        OrderResponse retried = idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout);
+
+        assertThat(checkouts).hasValue(3);
+        assertThat(List.of(reader.getId(), writer.getId(), editor.getId())).containsExactly(1L, 2L, 3L);
+        assertThat(retried.getId()).isEqualTo(reader.getId());
+        assertThat(idempotencyKeyRepository.findAll()).extracting("createdBy")
+                .containsExactlyInAnyOrder("reader", "writer", "editor");
+    }
+
+    @Test
+    void failedExecutionIsRunAgainAndExpiredKeysAreSwept() throws Exception {
+        assertThatThrownBy(() -> idempotencyService.execute("key-1", REQUEST, OrderResponse.class, () -> {
+            throw new IllegalStateException("Stock ran out");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout).getId()).isEqualTo(1L);
+
+        // An expired key is used as a new one until the sweeper removes it
+        jdbcTemplate.update("UPDATE idempotency_keys SET expires_at = ?", LocalDateTime.now().minusMinutes(1));
+        assertThat(idempotencyService.execute("key-1", REQUEST, OrderResponse.class, checkout).getId()).isEqualTo(2L);
+        idempotencyService.execute("key-2", REQUEST, OrderResponse.class, checkout);
+        jdbcTemplate.update("UPDATE idempotency_keys SET expires_at = ? WHERE idempotency_key = ?",
+                LocalDateTime.now().minusMinutes(1), "key-1");
+        sweeper.sweep();
+
+        assertThat(idempotencyKeyRepository.findAll()).extracting("key").containsExactly("key-2");
+    }
+}
@@ -0,0 +1,115 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.order.OrderResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.order.details.OrderDetailsResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.aggregation.entity.Order;
+import com.mokhir.dev.BookShop.aggregation.entity.OrderDetails;
+import com.mokhir.dev.BookShop.aggregation.mapper.BookMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.CartMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.OrderDetailsMapper;
+import com.mokhir.dev.BookShop.aggregation.mapper.OrderMapper;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+/**
+ * Guards the listings of carts, orders and order details against N+1 selects: each of them must
+ * run the same number of statements however many rows it maps.
+ */
+@DataJpaTest(properties = {
+        "spring.sql.init.mode=never",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({CartService.class, OrderService.class, OrderDetailsService.class, CartMapper.class, BookMapper.class,
+        OrderMapper.class, OrderDetailsMapper.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+class ListingQueryCountTest {
+    private static final String USER = "reader";
+    private static final int ORDERS = 4;
+    private static final int LINES = 6;
+
+    @MockBean
+    private JwtProvider jwtProvider;
+    @MockBean
+    private BookService bookService;
+    @Autowired
+    private CartService cartService;
+    @Autowired
+    private OrderService orderService;
+    @Autowired
+    private OrderDetailsService orderDetailsService;
+    @Autowired
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        when(jwtProvider.getCurrentUser()).thenReturn(USER);
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        for (int o = 0; o < ORDERS; o++) {
+            Order order = Order.builder().totalAmount((long) LINES).totalPrice(10L * LINES).status(true).build();
+            order.setCreatedBy(USER);
+            order.setCreatedAt("2024-01-0" + (o + 1));
+            entityManager.persist(order);
+            for (int l = 0; l < LINES; l++) {
+                Book book = Book.builder().name("Book " + o + "-" + l).price(10).quantity(100).active(true).build();
+                entityManager.persist(book);
+                Cart cart = Cart.builder().book(book).quantity(1).totalPrice(10).build();
+                cart.setCreatedBy(USER);
+                entityManager.persist(cart);
+                OrderDetails details = OrderDetails.builder().order(order).book(book).price(10).quantity(1).build();
+                details.setCreatedBy(USER);
+                entityManager.persist(details);
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+    }
+
+    @Test
+    void cartPageIsReadWithPageCountAndSumQueries() {
+        Page<?> page = cartService.getAllCarts(PageRequest.of(0, 10)).getEntities();
+
+        assertThat(page.getContent()).hasSize(10);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    void ordersAreReadWithTheirDetailsInTwoQueries() {
+        Page<OrderResponse> orders = orderService.getAll(0, 10);
+
+        assertThat(orders.getContent()).hasSize(ORDERS)
+                .allSatisfy(order -> assertThat(order.getOrderDetails()).hasSize(LINES)
+                        .allSatisfy(details -> assertThat(details.getBook().getName()).startsWith("Book")));
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+
+        statistics.clear();
+        assertThat(orderService.getLast().getOrderDetails()).hasSize(LINES);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void orderDetailsAreReadInOneQuery() {
+        Page<OrderDetailsResponse> details = orderDetailsService.getAll(0, 100);
+
+        assertThat(details.getContent()).hasSize(ORDERS * LINES);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,340 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookLookup;
+import com.mokhir.dev.BookShop.aggregation.dto.books.BookResponse;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartBatchRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartOperation;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartRequest;
+import com.mokhir.dev.BookShop.aggregation.dto.cart.CartResponse;
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.Cart;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.DatabaseException;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
+import com.mokhir.dev.BookShop.job.AbandonedCartPurgeJob;
+import com.mokhir.dev.BookShop.job.CartWriteBehindJob;
+import com.mokhir.dev.BookShop.jwt.JwtProvider;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.CartRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.StockReservationRepository;
+import com.mokhir.dev.BookShop.support.EmbeddedRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = {
+        "spring.sql.init.mode=never",
+        "cart.store=redis",
+        // The tests flush the write-behind themselves
+        "cart.write-behind.interval=3600000"
+})
+@Import({RedisCartService.class, CartWriteBehindJob.class, StockReservationService.class, OptimisticRetry.class,
+        AuditingConfig.class})
+@ImportAutoConfiguration({RedisAutoConfiguration.class, JacksonAutoConfiguration.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RedisCartServiceTest {
+    private static final String USER = "reader";
+
+    @MockBean
+    private BookService bookService;
+    @MockBean
+    private JwtProvider jwtProvider;
+    @Autowired
+    private RedisCartService cartService;
+    @Autowired
+    private CartWriteBehindJob writeBehind;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+    @Autowired
+    private StringRedisTemplate redis;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Book book;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.port", EmbeddedRedis::port);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        redis.delete(redis.keys("cart:*"));
+        book = bookRepository.save(Book.builder().name("Dune").price(12).quantity(5).active(true).build());
+        BookResponse response = BookResponse.builder()
+                .id(book.getId()).name("Dune").price(12).quantity(5).version(0L).build();
+        when(jwtProvider.getCurrentUser()).thenReturn(USER);
+        when(bookService.getById(anyString())).thenReturn(response);
+        when(bookService.getByIds(anyList()))
+                .thenReturn(List.of(new BookLookup(book.getId(), true, response)));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        stockReservationRepository.deleteAllInBatch();
+        cartRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void cartIsKeptInRedisAndWrittenToTheTableInBatches() {
+        CartResponse first = cartService.addToCart(request(null, 2));
+        CartResponse second = cartService.addToCart(request(null, 1));
+
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(second.getQuantity()).isEqualTo(3);
+        assertThat(cartRepository.count()).isZero();
+        assertThat(cartService.getAllCarts(PageRequest.of(0, 10)).getMessage()).isEqualTo("Total price of all carts: 36");
+
+        writeBehind.flush();
+
+        Cart row = cartRepository.findById(first.getId()).orElseThrow();
+        assertThat(row.getCreatedBy()).isEqualTo(USER);
+        assertThat(row.getQuantity()).isEqualTo(3);
+        assertThat(row.getTotalPrice()).isEqualTo(36);
+
+        cartService.deleteCart(request(first.getId(), null));
+        writeBehind.flush();
+
+        assertThat(cartRepository.count()).isZero();
+    }
+
+    @Test
+    void addingMoreCopiesThanAreLeftIsRejected() {
+        cartService.addToCart(request(null, 4));
+
+        assertThatThrownBy(() -> cartService.addToCart(request(null, 2)))
+                .isInstanceOf(DatabaseException.class)
+                .hasMessageContaining("Limit crowded");
+    }
+
+    @Test
+    void copiesPutIntoTheCartAreHeldLikeThoseOfTheCartTable() {
+        CartResponse line = cartService.addToCart(request(null, 3));
+        assertThat(reserved()).isEqualTo(3);
+
+        cartService.removeFromCart(request(line.getId(), 1));
+        assertThat(reserved()).isEqualTo(2);
+
+        // Another cart holds the rest of the copies
+        stockReservationService.hold(999L, book.getId(), 3);
+        assertThatThrownBy(() -> cartService.addToCart(request(null, 1)))
+                .isInstanceOf(DatabaseException.class)
+                .hasMessageContaining("held by other carts");
+        assertThat(cartService.storedLines(USER).orElseThrow().get(book.getId()).quantity()).isEqualTo(2);
+
+        cartService.deleteCart(request(line.getId(), null));
+        assertThat(reserved()).isEqualTo(3);
+    }
+
+    @Test
+    void concurrentAddsOfTheSameBookAreAllKept() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> adds = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                adds.add(executor.submit(() -> {
+                    start.await();
+                    cartService.addToCart(request(null, 1));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> add : adds) {
+                add.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(cartService.storedLines(USER).orElseThrow().values()).singleElement()
+                .satisfies(line -> assertThat(line.quantity()).isEqualTo(4));
+        assertThat(reserved()).isEqualTo(4);
+        assertThat(stockReservationRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void checkoutTakesLinesAndPutsThemBackOnRollback() {
+        CartResponse line = cartService.addToCart(request(null, 2));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Cart> taken = cartService.takeCarts(List.of(line.getId()));
+            assertThat(taken).singleElement().satisfies(cart -> {
+                assertThat(cart.getBook().getId()).isEqualTo(book.getId());
+                assertThat(cart.getTotalPrice()).isEqualTo(24);
+            });
+            assertThat(cartService.storedLines(USER).orElseThrow()).isEmpty();
+            status.setRollbackOnly();
+        });
+        assertThat(cartService.storedLines(USER).orElseThrow()).containsKey(book.getId());
+
+        transactionTemplate.executeWithoutResult(status -> cartService.takeCarts(List.of(line.getId())));
+        assertThat(cartService.storedLines(USER).orElseThrow()).isEmpty();
+    }
+
+    @Test
+    void cartLostDuringACheckoutIsLoadedBeforeItsLinesArePutBack() {
+        CartResponse line = cartService.addToCart(request(null, 2));
+        Book other = bookRepository.save(Book.builder().name("Emma").price(7).quantity(3).active(true).build());
+        Cart stored = Cart.builder().book(other).quantity(1).totalPrice(7).build();
+        stored.setCreatedBy(USER);
+        cartRepository.save(stored);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            cartService.takeCarts(List.of(line.getId()));
+            redis.delete("cart:user:" + USER);
+            status.setRollbackOnly();
+        });
+
+        // The restored hash is loaded, so the lines of the table are in it and later writes succeed
+        assertThat(redis.opsForHash().get("cart:user:" + USER, "loaded")).isEqualTo("1");
+        assertThat(cartService.storedLines(USER).orElseThrow()).containsOnlyKeys(book.getId(), other.getId());
+        assertThat(cartService.addToCart(request(null, 1)).getQuantity()).isEqualTo(3);
+    }
+
+    @Test
+    void abandonedCartsArePurgedFromTheTableAndFromRedis() {
+        cartService.addToCart(request(null, 2));
+        writeBehind.flush();
+        jdbcTemplate.update("UPDATE cart SET last_activity_at = ?", LocalDateTime.now().minusDays(31));
+
+        AbandonedCartPurgeJob job = new AbandonedCartPurgeJob(cartService, new SimpleMeterRegistry(),
+                Duration.ofDays(30), 10, Duration.ZERO);
+
+        assertThat(job.purge()).isEqualTo(1);
+        assertThat(cartRepository.count()).isZero();
+        assertThat(reserved()).isZero();
+        assertThat(cartService.storedLines(USER)).isEmpty();
+        // Nothing is left for the write-behind to put back
+        writeBehind.flush();
+        assertThat(cartRepository.count()).isZero();
+    }
+
+    @Test
+    void missingCartIsLoadedFromTheTable() {
+        Cart stored = Cart.builder().book(book).quantity(1).totalPrice(12).build();
+        stored.setCreatedBy(USER);
+        stored = cartRepository.save(stored);
+
+        CartResponse response = cartService.getCart(request(stored.getId(), null));
+
+        assertThat(response.getQuantity()).isEqualTo(1);
+        assertThat(cartService.storedLines(USER)).isPresent();
+        // A new line gets an ID from the same sequence without colliding with the stored one
+        Book other = bookRepository.save(Book.builder().name("Emma").price(7).quantity(3).active(true).build());
+        when(bookService.getById(String.valueOf(other.getId()))).thenReturn(BookResponse.builder()
+                .id(other.getId()).name("Emma").price(7).quantity(3).version(0L).build());
+        CartResponse added = cartService.addToCart(CartRequest.builder().bookId(other.getId()).quantity(1).build());
+        writeBehind.flush();
+
+        assertThat(added.getId()).isNotEqualTo(stored.getId());
+        assertThat(cartRepository.findAllByCreatedBy(USER)).hasSize(2);
+    }
+
+    @Test
+    void batchIsAppliedToRedisAndWrittenBehind() throws Exception {
+        CartResponse line = cartService.addToCart(request(null, 1));
+
+        List<CartResponse> changed = cartService.applyBatch(batch(
+                operation(CartOperation.Type.ADD, 3), operation(CartOperation.Type.REMOVE, 2))).getEntities();
+        writeBehind.flush();
+
+        assertThat(changed).singleElement().satisfies(cart -> {
+            assertThat(cart.getId()).isEqualTo(line.getId());
+            assertThat(cart.getQuantity()).isEqualTo(2);
+        });
+        assertThat(cartRepository.findById(line.getId()).orElseThrow().getQuantity()).isEqualTo(2);
+        assertThat(reserved()).isEqualTo(2);
+        assertThatThrownBy(() -> cartService.applyBatch(batch(operation(CartOperation.Type.SET, 6))))
+                .isInstanceOf(StockNotEnoughException.class);
+
+        cartService.applyBatch(batch(operation(CartOperation.Type.SET, 0)));
+        writeBehind.flush();
+
+        assertThat(cartService.storedLines(USER).orElseThrow()).isEmpty();
+        assertThat(cartRepository.count()).isZero();
+        assertThat(reserved()).isZero();
+    }
+
+    @Test
+    void concurrentBatchesAreEachAppliedWhole() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> batches = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                batches.add(executor.submit(() -> {
+                    start.await();
+                    return cartService.applyBatch(batch(operation(CartOperation.Type.ADD, 1)));
+                }));
+            }
+            start.countDown();
+            for (Future<?> applied : batches) {
+                applied.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(cartService.storedLines(USER).orElseThrow().values()).singleElement()
+                .satisfies(line -> assertThat(line.quantity()).isEqualTo(4));
+        assertThat(reserved()).isEqualTo(4);
+    }
+
+    private int reserved() {
+        return jdbcTemplate.queryForObject("SELECT reserved FROM books WHERE id = ?", Integer.class, book.getId());
+    }
+
+    private CartOperation operation(CartOperation.Type type, int quantity) {
+        return CartOperation.builder().type(type).bookId(book.getId()).quantity(quantity).build();
+    }
+
+    private static CartBatchRequest batch(CartOperation... operations) {
+        return CartBatchRequest.builder().operations(List.of(operations)).build();
+    }
+
+    private CartRequest request(Long cartId, Integer quantity) {
+        return CartRequest.builder().cartId(cartId).bookId(book.getId()).quantity(quantity).build();
+    }
+}
@@ -0,0 +1,165 @@
+package com.mokhir.dev.BookShop.service;
+
+import com.mokhir.dev.BookShop.aggregation.entity.Book;
+import com.mokhir.dev.BookShop.aggregation.entity.StockReservation;
+import com.mokhir.dev.BookShop.config.AuditingConfig;
+import com.mokhir.dev.BookShop.exceptions.StockNotEnoughException;
+import com.mokhir.dev.BookShop.job.StockReservationSweeper;
+import com.mokhir.dev.BookShop.repository.interfaces.BookRepository;
+import com.mokhir.dev.BookShop.repository.interfaces.StockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest(properties = "spring.sql.init.mode=never")
+@Import({StockReservationService.class, StockReservationSweeper.class, AuditingConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockReservationServiceTest {
+    private static final int STOCK = 10;
+    private static final int BUYERS = 60;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private StockReservationSweeper sweeper;
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long bookId;
+
+    @BeforeEach
+    void setUp() {
+        bookId = bookRepository.save(Book.builder().name("Dune").price(12).quantity(STOCK).active(true).build()).getId();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        stockReservationRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void concurrentBuyersNeverHoldMoreThanTheStock() throws Exception {
+        int held = race(BUYERS, buyer -> () -> tryHold(buyer, 1));
+
+        assertThat(held).isEqualTo(STOCK);
+        assertThat(reserved()).isEqualTo(STOCK);
+        assertThat(stockReservationRepository.count()).isEqualTo(STOCK);
+
+        // Half of the holders give their copies back or let them expire while new buyers keep coming
+        List<Long> holders = stockReservationRepository.findAll().stream().map(StockReservation::getCartId).toList();
+        jdbcTemplate.update("UPDATE stock_reservations SET expires_at = ? WHERE cart_id IN (?, ?, ?)",
+                LocalDateTime.now().minusMinutes(1), holders.get(0), holders.get(1), holders.get(2));
+        int late = race(BUYERS, buyer -> switch (buyer) {
+            case 0 -> () -> { sweeper.sweep(); return false; };
+            case 1, 2 -> () -> { stockReservationService.releaseAll(List.of(holders.get(2 + buyer))); return false; };
+            default -> () -> tryHold(1000L + buyer, 1);
+        });
+
+        assertThat(late).isLessThanOrEqualTo(5);
+        assertThat(reserved()).isLessThanOrEqualTo(STOCK)
+                .isEqualTo(stockReservationRepository.findAll().stream().mapToInt(StockReservation::getQuantity).sum());
+    }
+
+    @Test
+    void linesHoldWhatTheyAddAndGiveBackWhatTheyRemove() {
+        stockReservationService.hold(1L, bookId, 4);
+        stockReservationService.hold(1L, bookId, 2);
+        stockReservationService.hold(2L, bookId, 3);
+
+        assertThatThrownBy(() -> stockReservationService.hold(3L, bookId, 2))
+                .isInstanceOf(StockNotEnoughException.class);
+        // The failed hold is rolled back with the line it was written for
+        assertThat(stockReservationRepository.existsById(3L)).isFalse();
+        assertThat(reserved()).isEqualTo(9);
+
+        stockReservationService.release(1L, 5);
+        assertThat(stockReservationRepository.findById(1L).orElseThrow().getQuantity()).isEqualTo(1);
+        stockReservationService.releaseAll(List.of(1L));
+        assertThat(reserved()).isEqualTo(3);
+
+        // Checkout takes the holds, their copies stay reserved until the stock is decremented
+        assertThat(stockReservationService.take(List.of(2L, 7L))).isEqualTo(Map.of(bookId, 3));
+        assertThat(stockReservationRepository.count()).isZero();
+        assertThat(reserved()).isEqualTo(3);
+    }
+
+    @Test
+    void expiredHoldsAreGivenBackBySweeper() {
+        stockReservationService.hold(1L, bookId, STOCK);
+        assertThatThrownBy(() -> stockReservationService.hold(2L, bookId, 1))
+                .isInstanceOf(StockNotEnoughException.class);
+
+        jdbcTemplate.update("UPDATE stock_reservations SET expires_at = ?", LocalDateTime.now().minusSeconds(1));
+        sweeper.sweep();
+
+        assertThat(stockReservationRepository.count()).isZero();
+        assertThat(reserved()).isZero();
+        stockReservationService.hold(2L, bookId, 1);
+        assertThat(reserved()).isEqualTo(1);
+    }
+
+    private boolean tryHold(long cartId, int quantity) {
+        try {
+            stockReservationService.hold(cartId, bookId, quantity);
+            return true;
+        } catch (StockNotEnoughException ex) {
+            return false;
+        }
+    }
+
+    private int reserved() {
+        return jdbcTemplate.queryForObject("SELECT reserved FROM books WHERE id = ?", Integer.class, bookId);
+    }
+
+    // Starts every task at the same moment and counts those that returned true
+    private static int race(int tasks, IntFunction<Callable<Boolean>> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                Callable<Boolean> callable = task.apply(i);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return callable.call();
+                }));
+            }
+            start.countDown();
+            int succeeded = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(30, TimeUnit.SECONDS)) {
+                    succeeded++;
+                }
+            }
+            return succeeded;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
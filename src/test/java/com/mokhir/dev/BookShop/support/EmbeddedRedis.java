@@ -0,0 +1,42 @@
+package com.mokhir.dev.BookShop.support;
+
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * Local Redis stand-in shared by the tests of this JVM, started on a free port on first use.
+ */
+public final class EmbeddedRedis {
+    private static RedisServer server;
+    private static int port;
+
+    private EmbeddedRedis() {
+    }
+
+    public static synchronized int port() {
+        if (server == null) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                server = new RedisServer(port);
+                server.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.stop();
+                } catch (IOException ignored) {
+                    // the process is exiting anyway
+                }
+            }));
+        }
+        return port;
+    }
+}
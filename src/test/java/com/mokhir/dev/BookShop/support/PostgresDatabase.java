@@ -0,0 +1,66 @@
+package com.mokhir.dev.BookShop.support;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ * PostgreSQL for the tests whose SQL only PostgreSQL runs, shared by the tests of this JVM. A container is
+ * started on first use; a build without Docker, like a CI job with a PostgreSQL service, can point the tests
+ * at a server instead:
+ * <pre>
+ * mvn test -Dtest.postgres.url=jdbc:postgresql://localhost:5432/postgres -Dtest.postgres.username=postgres \
+ *     -Dtest.postgres.password=...
+ * </pre>
+ * On such a server everything is created in the book_shop_test schema, the application tables are not touched.
+ * Tests that need PostgreSQL are enabled with
+ * {@code @EnabledIf("com.mokhir.dev.BookShop.support.PostgresDatabase#available")}.
+ */
+public final class PostgresDatabase {
+    private static final String SCHEMA = "book_shop_test";
+
+    private static PostgreSQLContainer<?> container;
+    private static String url;
+    private static String username;
+    private static String password;
+
+    private PostgresDatabase() {
+    }
+
+    public static boolean available() {
+        return System.getProperty("test.postgres.url") != null || DockerClientFactory.instance().isDockerAvailable();
+    }
+
+    /**
+     * Points the application's data source at the database, for Spring tests' @DynamicPropertySource.
+     */
+    public static void register(DynamicPropertyRegistry registry) {
+        start();
+        registry.add("spring.datasource.url", () -> url);
+        registry.add("spring.datasource.username", () -> username);
+        registry.add("spring.datasource.password", () -> password);
+    }
+
+    private static synchronized void start() {
+        if (url != null) {
+            return;
+        }
+        String serverUrl = System.getProperty("test.postgres.url");
+        if (serverUrl == null) {
+            container = new PostgreSQLContainer<>("postgres:16-alpine");
+            container.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(container::stop));
+            url = container.getJdbcUrl();
+            username = container.getUsername();
+            password = container.getPassword();
+            return;
+        }
+        username = System.getProperty("test.postgres.username", "postgres");
+        password = System.getProperty("test.postgres.password", "");
+        new JdbcTemplate(new DriverManagerDataSource(serverUrl, username, password))
+                .execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+        url = serverUrl + (serverUrl.contains("?") ? "&" : "?") + "currentSchema=" + SCHEMA;
+    }
+}
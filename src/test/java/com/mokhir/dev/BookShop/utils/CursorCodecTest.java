@@ -0,0 +1,47 @@
+package com.mokhir.dev.BookShop.utils;
+
+import com.mokhir.dev.BookShop.exceptions.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CursorCodecTest {
+
+    @Test
+    void encodedKeysDecodeToTheSameValues() {
+        String cursor = CursorCodec.encode(0.25f, 42L);
+
+        assertThat(cursor).doesNotContain("|", "=", "+", "/");
+        assertThat(CursorCodec.decode(cursor, 2)).containsExactly("0.25", "42");
+        assertThat(CursorCodec.decodeId(CursorCodec.encode(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void missingCursorStartsAtTheFirstPage() {
+        assertThat(CursorCodec.decodeId(null)).isZero();
+        assertThat(CursorCodec.decodeId(" ")).isZero();
+    }
+
+    @Test
+    void tamperedOrForeignCursorsAreRejected() {
+        String cursor = CursorCodec.encode(42L);
+
+        // Not Base64url at all
+        assertThatThrownBy(() -> CursorCodec.decodeId("not a cursor!")).isInstanceOf(InvalidCursorException.class);
+        // Another version, another number of keys, a key that is not an ID
+        assertThatThrownBy(() -> CursorCodec.decodeId(raw("v2|42"))).isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> CursorCodec.decodeId(raw("v1|42|7"))).isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> CursorCodec.decodeId(raw("v1|4x2"))).isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> CursorCodec.decodeId(raw("v1|"))).isInstanceOf(InvalidCursorException.class);
+        // A cursor of one listing handed to another that expects more keys
+        assertThatThrownBy(() -> CursorCodec.decode(cursor, 2)).isInstanceOf(InvalidCursorException.class);
+    }
+
+    private static String raw(String token) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+}
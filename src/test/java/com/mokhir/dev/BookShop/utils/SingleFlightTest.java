@@ -0,0 +1,62 @@
+package com.mokhir.dev.BookShop.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    void sequentialCallsLoadEachTime() {
+        AtomicInteger loads = new AtomicInteger();
+
+        singleFlight.load("a", () -> "v" + loads.incrementAndGet());
+        String second = singleFlight.load("a", () -> "v" + loads.incrementAndGet());
+
+        assertThat(second).isEqualTo("v2");
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void waitingCallersGetTheLoaderException() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.load("a", () -> {
+                loading.countDown();
+                await(release);
+                throw new IllegalStateException("database down");
+            }));
+            loading.await();
+            Future<String> follower = executor.submit(() -> singleFlight.load("a", () -> "not called"));
+            // Give the follower time to join the load in flight
+            Thread.sleep(200);
+            release.countDown();
+
+            assertThatThrownBy(leader::get).hasCauseInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(follower::get).hasCauseInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("database down");
+            assertThat(singleFlight.inFlight()).isZero();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}